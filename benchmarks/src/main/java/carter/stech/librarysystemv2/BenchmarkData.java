@@ -0,0 +1,130 @@
+package carter.stech.librarysystemv2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Repeatable synthetic books and users for the benchmarks. The same size and seed always give
+ * the same records, so runs before and after a change measure the same data.
+ */
+public class BenchmarkData {
+    private static final String[] WORDS = {
+            "the", "of", "and", "night", "river", "empire", "garden", "shadow", "stone", "winter",
+            "house", "silver", "last", "first", "city", "storm", "song", "glass", "iron", "secret",
+            "mountain", "sea", "light", "dark", "king", "queen", "road", "fire", "book", "star"
+    };
+    private static final String[] NAMES = {
+            "Ada", "Brandon", "Chen", "Dana", "Emil", "Farah", "Grace", "Hiro", "Ines", "Jorn",
+            "Kofi", "Lena", "Mateo", "Nora", "Omar", "Priya", "Quinn", "Rosa", "Sven", "Tariq"
+    };
+    private static final int AUTHORS = 5000;
+    private static final int USERS_PER_BOOK = 10; // One user per this many books, at least 100
+    private static final double LOAN_RATIO = 0.2;
+
+    /**
+     * Generates books. ISBNs are unique; about one in five is on loan to a generated user.
+     *
+     * @param count The number of books.
+     * @param seed  The random seed.
+     * @return The books.
+     */
+    public static List<Book> books(int count, long seed) {
+        Random random = new Random(seed);
+        int users = userCount(count);
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder title = new StringBuilder();
+            int words = 1 + random.nextInt(5);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) title.append(' ');
+                String word = WORDS[random.nextInt(WORDS.length)];
+                title.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+            }
+            int author = random.nextInt(AUTHORS);
+            String name = NAMES[author % NAMES.length] + " " + NAMES[(author / NAMES.length) % NAMES.length] + "son-" + author;
+            boolean lent = random.nextDouble() < LOAN_RATIO;
+            books.add(new Book(title.toString(), name, isbnOf(i), !lent,
+                    lent ? userIdOf(random.nextInt(users)) : null,
+                    lent ? java.time.LocalDate.now().plusDays(random.nextInt(29) - 14) : null));
+        }
+        return books;
+    }
+
+    /**
+     * Generates the users that go with a number of books, with their checked-out lists
+     * matching the books lent to them.
+     *
+     * @param books The generated books.
+     * @return The users.
+     */
+    public static List<User> users(List<Book> books) {
+        int count = userCount(books.size());
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) users.add(new User(userIdOf(i), "Patron " + i, new ArrayList<>()));
+        for (Book book : books) {
+            if (book.getBorrowedBy() != null) {
+                users.get(Integer.parseInt(book.getBorrowedBy().substring(1))).getCheckedOutBooks().add(book.getIsbn());
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Writes books.json and users.json for a number of books into a directory.
+     *
+     * @param directory The directory.
+     * @param count     The number of books.
+     * @param seed      The random seed.
+     * @throws IOException If the files cannot be written.
+     */
+    public static void writeDataFiles(Path directory, int count, long seed) throws IOException {
+        List<Book> books = books(count, seed);
+        JsonRecords.write(directory.resolve("books.json"), books);
+        JsonRecords.write(directory.resolve("users.json"), users(books));
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     * @param directory The directory.
+     * @throws IOException If something cannot be deleted.
+     */
+    public static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) return;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Gets the number of users for a number of books.
+     * @param books The number of books.
+     * @return The number of users.
+     */
+    public static int userCount(int books) {
+        return Math.max(100, books / USERS_PER_BOOK);
+    }
+
+    /**
+     * Gets the ISBN of a generated book.
+     * @param index The book's position.
+     * @return Its ISBN.
+     */
+    public static String isbnOf(int index) {
+        return String.format("978-%09d", index);
+    }
+
+    /**
+     * Gets the ID of a generated user.
+     * @param index The user's position.
+     * @return Their ID.
+     */
+    public static String userIdOf(int index) {
+        return "U" + index;
+    }
+}
@@ -0,0 +1,116 @@
+package carter.stech.librarysystemv2;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the benchmarks, or compares two runs.
+ * <ul>
+ *     <li>{@code java -jar benchmarks.jar [JMH options]} runs them (all of them, or those
+ *     matching a regex such as {@code Lookup}; {@code -p books=10000} limits the sizes).
+ *     Results are written as JSON to {@code results/<date-time>.json} unless {@code -rf}
+ *     or {@code -rff} is given.</li>
+ *     <li>{@code java -jar benchmarks.jar compare <before.json> <after.json>} prints each
+ *     benchmark's score in both runs and the change.</li>
+ * </ul>
+ */
+public class BenchmarkMain {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Runs or compares.
+     * @param args JMH options, or {@code compare} and two result files.
+     * @throws Exception If the benchmarks cannot be run or the results cannot be read.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("compare")) {
+            if (args.length != 3) {
+                System.err.println("Usage: compare <before.json> <after.json>");
+                System.exit(2);
+            }
+            compare(Path.of(args[1]), Path.of(args[2]));
+            return;
+        }
+
+        List<String> options = new ArrayList<>(List.of(args));
+        if (!options.contains("-rf") && !options.contains("-rff")) {
+            Path results = Path.of("results");
+            Files.createDirectories(results);
+            String name = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json";
+            options.addAll(List.of("-rf", "json", "-rff", results.resolve(name).toString()));
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+
+    /**
+     * Prints the scores of two runs side by side. A benchmark is identified by its name and
+     * parameters; ones that appear in only one run are listed with a dash for the other.
+     *
+     * @param before The earlier result file.
+     * @param after  The later result file.
+     * @throws IOException If a file cannot be read.
+     */
+    private static void compare(Path before, Path after) throws IOException {
+        Map<String, JsonNode> earlier = scores(before);
+        Map<String, JsonNode> later = scores(after);
+        Map<String, JsonNode> all = new LinkedHashMap<>(earlier);
+        later.forEach(all::putIfAbsent);
+
+        System.out.printf("%-60s %14s %14s %9s  %s%n", "Benchmark", "Before", "After", "Change", "Unit");
+        for (String key : all.keySet()) {
+            JsonNode old = earlier.get(key);
+            JsonNode now = later.get(key);
+            String unit = (now != null ? now : old).path("scoreUnit").asText();
+            String change = "";
+            if (old != null && now != null && old.path("score").asDouble() != 0) {
+                change = String.format("%+.1f%%", 100 * (now.path("score").asDouble() / old.path("score").asDouble() - 1));
+            }
+            System.out.printf("%-60s %14s %14s %9s  %s%n", key, format(old), format(now), change, unit);
+        }
+    }
+
+    /**
+     * Reads the primary score of each benchmark from a JMH JSON result file.
+     *
+     * @param file The result file.
+     * @return Each benchmark's primaryMetric node, keyed by its short name and parameters.
+     * @throws IOException If the file cannot be read.
+     */
+    private static Map<String, JsonNode> scores(Path file) throws IOException {
+        Map<String, JsonNode> scores = new LinkedHashMap<>();
+        for (JsonNode run : objectMapper.readTree(file.toFile())) {
+            String name = run.path("benchmark").asText();
+            StringBuilder key = new StringBuilder(name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1));
+            Iterator<Map.Entry<String, JsonNode>> params = run.path("params").fields();
+            while (params.hasNext()) {
+                Map.Entry<String, JsonNode> param = params.next();
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+            }
+            scores.put(key.toString(), run.path("primaryMetric"));
+        }
+        return scores;
+    }
+
+    /**
+     * Formats a score with its error margin.
+     * @param metric The primaryMetric node, or null if the benchmark was not run.
+     * @return The score, or a dash.
+     */
+    private static String format(JsonNode metric) {
+        if (metric == null) return "-";
+        double error = metric.path("scoreError").asDouble();
+        return Double.isNaN(error) ? String.format("%.3f", metric.path("score").asDouble())
+                : String.format("%.3f ±%.2f", metric.path("score").asDouble(), error);
+    }
+}
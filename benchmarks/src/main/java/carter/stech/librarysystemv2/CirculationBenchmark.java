@@ -0,0 +1,95 @@
+package carter.stech.librarysystemv2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checkout and check-in round trips through {@link CirculationService}, as a desk or the
+ * circulation server makes them: each round trip lends books to a patron and takes them
+ * back, locking, journaling and scheduling saves along the way, and leaves the collection
+ * as it found it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CirculationBenchmark {
+    private static final String PATRON = "BENCH";
+    private static final int BATCH = 3;     // Books per scanner batch
+    private static final int ROTATION = 64; // Books cycled through, so the same one is not lent every time
+
+    private CirculationService circulation;
+    private User patron;
+    private final List<String> available = new ArrayList<>();
+    private int next;
+
+    /**
+     * Registers the benchmark's patron and picks books that are on the shelf.
+     * @param library The loaded repository.
+     * @throws Exception If the patron cannot be added on the application thread.
+     */
+    @Setup(Level.Trial)
+    public void setUp(LibraryState library) throws Exception {
+        circulation = new CirculationService(library.repository);
+        patron = library.applicationThread.submit(() -> {
+            User user = new User(PATRON, "Benchmark Patron", null);
+            library.repository.getUsers().add(user);
+            for (Book book : library.repository.getBooks()) {
+                if (book.isAvailable()) available.add(book.getIsbn());
+                if (available.size() == ROTATION) break;
+            }
+            return user;
+        }).get();
+    }
+
+    /**
+     * Gets the next ISBN in the rotation.
+     * @return The ISBN.
+     */
+    private String nextIsbn() {
+        String isbn = available.get(next);
+        next = (next + 1) % available.size();
+        return isbn;
+    }
+
+    /**
+     * Checks one book out and back in.
+     * @return The check-in result.
+     * @throws IOException If the journal cannot be written.
+     */
+    @Benchmark
+    public CirculationService.Result roundTrip() throws IOException {
+        String isbn = nextIsbn();
+        circulation.checkOut(patron, isbn);
+        return circulation.checkIn(isbn);
+    }
+
+    /**
+     * Checks a scanner batch out and back in, one journal write for each.
+     * @return The check-in results.
+     * @throws IOException If the journal cannot be written.
+     */
+    @Benchmark
+    public List<CirculationService.Result> batchRoundTrip() throws IOException {
+        List<String> isbns = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) isbns.add(nextIsbn());
+        circulation.checkOutAll(patron, isbns);
+        return circulation.checkInAll(isbns);
+    }
+}
@@ -0,0 +1,111 @@
+package carter.stech.librarysystemv2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading and saving the book file at different collection sizes, in both the JSON format
+ * and the binary snapshot format. These are the reads and writes the repository makes at
+ * startup and on every save.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DataFileBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int books;
+
+    private Path directory;
+    private Path json;
+    private Path binary;
+    private Path savedJson;
+    private Path savedBinary;
+    private List<Book> collection;
+
+    /**
+     * Generates the collection and writes it in both formats.
+     * @throws IOException If the files cannot be written.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("library-bench");
+        json = directory.resolve("books.json");
+        binary = directory.resolve("books.bin");
+        savedJson = directory.resolve("saved.json");
+        savedBinary = directory.resolve("saved.bin");
+        collection = BenchmarkData.books(books, 42);
+        JsonRecords.write(json, collection);
+        BinarySnapshot.writeBooks(binary, collection);
+    }
+
+    /**
+     * Removes the files.
+     * @throws IOException If they cannot be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteDirectory(directory);
+    }
+
+    /**
+     * Reads every book from books.json, as the repository does when there is no snapshot.
+     *
+     * @return The books, so the work is not optimized away.
+     * @throws IOException If the file cannot be read.
+     */
+    @Benchmark
+    public List<Book> loadJson() throws IOException {
+        return JsonRecords.readAll(json, Book.class);
+    }
+
+    /**
+     * Decodes every book from the binary snapshot. Records are decoded lazily, so each one
+     * is read out to count the decoding as well as the mapping.
+     *
+     * @param blackhole Consumes the books.
+     * @throws IOException If the file cannot be mapped.
+     */
+    @Benchmark
+    public void loadBinary(Blackhole blackhole) throws IOException {
+        for (Book book : BinarySnapshot.readBooks(binary)) blackhole.consume(book);
+    }
+
+    /**
+     * Writes every book to a JSON file, including the flush to disk.
+     * @throws IOException If the file cannot be written.
+     */
+    @Benchmark
+    public void saveJson() throws IOException {
+        JsonRecords.write(savedJson, collection);
+    }
+
+    /**
+     * Writes every book to a binary snapshot, including the flush to disk.
+     * @throws IOException If the file cannot be written.
+     */
+    @Benchmark
+    public void saveBinary() throws IOException {
+        BinarySnapshot.writeBooks(savedBinary, collection);
+    }
+}
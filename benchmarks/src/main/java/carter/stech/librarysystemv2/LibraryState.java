@@ -0,0 +1,61 @@
+package carter.stech.librarysystemv2;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A loaded repository over a generated collection, for the benchmarks that go through
+ * {@link LibraryRepository}. The repository is a singleton, so this relies on JMH running each
+ * benchmark and size in its own forked JVM: the data files are written to a fresh directory,
+ * {@code library.dataDir} is pointed at it, and only then is the repository created.
+ */
+@State(Scope.Benchmark)
+public class LibraryState {
+    @Param({"10000", "100000", "1000000"})
+    public int books;
+
+    ExecutorService applicationThread;
+    LibraryRepository repository;
+    private Path directory;
+
+    /**
+     * Writes the data files and loads them into the repository.
+     * @throws Exception If the files cannot be written or the repository does not load.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("library-bench");
+        BenchmarkData.writeDataFiles(directory, books, 42);
+        System.setProperty("library.dataDir", directory.toString());
+
+        applicationThread = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "library-application");
+            thread.setDaemon(true);
+            return thread;
+        });
+        LibraryRepository.useApplicationThread(applicationThread);
+        repository = applicationThread.submit(LibraryRepository::getInstance).get();
+        repository.whenLoaded().join();
+    }
+
+    /**
+     * Waits for the saves the benchmark caused, then removes the data files.
+     * @throws Exception If a save fails or the files cannot be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        // Nothing is left pending, so the repository's shutdown hook writes nothing more here
+        applicationThread.submit(repository::saveBooks).get().join();
+        applicationThread.submit(repository::saveUsers).get().join();
+        BenchmarkData.deleteDirectory(directory);
+    }
+}
@@ -0,0 +1,118 @@
+package carter.stech.librarysystemv2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The repository's lookups: exact ISBN, title and user ID lookups, and the substring search
+ * behind the browser's search box. Each call uses the next key from a fixed, shuffled set,
+ * so successive calls do not hit the same cache lines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LookupBenchmark {
+    private static final int KEYS = 1024; // A power of two, so the cursor wraps with a mask
+    private static final String[] FRAGMENTS = {"riv", "silver", "night garden", "empire", "son-12", "sTORm", "ght"};
+    private static final String[] MISSES = {"zzq", "xylophone", "qwerty"};
+
+    private final String[] isbns = new String[KEYS];
+    private final String[] titles = new String[KEYS];
+    private final String[] userIds = new String[KEYS];
+    private final String[] searches = new String[KEYS];
+    private int next;
+
+    /**
+     * Picks the keys from the loaded collection.
+     * @param library The loaded repository.
+     * @throws Exception If the keys cannot be read on the application thread.
+     */
+    @Setup(Level.Trial)
+    public void setUp(LibraryState library) throws Exception {
+        Random random = new Random(7);
+        List<Book> books = library.applicationThread.submit(() -> List.copyOf(library.repository.getBooks())).get();
+        int users = BenchmarkData.userCount(library.books);
+        for (int i = 0; i < KEYS; i++) {
+            Book book = books.get(random.nextInt(books.size()));
+            isbns[i] = book.getIsbn();
+            titles[i] = book.getTitle();
+            userIds[i] = BenchmarkData.userIdOf(random.nextInt(users));
+            searches[i] = FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+        }
+    }
+
+    /**
+     * Gets the position of the next key.
+     * @return The position.
+     */
+    private int nextKey() {
+        return next++ & (KEYS - 1);
+    }
+
+    /**
+     * Looks up a book by ISBN.
+     * @param library The loaded repository.
+     * @return The matches.
+     */
+    @Benchmark
+    public List<Book> findBooksByIsbn(LibraryState library) {
+        return library.repository.findBooksByIsbn(isbns[nextKey()]);
+    }
+
+    /**
+     * Looks up books by exact title; titles repeat, so this returns several.
+     * @param library The loaded repository.
+     * @return The matches.
+     */
+    @Benchmark
+    public List<Book> findBooksByTitle(LibraryState library) {
+        return library.repository.findBooksByTitle(titles[nextKey()]);
+    }
+
+    /**
+     * Looks up a user by ID.
+     * @param library The loaded repository.
+     * @return The user.
+     */
+    @Benchmark
+    public Optional<User> findUserById(LibraryState library) {
+        return library.repository.findUserById(userIds[nextKey()]);
+    }
+
+    /**
+     * Searches titles and authors for a fragment that matches many books.
+     * @param library The loaded repository.
+     * @return The matches.
+     */
+    @Benchmark
+    public List<Book> searchBooks(LibraryState library) {
+        return library.repository.searchBooks(searches[nextKey()]);
+    }
+
+    /**
+     * Searches for text no book contains, which should be answered from the index alone.
+     * @param library The loaded repository.
+     * @return The (empty) matches.
+     */
+    @Benchmark
+    public List<Book> searchBooksMiss(LibraryState library) {
+        return library.repository.searchBooks(MISSES[nextKey() % MISSES.length]);
+    }
+}
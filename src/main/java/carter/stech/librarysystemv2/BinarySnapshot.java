@@ -0,0 +1,384 @@
+package carter.stech.librarysystemv2;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A compact binary snapshot format for books and users, as an alternative to the JSON files.
+ * <p>
+ * A file holds a magic number, a record count and a table of record offsets, followed by
+ * the records. Each record starts with a flags byte and stores strings as an unsigned
+ * 16-bit length followed by UTF-8 bytes, and dates as an epoch-day int. Files are read
+ * through a {@link MappedByteBuffer}, and a record is only decoded when it is asked for.
+ * <p>
+ * Run as a program to convert between formats:
+ * {@code BinarySnapshot import|export books|users <from> <to>}.
+ */
+public class BinarySnapshot {
+    private static final int BOOKS_MAGIC = 0x4C424B31; // "LBK1"
+    private static final int USERS_MAGIC = 0x4C555331; // "LUS1"
+    private static final int HEADER_SIZE = 8;          // Magic and record count
+    private static final int TABLE_BUFFER_SIZE = 1 << 16; // Bytes of the offset table written at a time
+    private static final int AVAILABLE = 1;
+    private static final int HAS_BORROWER = 1 << 1;
+    private static final int HAS_DUE_DATE = 1 << 2;
+
+    /**
+     * Writes books to a binary snapshot, replacing the file atomically.
+     *
+     * @param path  The snapshot file.
+     * @param books The books to write.
+     * @throws IOException If the file could not be written.
+     */
+    public static void writeBooks(Path path, Collection<Book> books) throws IOException {
+        write(path, BOOKS_MAGIC, books, (out, book) -> {
+            int flags = (book.isAvailable() ? AVAILABLE : 0)
+                    | (book.getBorrowedBy() != null ? HAS_BORROWER : 0)
+                    | (book.getDueDate() != null ? HAS_DUE_DATE : 0);
+            out.writeByte(flags);
+            writeString(out, book.getTitle());
+            writeString(out, book.getAuthor());
+            writeString(out, book.getIsbn());
+            if (book.getBorrowedBy() != null) writeString(out, book.getBorrowedBy());
+            if (book.getDueDate() != null) out.writeInt((int) book.getDueDate().toEpochDay());
+        });
+    }
+
+    /**
+     * Writes users to a binary snapshot, replacing the file atomically.
+     *
+     * @param path  The snapshot file.
+     * @param users The users to write.
+     * @throws IOException If the file could not be written.
+     */
+    public static void writeUsers(Path path, Collection<User> users) throws IOException {
+        write(path, USERS_MAGIC, users, (out, user) -> {
+            out.writeByte(0); // No flags defined for users yet
+            writeString(out, user.getUserId());
+            writeString(out, user.getName());
+            out.writeInt(user.getCheckedOutBooks().size());
+            for (String isbn : user.getCheckedOutBooks()) writeString(out, isbn);
+        });
+    }
+
+    /**
+     * Maps a book snapshot into memory. Books are decoded each time they are read from
+     * the returned list, so copy out the ones you keep.
+     *
+     * @param path The snapshot file.
+     * @return A read-only list view of the books in the file.
+     * @throws IOException If the file cannot be mapped or is not a book snapshot.
+     */
+    public static List<Book> readBooks(Path path) throws IOException {
+        return new MappedRecords<>(map(path, BOOKS_MAGIC)) {
+            @Override
+            Book decode(ByteBuffer record) {
+                int flags = record.get();
+                String title = readString(record);
+                String author = readString(record);
+                String isbn = readString(record);
+                String borrowedBy = (flags & HAS_BORROWER) != 0 ? readString(record) : null;
+                LocalDate dueDate = (flags & HAS_DUE_DATE) != 0 ? LocalDate.ofEpochDay(record.getInt()) : null;
+                return new Book(title, author, isbn, (flags & AVAILABLE) != 0, borrowedBy, dueDate);
+            }
+        };
+    }
+
+    /**
+     * Maps a user snapshot into memory. Users are decoded each time they are read from
+     * the returned list, so copy out the ones you keep.
+     *
+     * @param path The snapshot file.
+     * @return A read-only list view of the users in the file.
+     * @throws IOException If the file cannot be mapped or is not a user snapshot.
+     */
+    public static List<User> readUsers(Path path) throws IOException {
+        return new MappedRecords<>(map(path, USERS_MAGIC)) {
+            @Override
+            User decode(ByteBuffer record) {
+                record.get(); // Flags
+                String userId = readString(record);
+                String name = readString(record);
+                int loans = record.getInt();
+                List<String> checkedOutBooks = new ArrayList<>(loans);
+                for (int i = 0; i < loans; i++) checkedOutBooks.add(readString(record));
+                return new User(userId, name, checkedOutBooks);
+            }
+        };
+    }
+
+    /**
+     * Converts books.json (or users.json) into a binary snapshot.
+     *
+     * @param kind Either "books" or "users".
+     * @param json The JSON file to read.
+     * @param bin  The snapshot file to write.
+     * @throws IOException If either file cannot be processed.
+     */
+    public static void importJson(String kind, Path json, Path bin) throws IOException {
+        if (kind.equals("books")) {
+            writeBooks(bin, JsonRecords.readAll(json, Book.class));
+        } else {
+            writeUsers(bin, JsonRecords.readAll(json, User.class));
+        }
+    }
+
+    /**
+     * Converts a binary snapshot back into the JSON format of books.json (or users.json).
+     *
+     * @param kind Either "books" or "users".
+     * @param bin  The snapshot file to read.
+     * @param json The JSON file to write.
+     * @throws IOException If either file cannot be processed.
+     */
+    public static void exportJson(String kind, Path bin, Path json) throws IOException {
+        // Records are decoded from the mapping and written out one at a time
+        List<?> records = kind.equals("books") ? readBooks(bin) : readUsers(bin);
+        JsonRecords.write(json, records);
+    }
+
+    /**
+     * Command-line conversion between the JSON files and binary snapshots.
+     *
+     * @param args {@code import|export books|users <from> <to>}
+     * @throws IOException If the conversion fails.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4 || !(args[1].equals("books") || args[1].equals("users"))) {
+            System.err.println("Usage: BinarySnapshot import|export books|users <from> <to>");
+            System.exit(2);
+        }
+        switch (args[0]) {
+            case "import" -> importJson(args[1], Path.of(args[2]), Path.of(args[3]));
+            case "export" -> exportJson(args[1], Path.of(args[2]), Path.of(args[3]));
+            default -> {
+                System.err.println("Unknown command: " + args[0]);
+                System.exit(2);
+            }
+        }
+    }
+
+    /**
+     * Encodes one record to the output stream.
+     *
+     * @param <T> The record type.
+     */
+    @FunctionalInterface
+    private interface RecordWriter<T> {
+        /**
+         * Writes a record.
+         *
+         * @param out    The stream positioned at the record's offset.
+         * @param record The record to write.
+         * @throws IOException If the write fails.
+         */
+        void write(DataOutputStream out, T record) throws IOException;
+    }
+
+    /**
+     * A read-only list that decodes records from a mapped snapshot on demand.
+     *
+     * @param <T> The record type.
+     */
+    private abstract static class MappedRecords<T> extends AbstractList<T> {
+        private final ByteBuffer buffer;
+        private final int size;
+
+        /**
+         * Wraps a mapped file whose header has been checked.
+         * @param buffer The mapped snapshot.
+         */
+        MappedRecords(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.size = buffer.getInt(4);
+        }
+
+        @Override
+        public T get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+            int offset = buffer.getInt(HEADER_SIZE + index * Integer.BYTES);
+            // Each read gets its own cursor, so the list can be read from several threads
+            return decode(buffer.duplicate().position(offset));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Decodes the record at the buffer's position.
+         *
+         * @param record A buffer positioned at the start of the record.
+         * @return The decoded record.
+         */
+        abstract T decode(ByteBuffer record);
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, fills in its offset table and moves it into place.
+     *
+     * @param path    The snapshot file.
+     * @param magic   The file type marker.
+     * @param records The records to write.
+     * @param writer  Encodes one record.
+     * @param <T>     The record type.
+     * @throws IOException If the file could not be written.
+     */
+    private static <T> void write(Path path, int magic, Collection<T> records, RecordWriter<T> writer)
+            throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        int count = records.size();
+        int[] offsets = new int[count];
+        long tableEnd = HEADER_SIZE + (long) count * Integer.BYTES;
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Records first, after room for the header and table; their offsets are collected on the way
+            channel.position(tableEnd);
+            // Counted above the buffer, so offsets are known without flushing after every record
+            CountingOutputStream counter = new CountingOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), tableEnd);
+            DataOutputStream out = new DataOutputStream(counter);
+            int index = 0;
+            for (T record : records) {
+                if (counter.position > Integer.MAX_VALUE) {
+                    throw new IOException("Snapshot exceeds 2 GB: " + path);
+                }
+                offsets[index++] = (int) counter.position;
+                writer.write(out, record);
+            }
+            out.flush();
+
+            // The header and table go in at the start, a buffer at a time, so a huge snapshot
+            // needs no second copy of its offsets
+            ByteBuffer table = ByteBuffer.allocate(TABLE_BUFFER_SIZE);
+            table.putInt(magic).putInt(count);
+            long written = 0;
+            for (int offset : offsets) {
+                if (!table.hasRemaining()) written = writeFully(channel, table, written);
+                table.putInt(offset);
+            }
+            writeFully(channel, table, written);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes out a filled buffer at a file position and clears it for reuse.
+     *
+     * @param channel  The file.
+     * @param buffer   The filled buffer.
+     * @param position Where in the file it goes.
+     * @return The file position after it.
+     * @throws IOException If the write fails.
+     */
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+        return position;
+    }
+
+    /**
+     * Tracks the file offset of a stream so record offsets can be recorded without seeking.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long position;
+
+        /**
+         * Wraps a stream that starts at a given file offset.
+         *
+         * @param out      The underlying stream.
+         * @param position Its starting offset.
+         */
+        CountingOutputStream(OutputStream out, long position) {
+            this.out = out;
+            this.position = position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * Maps a snapshot file and checks its header.
+     *
+     * @param path  The snapshot file.
+     * @param magic The expected file type marker.
+     * @return The mapped file.
+     * @throws IOException If the file cannot be mapped or has the wrong type.
+     */
+    private static MappedByteBuffer map(Path path, int magic) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != magic) {
+                throw new IOException("Not a library snapshot of the expected type: " + path);
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string. Null is written as an empty string.
+     *
+     * @param out   The output stream.
+     * @param value The string.
+     * @throws IOException If the write fails or the string is too long.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("String too long for a snapshot: " + bytes.length + " bytes");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     *
+     * @param in A buffer positioned at the string.
+     * @return The decoded string.
+     */
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[Short.toUnsignedInt(in.getShort())];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
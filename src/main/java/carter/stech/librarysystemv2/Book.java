@@ -6,22 +6,37 @@ Date: 3/10/2025
 package carter.stech.librarysystemv2;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import javafx.beans.property.*;
 import java.io.Serializable;
 import java.time.LocalDate;
+import java.util.Objects;
 
 /**
  * Represents a book in the library system.
- * Implements JavaFX properties for data binding and serialization.
+ * The data is held in plain fields; JavaFX properties for data binding are only created
+ * when first asked for, which in practice means for the rows a table is displaying.
+ * Once a property exists it becomes the source of truth for that field.
  */
 public class Book implements Serializable {
-    private StringProperty title;
-    private StringProperty author;
-    private StringProperty isbn; //This field can double as a custom book ID
-    private BooleanProperty isAvailable;
-    private StringProperty borrowedBy;
-    private ObjectProperty<LocalDate> dueDate;
+    private String title;
+    private String author;
+    private String isbn; //This field can double as a custom book ID
+    private boolean isAvailable;
+    private String borrowedBy;
+    private LocalDate dueDate;
+
+    // Created on demand by the xxxProperty() methods
+    private transient StringProperty titleProperty;
+    private transient StringProperty authorProperty;
+    private transient StringProperty isbnProperty;
+    private transient BooleanProperty availableProperty;
+    private transient StringProperty borrowedByProperty;
+    private transient ObjectProperty<LocalDate> dueDateProperty;
+
+    private transient RecordObserver observer; // Set while the book belongs to a repository
+    private transient int slot = -1; // Position in the data files, assigned by a RecordStore
 
     /**
      * Constructs a new Book object with the given parameters.
@@ -40,74 +55,134 @@ public class Book implements Serializable {
                 @JsonProperty("available") boolean isAvailable,
                 @JsonProperty("borrowedBy") String borrowedBy,
                 @JsonProperty("dueDate") LocalDate dueDate) {
-        this.title = new SimpleStringProperty(title);
-        this.author = new SimpleStringProperty(author);
-        this.isbn = new SimpleStringProperty(isbn);
-        this.isAvailable = new SimpleBooleanProperty(isAvailable);
-        this.borrowedBy = new SimpleStringProperty(isAvailable ? null : borrowedBy);
-        this.dueDate = new SimpleObjectProperty<>(isAvailable ? null : dueDate);
+        this.title = title;
+        this.author = author;
+        this.isbn = isbn;
+        this.isAvailable = isAvailable;
+        this.borrowedBy = isAvailable ? null : borrowedBy;
+        this.dueDate = isAvailable ? null : dueDate;
     }
 
     /**
      * Gets the title of the book.
      * @return The title of the book.
      */
-    public String getTitle() { return title.get(); }
+    public String getTitle() { return title; }
 
     /**
      * Sets the title of the book.
      * @param title The new title.
      */
-    public void setTitle(String title) { this.title.set(title); }
+    public void setTitle(String title) {
+        if (titleProperty != null) {
+            titleProperty.set(title);
+        } else {
+            String old = this.title;
+            this.title = title;
+            changed("title", old, title);
+        }
+    }
 
     /**
      * Gets the title property for JavaFX bindings.
      * @return The StringProperty of the title.
      */
-    public StringProperty titleProperty() { return title; }
+    public StringProperty titleProperty() {
+        if (titleProperty == null) {
+            titleProperty = new SimpleStringProperty(this, "title", title) {
+                @Override
+                protected void invalidated() {
+                    String old = title;
+                    title = get();
+                    changed("title", old, title);
+                }
+            };
+        }
+        return titleProperty;
+    }
 
     /**
      * Gets the author of the book.
      * @return The author of the book.
      */
-    public String getAuthor() { return author.get(); }
+    public String getAuthor() { return author; }
 
     /**
      * Sets the author of the book.
      * @param author The new author.
      */
-    public void setAuthor(String author) { this.author.set(author); }
+    public void setAuthor(String author) {
+        if (authorProperty != null) {
+            authorProperty.set(author);
+        } else {
+            String old = this.author;
+            this.author = author;
+            changed("author", old, author);
+        }
+    }
 
     /**
      * Gets the author property for JavaFX bindings.
      * @return The StringProperty of the author.
      */
-    public StringProperty authorProperty() { return author; }
+    public StringProperty authorProperty() {
+        if (authorProperty == null) {
+            authorProperty = new SimpleStringProperty(this, "author", author) {
+                @Override
+                protected void invalidated() {
+                    String old = author;
+                    author = get();
+                    changed("author", old, author);
+                }
+            };
+        }
+        return authorProperty;
+    }
 
     /**
      * Gets the ISBN or Book ID.
      * @return The ISBN or Book ID.
      */
-    public String getIsbn() { return isbn.get(); }
+    public String getIsbn() { return isbn; }
 
     /**
      * Sets the ISBN or Book ID.
      * @param isbn The new ISBN or Book ID.
      */
-    public void setIsbn(String isbn) { this.isbn.set(isbn); }
+    public void setIsbn(String isbn) {
+        if (isbnProperty != null) {
+            isbnProperty.set(isbn);
+        } else {
+            String old = this.isbn;
+            this.isbn = isbn;
+            changed("isbn", old, isbn);
+        }
+    }
 
     /**
      * Gets the ISBN property for JavaFX bindings.
      * @return The StringProperty of the ISBN.
      */
-    public StringProperty isbnProperty() { return isbn; }
+    public StringProperty isbnProperty() {
+        if (isbnProperty == null) {
+            isbnProperty = new SimpleStringProperty(this, "isbn", isbn) {
+                @Override
+                protected void invalidated() {
+                    String old = isbn;
+                    isbn = get();
+                    changed("isbn", old, isbn);
+                }
+            };
+        }
+        return isbnProperty;
+    }
 
     /**
      * Checks if the book is available.
      * @return True if the book is available, false otherwise.
      */
     @JsonProperty("available")
-    public boolean isAvailable() { return isAvailable.get(); }
+    public boolean isAvailable() { return isAvailable; }
 
     /**
      * Sets the availability status of the book.
@@ -117,10 +192,16 @@ public class Book implements Serializable {
      */
     @JsonProperty("available")
     public void setAvailable(boolean available) {
-        this.isAvailable.set(available);
+        if (availableProperty != null) {
+            availableProperty.set(available);
+        } else {
+            boolean old = this.isAvailable;
+            this.isAvailable = available;
+            changed("available", old, available);
+        }
         if (available) {
-            this.borrowedBy.set(null);
-            this.dueDate.set(null);
+            setBorrowedBy(null);
+            setDueDate(null);
         }
     }
 
@@ -128,47 +209,137 @@ public class Book implements Serializable {
      * Gets the availability property for JavaFX bindings.
      * @return The BooleanProperty of the availability.
      */
-    public BooleanProperty availableProperty() { return isAvailable; }
+    public BooleanProperty availableProperty() {
+        if (availableProperty == null) {
+            availableProperty = new SimpleBooleanProperty(this, "available", isAvailable) {
+                @Override
+                protected void invalidated() {
+                    boolean old = isAvailable;
+                    isAvailable = get();
+                    changed("available", old, isAvailable);
+                }
+            };
+        }
+        return availableProperty;
+    }
 
     /**
      * Gets the due date of the book.
      * @return The due date, or null if not applicable.
      */
     @JsonProperty("dueDate")
-    public LocalDate getDueDate() { return dueDate.get(); }
+    public LocalDate getDueDate() { return dueDate; }
 
     /**
      * Sets the due date of the book.
      * @param dueDate The new due date.
      */
     @JsonProperty("dueDate")
-    public void setDueDate(LocalDate dueDate) { this.dueDate.set(dueDate); }
+    public void setDueDate(LocalDate dueDate) {
+        if (dueDateProperty != null) {
+            dueDateProperty.set(dueDate);
+        } else {
+            LocalDate old = this.dueDate;
+            this.dueDate = dueDate;
+            changed("dueDate", old, dueDate);
+        }
+    }
 
     /**
      * Gets the due date property for JavaFX bindings.
      * @return The ObjectProperty of the due date.
      */
-    public ObjectProperty<LocalDate> dueDateProperty() { return dueDate; }
+    public ObjectProperty<LocalDate> dueDateProperty() {
+        if (dueDateProperty == null) {
+            dueDateProperty = new SimpleObjectProperty<>(this, "dueDate", dueDate) {
+                @Override
+                protected void invalidated() {
+                    LocalDate old = dueDate;
+                    dueDate = get();
+                    changed("dueDate", old, dueDate);
+                }
+            };
+        }
+        return dueDateProperty;
+    }
 
     /**
      * Gets the ID of the borrower.
      * @return The borrower's ID or null if the book is available.
      */
     @JsonProperty("borrowedBy")
-    public String getBorrowedBy() { return borrowedBy.get(); }
+    public String getBorrowedBy() { return borrowedBy; }
 
     /**
      * Sets the borrower's ID.
      * @param borrowedBy The new borrower.
      */
     @JsonProperty("borrowedBy")
-    public void setBorrowedBy(String borrowedBy) { this.borrowedBy.set(borrowedBy); }
+    public void setBorrowedBy(String borrowedBy) {
+        if (borrowedByProperty != null) {
+            borrowedByProperty.set(borrowedBy);
+        } else {
+            String old = this.borrowedBy;
+            this.borrowedBy = borrowedBy;
+            changed("borrowedBy", old, borrowedBy);
+        }
+    }
 
     /**
      * Gets the borrowedBy property for JavaFX bindings.
      * @return The StringProperty of the borrower.
      */
-    public StringProperty borrowedByProperty() { return borrowedBy; }
+    public StringProperty borrowedByProperty() {
+        if (borrowedByProperty == null) {
+            borrowedByProperty = new SimpleStringProperty(this, "borrowedBy", borrowedBy) {
+                @Override
+                protected void invalidated() {
+                    String old = borrowedBy;
+                    borrowedBy = get();
+                    changed("borrowedBy", old, borrowedBy);
+                }
+            };
+        }
+        return borrowedByProperty;
+    }
+
+    /**
+     * Gets the position of this book in the data files.
+     * @return The slot, or -1 if the book has not been saved yet.
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Sets the position of this book in the data files.
+     * @param slot The slot, or -1 if the book is no longer stored.
+     */
+    @JsonIgnore
+    void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    /**
+     * Attaches the observer that is told about every field change, or detaches it.
+     * @param observer The repository's observer, or null.
+     */
+    void attach(RecordObserver observer) {
+        this.observer = observer;
+    }
+
+    /**
+     * Reports a field change to the observer, if the value actually changed.
+     *
+     * @param field    The property name of the field.
+     * @param oldValue The previous value.
+     * @param newValue The new value.
+     */
+    private void changed(String field, Object oldValue, Object newValue) {
+        if (observer != null && !Objects.equals(oldValue, newValue)) {
+            observer.bookChanged(this, field, oldValue, newValue);
+        }
+    }
 
     /**
      * Returns a string representation of the book.
@@ -177,8 +348,8 @@ public class Book implements Serializable {
     @Override
     public String toString() {
         return String.format("Book[Title=%s, Author=%s, ISBN=%s, Available=%b, BorrowedBy=%s, DueDate=%s]",
-                getTitle(), getAuthor(), getIsbn(), isAvailable.get(),
-                (borrowedBy.get() == null ? "N/A" : borrowedBy.get()),
-                (dueDate.get() == null ? "N/A" : dueDate.get().toString()));
+                getTitle(), getAuthor(), getIsbn(), isAvailable,
+                (borrowedBy == null ? "N/A" : borrowedBy),
+                (dueDate == null ? "N/A" : dueDate.toString()));
     }
 }
@@ -1,32 +1,50 @@
 package carter.stech.librarysystemv2;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
 import javafx.application.Platform;
-import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
+import javafx.collections.transformation.SortedList;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.stage.Stage;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import javafx.util.Duration;
 
-import java.io.File;
-import java.io.IOException;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A JavaFX application that provides a graphical interface for browsing books
  * in the library system.
  */
 public class BookBrowserApp extends Application {
-    private static final String BOOKS_FILE = "books.json";
+    private static final Duration SEARCH_DELAY = Duration.millis(150); //Pause in typing before a search runs
+    private static final int CLOSE_MATCHES = 20; //Titles and authors shown when a search finds nothing exact
+    private LibraryRepository repository;
     private ObservableList<Book> booksList;
+    private FilteredList<Book> filteredBooks;
     private TableView<Book> tableView;
     private TextField searchField;
+    private CheckBox searchAsYouTypeBox;
+    private PauseTransition searchDelay;
+    private ExecutorService searchExecutor;
+    private Future<?> pendingSearch;
+    private long searchGeneration;
+    private String lastQuery = "";
+    private Set<Book> lastMatches;
+    private boolean lastClose; //Whether lastMatches are close matches rather than exact ones
+    private BookQuery lastStructured; //The query behind lastMatches if it used the query syntax
+    private Label searchStatusLabel;
+    private ChangeFeed.Listener changeListener;
 
     /**
      * Starts the JavaFX application and initializes the UI.
@@ -35,7 +53,8 @@ public class BookBrowserApp extends Application {
      */
     @Override
     public void start(Stage primaryStage) {
-        booksList = FXCollections.observableArrayList(loadBooks());
+        repository = LibraryRepository.getInstance();
+        booksList = repository.getBooks();
         tableView = new TableView<>();
 
         // Table Columns
@@ -56,11 +75,50 @@ public class BookBrowserApp extends Application {
         );
 
         tableView.getColumns().addAll(titleCol, authorCol, isbnCol, availabilityCol);
-        tableView.setItems(booksList); // Load all books initially
+        // Searches only change the filter's predicate; sorting follows the table's column headers
+        filteredBooks = new FilteredList<>(booksList);
+        SortedList<Book> sortedBooks = new SortedList<>(filteredBooks);
+        sortedBooks.comparatorProperty().bind(tableView.comparatorProperty());
+        tableView.setItems(sortedBooks); // Load all books initially
+
+        // Queries run off the JavaFX application thread so a slow one never freezes the window
+        searchExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "book-browser-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Other windows' changes arrive as patches, so the table never needs reloading
+        changeListener = this::applyChanges;
+        repository.getChangeFeed().subscribe(changeListener);
+        primaryStage.setOnHidden(e -> {
+            // A debounce still waiting would otherwise submit to the stopped executor
+            searchDelay.stop();
+            if (pendingSearch != null) pendingSearch.cancel(true);
+            searchExecutor.shutdownNow();
+            repository.getChangeFeed().unsubscribe(changeListener);
+        });
 
         // Search Field and Button
         searchField = new TextField();
         searchField.setPromptText("Search by Title, Author, or BookID");
+        searchField.setTooltip(new Tooltip("""
+                Narrow the search with fields and operators, e.g.
+                author:sanderson available:true due<2025-04-01
+                title:"way of kings" OR isbn:978-0765326355
+                Fields: title: author: isbn: borrower: available:true|false
+                due<DATE due<=DATE due>DATE due>=DATE due:FROM..TO (dates as YYYY-MM-DD or today)
+                Operators: OR, NOT or -term, (parentheses); terms side by side must all match"""));
+        searchField.setOnAction(e -> searchBooks());
+
+        searchAsYouTypeBox = new CheckBox("Search as you type");
+        searchAsYouTypeBox.setSelected(true);
+
+        // Debounce keystrokes so a burst of typing runs one search
+        searchDelay = new PauseTransition(SEARCH_DELAY);
+        searchDelay.setOnFinished(e -> searchBooks());
+        searchField.textProperty().addListener((observable, oldText, newText) -> {
+            if (searchAsYouTypeBox.isSelected()) searchDelay.playFromStart();
+        });
 
         Button searchButton = new Button("Search");
         searchButton.setOnAction(e -> searchBooks());
@@ -68,7 +126,8 @@ public class BookBrowserApp extends Application {
         Button clearButton = new Button("Clear Search");
         clearButton.setOnAction(e -> clearSearch());
 
-        HBox searchBox = new HBox(10, searchField, searchButton, clearButton);
+        searchStatusLabel = new Label();
+        HBox searchBox = new HBox(10, searchField, searchButton, clearButton, searchAsYouTypeBox, searchStatusLabel);
         searchBox.setPadding(new Insets(10));
 
         // Layout
@@ -85,45 +144,137 @@ public class BookBrowserApp extends Application {
     }
 
     /**
-     * Loads books from a JSON file.
-     *
-     * @return A list of Book objects.
+     * Searches for books by title, author, or book ID (can be ISBN), or with a structured
+     * query (see {@link BookQuery}) if the text uses fields or operators.
+     * The query runs on the search thread, replacing any search still in progress,
+     * and the displayed book list is filtered when it finishes.
      */
-    private List<Book> loadBooks() {
-        try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            objectMapper.registerModule(new JavaTimeModule());
+    private void searchBooks() {
+        searchDelay.stop();
+        if (pendingSearch != null) pendingSearch.cancel(true);
+        long generation = ++searchGeneration;
 
-            File file = new File(BOOKS_FILE);
-            if (!file.exists()) return FXCollections.observableArrayList();
+        String query = searchField.getText().trim();
+        if (query.isEmpty()) {
+            lastQuery = "";
+            lastMatches = null;
+            lastClose = false;
+            lastStructured = null;
+            searchStatusLabel.setText("");
+            filteredBooks.setPredicate(null);
+            return;
+        }
 
-            return List.of(objectMapper.readValue(file, Book[].class));
-        } catch (IOException e) {
-            e.printStackTrace();
-            return FXCollections.observableArrayList();
+        BookQuery parsed;
+        try {
+            parsed = BookQuery.parse(query);
+        } catch (IllegalArgumentException e) {
+            // Not a query, such as 12" Vinyl or Book (Vol, so search for the text as typed
+            parsed = null;
+        }
+        if (parsed != null && parsed.isStructured()) {
+            BookQuery structured = parsed;
+            pendingSearch = searchExecutor.submit(() -> {
+                Set<Book> matches = new HashSet<>(repository.findBooks(structured));
+                if (Thread.currentThread().isInterrupted()) return; // Superseded; the results may be partial
+                Platform.runLater(() -> showMatches(generation, query, structured, matches, false));
+            });
+            return;
         }
+
+        String previousQuery = lastQuery;
+        // Close matches and structured results cannot be narrowed by text
+        Set<Book> previousMatches = lastClose || lastStructured != null ? null : lastMatches;
+        pendingSearch = searchExecutor.submit(() -> {
+            Set<Book> exact = findMatches(query, previousQuery, previousMatches);
+            // Nothing contains the text as typed, so it may have a typo; show the titles and authors close to it
+            Set<Book> matches = exact.isEmpty() ? new HashSet<>(repository.searchBooksLike(query, CLOSE_MATCHES)) : exact;
+            if (Thread.currentThread().isInterrupted()) return; // Superseded; the results may be partial
+            Platform.runLater(() -> showMatches(generation, query, null, matches, exact.isEmpty() && !matches.isEmpty()));
+        });
     }
 
     /**
-     * Searches for books by title, author, or book ID (can be ISBN).
-     * Filters the displayed book list accordingly.
+     * Finds the books matching a query. Runs on the search thread.
+     * If the query extends the last one shown, only the last results can match its text,
+     * so they are narrowed instead of searching the whole catalog again.
+     *
+     * @param query           The new query.
+     * @param previousQuery   The query whose results are currently shown.
+     * @param previousMatches Those results, or null if every book is shown.
+     * @return The matching books.
      */
-    private void searchBooks() {
-        String query = searchField.getText().trim().toLowerCase();
-        if (query.isEmpty()) {
-            tableView.setItems(booksList);
-            return;
+    private Set<Book> findMatches(String query, String previousQuery, Set<Book> previousMatches) {
+        if (previousMatches != null && !previousQuery.isEmpty()
+                && query.toLowerCase(Locale.ROOT).contains(previousQuery.toLowerCase(Locale.ROOT))) {
+            Set<Book> matches = new HashSet<>();
+            for (Book book : previousMatches) {
+                if (TrigramIndex.matches(book, query)) matches.add(book);
+            }
+            // An exact ID match need not have matched the shorter query
+            matches.addAll(repository.findBooksByIsbn(query));
+            return matches;
         }
+        // Answered from the repository's trigram and ISBN indexes rather than a scan
+        return new HashSet<>(repository.searchBooks(query));
+    }
 
-        ObservableList<Book> filteredBooks = FXCollections.observableArrayList(
-                booksList.stream()
-                        .filter(book -> book.getTitle().toLowerCase().contains(query) ||
-                                book.getAuthor().toLowerCase().contains(query) ||
-                                book.getIsbn().equalsIgnoreCase(query))
-                        .collect(Collectors.toList())
-        );
+    /**
+     * Filters the table to a finished search, unless a newer search has started since.
+     *
+     * @param generation The search that produced the matches.
+     * @param query      Its query.
+     * @param structured The query parsed, if it used the query syntax; otherwise null.
+     * @param matches    Its results.
+     * @param close      Whether they are close matches, found because nothing matched exactly.
+     */
+    private void showMatches(long generation, String query, BookQuery structured, Set<Book> matches, boolean close) {
+        if (generation != searchGeneration) return;
+        lastQuery = query;
+        lastStructured = structured;
+        lastMatches = matches;
+        lastClose = close;
+        searchStatusLabel.setText(close ? "No exact matches; showing close ones" : "");
+        filteredBooks.setPredicate(matches::contains);
+    }
 
-        tableView.setItems(filteredBooks);
+    /**
+     * Patches the table for changes made elsewhere: new or edited books are added to or dropped
+     * from the current search results, and availability is redrawn in the visible rows. Loans
+     * and returns can also move books in or out of a structured query's results.
+     * Removed books leave the table through the filtered list on their own.
+     *
+     * @param events A batch of changes from the repository.
+     */
+    private void applyChanges(List<ChangeFeed.Event> events) {
+        boolean redraw = false;
+        Set<Book> matches = null; // Copied on first change; the search thread may be reading lastMatches
+        for (ChangeFeed.Event event : events) {
+            switch (event.kind()) {
+                case AVAILABILITY_CHANGED, BOOK_ADDED, BOOK_EDITED -> {
+                    if (event.kind() == ChangeFeed.Kind.AVAILABILITY_CHANGED) {
+                        redraw = true;
+                        if (lastStructured == null) continue; // Text matches do not depend on loans
+                    }
+                    if (lastMatches == null || lastClose) continue; // Every book, or a typo's close matches, shown
+                    Book book = event.book();
+                    boolean match = lastStructured != null ? lastStructured.matches(book)
+                            : TrigramIndex.matches(book, lastQuery) || lastQuery.equalsIgnoreCase(book.getIsbn());
+                    if (match == (matches != null ? matches : lastMatches).contains(book)) continue;
+                    if (matches == null) matches = new HashSet<>(lastMatches);
+                    if (match) matches.add(book); else matches.remove(book);
+                }
+                default -> { }
+            }
+        }
+        if (matches != null) {
+            lastMatches = matches;
+            Set<Book> shown = matches;
+            filteredBooks.setPredicate(shown::contains);
+        }
+        if (redraw) {
+            tableView.refresh();
+        }
     }
 
     /**
@@ -131,7 +282,7 @@ public class BookBrowserApp extends Application {
      */
     private void clearSearch() {
         searchField.clear();
-        tableView.setItems(booksList);
+        searchBooks();
     }
 
     /**
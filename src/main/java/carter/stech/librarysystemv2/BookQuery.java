@@ -0,0 +1,561 @@
+package carter.stech.librarysystemv2;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A search of the catalog written in the Book Browser's query syntax, such as
+ * {@code author:sanderson available:true due<2025-04-01}.
+ * <ul>
+ *     <li>A plain word or {@code "quoted phrase"} matches books whose title or author contains
+ *     it, or whose ISBN is it, ignoring case.</li>
+ *     <li>{@code title:}, {@code author:}, {@code isbn:} and {@code borrower:} look at one field:
+ *     title and author contain the text, ISBN and borrower ID equal it. Quote values with
+ *     spaces: {@code title:"way of kings"}.</li>
+ *     <li>{@code available:true} or {@code available:false} (or yes/no).</li>
+ *     <li>{@code due<DATE}, {@code due<=DATE}, {@code due>DATE}, {@code due>=DATE},
+ *     {@code due:DATE} and {@code due:FROM..TO}, with dates as YYYY-MM-DD or {@code today};
+ *     only books on loan have a due date.</li>
+ *     <li>Terms next to each other must all match. {@code OR} matches either side,
+ *     {@code NOT} or a leading {@code -} excludes a term, and parentheses group.
+ *     {@code AND} may be written but is not needed. Operators are upper case, so "war and peace"
+ *     is still three words.</li>
+ * </ul>
+ * The parsed query is compiled once into a filter. The conditions of each group that must
+ * all hold are fused into one check that tests the cheap fields first and merges repeated
+ * date ranges into one, rather than a chain of separate predicates.
+ */
+public final class BookQuery {
+    private static final Pattern QUALIFIED = Pattern.compile("(title|author|isbn|borrower|available|due)(<=|>=|:|<|>|=)(.*)",
+            Pattern.CASE_INSENSITIVE);
+
+    private final String text;
+    private final Node root;
+    private final boolean structured;
+    private final Filter filter;
+
+    /**
+     * A condition on a book, as parsed.
+     */
+    sealed interface Node permits Text, Available, DueRange, And, Or, Not { }
+
+    /**
+     * The string fields a term can look at.
+     */
+    enum Field { ANY, TITLE, AUTHOR, ISBN, BORROWER }
+
+    /**
+     * A text term. Titles and authors contain the value; ISBNs and borrowers equal it;
+     * {@link Field#ANY} is a title or author containing it, or an ISBN equal to it.
+     *
+     * @param field The field looked at.
+     * @param value The text.
+     */
+    record Text(Field field, String value) implements Node { }
+
+    /**
+     * An availability filter.
+     * @param available Whether the book must be available, rather than checked out.
+     */
+    record Available(boolean available) implements Node { }
+
+    /**
+     * A range of due dates, inclusive at both ends.
+     *
+     * @param from The earliest due date, or {@link LocalDate#MIN}.
+     * @param to   The latest due date, or {@link LocalDate#MAX}.
+     */
+    record DueRange(LocalDate from, LocalDate to) implements Node { }
+
+    /**
+     * Conditions that must all hold.
+     * @param parts The conditions.
+     */
+    record And(List<Node> parts) implements Node { }
+
+    /**
+     * Conditions of which at least one must hold.
+     * @param parts The conditions.
+     */
+    record Or(List<Node> parts) implements Node { }
+
+    /**
+     * A condition that must not hold.
+     * @param part The condition.
+     */
+    record Not(Node part) implements Node { }
+
+    /**
+     * A piece of query text.
+     *
+     * @param kind What it is.
+     * @param text Its text; for a phrase, without the quotes.
+     */
+    private record Token(Kind kind, String text) { }
+
+    /**
+     * The kinds of token.
+     */
+    private enum Kind { OPEN, CLOSE, WORD, PHRASE }
+
+    /**
+     * Creates a parsed query.
+     *
+     * @param text       The query as typed.
+     * @param root       Its conditions.
+     * @param structured Whether it uses any field, operator, phrase or negation.
+     */
+    private BookQuery(String text, Node root, boolean structured) {
+        this.text = text;
+        this.root = root;
+        this.structured = structured;
+        this.filter = compile(root);
+    }
+
+    /**
+     * Parses a query.
+     *
+     * @param text The query as typed.
+     * @return The query.
+     * @throws IllegalArgumentException If it is not valid, with a message that says why.
+     */
+    public static BookQuery parse(String text) {
+        Parser parser = new Parser(tokenize(text));
+        Node root = parser.parseQuery();
+        return new BookQuery(text, root, parser.structured);
+    }
+
+    /**
+     * Checks whether the query uses the query syntax at all. One that does not is plain
+     * text, which the Book Browser searches for as a whole, as it always has.
+     * @return True if there is a field, an operator, a quoted phrase or a negated term.
+     */
+    public boolean isStructured() {
+        return structured;
+    }
+
+    /**
+     * Checks whether a book matches the query.
+     * @param book The book.
+     * @return True if it matches.
+     */
+    public boolean matches(Book book) {
+        return filter.test(book);
+    }
+
+    /**
+     * Gets the parsed conditions, for the planner.
+     * @return The root condition.
+     */
+    Node root() {
+        return root;
+    }
+
+    /**
+     * Gets the query as typed.
+     * @return The text.
+     */
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Splits query text into parentheses, quoted phrases and words. A field followed directly
+     * by a quoted phrase, as in {@code title:"way of kings"}, is one word.
+     *
+     * @param text The query text.
+     * @return The tokens.
+     * @throws IllegalArgumentException If a quote is not closed.
+     */
+    private static List<Token> tokenize(String text) {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                tokens.add(new Token(c == '(' ? Kind.OPEN : Kind.CLOSE, String.valueOf(c)));
+                i++;
+            } else if (c == '"') {
+                int end = closingQuote(text, i);
+                if (end > i + 1) tokens.add(new Token(Kind.PHRASE, text.substring(i + 1, end)));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < text.length() && !Character.isWhitespace(text.charAt(i)) && "()\"".indexOf(text.charAt(i)) < 0) i++;
+                String word = text.substring(start, i);
+                if (i < text.length() && text.charAt(i) == '"' && ":<>=".indexOf(word.charAt(word.length() - 1)) >= 0) {
+                    int end = closingQuote(text, i);
+                    word += text.substring(i + 1, end);
+                    i = end + 1;
+                }
+                tokens.add(new Token(Kind.WORD, word));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Finds the quote that closes a phrase.
+     *
+     * @param text  The query text.
+     * @param start The position of the opening quote.
+     * @return The position of the closing quote.
+     * @throws IllegalArgumentException If there is none.
+     */
+    private static int closingQuote(String text, int start) {
+        int end = text.indexOf('"', start + 1);
+        if (end < 0) throw new IllegalArgumentException("A quote is not closed");
+        return end;
+    }
+
+    /**
+     * A recursive descent parser over the tokens of one query:
+     * <pre>
+     * query := all ( "OR" all )*
+     * all   := one ( ["AND"] one )*
+     * one   := ( "NOT" | "-" ) one | "(" query ")" | term
+     * </pre>
+     */
+    private static final class Parser {
+        private final List<Token> tokens;
+        private int position;
+        private boolean structured;
+
+        /**
+         * Creates a parser.
+         * @param tokens The tokens to parse.
+         */
+        Parser(List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        /**
+         * Parses every token.
+         * @return The root condition; an empty {@link And} if there are no tokens.
+         * @throws IllegalArgumentException If the tokens are not a valid query.
+         */
+        Node parseQuery() {
+            if (tokens.isEmpty()) return new And(List.of());
+            Node root = parseAny();
+            if (position < tokens.size()) throw new IllegalArgumentException("Unexpected )");
+            return root;
+        }
+
+        /**
+         * Parses groups of terms separated by OR.
+         * @return The condition.
+         */
+        private Node parseAny() {
+            List<Node> parts = new ArrayList<>();
+            parts.add(parseAll());
+            while (isOperator("OR")) {
+                position++;
+                structured = true;
+                parts.add(parseAll());
+            }
+            return parts.size() == 1 ? parts.get(0) : new Or(parts);
+        }
+
+        /**
+         * Parses terms that must all match, up to an OR, a closing parenthesis or the end.
+         * @return The condition.
+         */
+        private Node parseAll() {
+            List<Node> parts = new ArrayList<>();
+            parts.add(parseOne());
+            while (position < tokens.size() && tokens.get(position).kind() != Kind.CLOSE && !isOperator("OR")) {
+                if (isOperator("AND")) {
+                    position++;
+                    structured = true;
+                }
+                parts.add(parseOne());
+            }
+            return parts.size() == 1 ? parts.get(0) : new And(parts);
+        }
+
+        /**
+         * Parses one term, negated term or parenthesized group.
+         * @return The condition.
+         */
+        private Node parseOne() {
+            if (position == tokens.size()) {
+                throw new IllegalArgumentException(tokens.isEmpty() ? "Empty query" : "Expected a term after " + tokens.get(position - 1).text());
+            }
+            Token token = tokens.get(position++);
+            switch (token.kind()) {
+                case OPEN -> {
+                    Node group = parseAny();
+                    if (position == tokens.size() || tokens.get(position).kind() != Kind.CLOSE) {
+                        throw new IllegalArgumentException("A ( is not closed");
+                    }
+                    position++;
+                    return group;
+                }
+                case CLOSE -> throw new IllegalArgumentException("Unexpected )");
+                case PHRASE -> {
+                    structured = true;
+                    return new Text(Field.ANY, token.text());
+                }
+                default -> { }
+            }
+            String word = token.text();
+            switch (word) {
+                case "NOT" -> {
+                    structured = true;
+                    return new Not(parseOne());
+                }
+                case "AND", "OR" -> throw new IllegalArgumentException(word + " needs a term on each side");
+                default -> { }
+            }
+            if (word.length() > 1 && word.charAt(0) == '-') {
+                structured = true;
+                return new Not(term(word.substring(1)));
+            }
+            return term(word);
+        }
+
+        /**
+         * Parses a word, which may name a field.
+         * @param word The word.
+         * @return The condition.
+         */
+        private Node term(String word) {
+            Matcher qualified = QUALIFIED.matcher(word);
+            if (!qualified.matches()) return new Text(Field.ANY, word);
+            structured = true;
+            String field = qualified.group(1).toLowerCase(Locale.ROOT);
+            String operator = qualified.group(2);
+            String value = qualified.group(3);
+            if (value.isEmpty()) throw new IllegalArgumentException(field + operator + " needs a value");
+            if (field.equals("due")) return dueRange(operator, value);
+            if (!operator.equals(":") && !operator.equals("=")) {
+                throw new IllegalArgumentException("Only due dates can be compared with " + operator);
+            }
+            return switch (field) {
+                case "title" -> new Text(Field.TITLE, value);
+                case "author" -> new Text(Field.AUTHOR, value);
+                case "isbn" -> new Text(Field.ISBN, value);
+                case "borrower" -> new Text(Field.BORROWER, value);
+                default -> new Available(parseAvailable(value));
+            };
+        }
+
+        /**
+         * Parses a due date condition.
+         *
+         * @param operator The comparison, or ":" or "=" for a date or a range.
+         * @param value    The date, or for a range {@code FROM..TO} where either end may be left out.
+         * @return The range of due dates.
+         */
+        private static DueRange dueRange(String operator, String value) {
+            if (operator.equals(":") || operator.equals("=")) {
+                int dots = value.indexOf("..");
+                if (dots < 0) {
+                    LocalDate date = parseDate(value);
+                    return new DueRange(date, date);
+                }
+                String from = value.substring(0, dots);
+                String to = value.substring(dots + 2);
+                return new DueRange(from.isEmpty() ? LocalDate.MIN : parseDate(from), to.isEmpty() ? LocalDate.MAX : parseDate(to));
+            }
+            LocalDate date = parseDate(value);
+            return switch (operator) {
+                case "<" -> new DueRange(LocalDate.MIN, date.minusDays(1));
+                case "<=" -> new DueRange(LocalDate.MIN, date);
+                case ">" -> new DueRange(date.plusDays(1), LocalDate.MAX);
+                default -> new DueRange(date, LocalDate.MAX);
+            };
+        }
+
+        /**
+         * Parses a date.
+         * @param value YYYY-MM-DD, or "today".
+         * @return The date.
+         */
+        private static LocalDate parseDate(String value) {
+            if (value.equalsIgnoreCase("today")) return LocalDate.now();
+            try {
+                return LocalDate.parse(value);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Not a date: " + value + " (use YYYY-MM-DD)");
+            }
+        }
+
+        /**
+         * Parses an availability.
+         * @param value true/yes or false/no.
+         * @return Whether available books are wanted.
+         */
+        private static boolean parseAvailable(String value) {
+            return switch (value.toLowerCase(Locale.ROOT)) {
+                case "true", "yes", "y" -> true;
+                case "false", "no", "n" -> false;
+                default -> throw new IllegalArgumentException("available: takes true or false");
+            };
+        }
+
+        /**
+         * Checks whether the next token is an operator word.
+         * @param operator The operator, in upper case.
+         * @return True if it is next.
+         */
+        private boolean isOperator(String operator) {
+            if (position == tokens.size()) return false;
+            Token token = tokens.get(position);
+            return token.kind() == Kind.WORD && token.text().equals(operator);
+        }
+    }
+
+    /**
+     * A compiled condition.
+     */
+    private interface Filter {
+        /**
+         * Checks a book.
+         * @param book The book.
+         * @return True if it matches.
+         */
+        boolean test(Book book);
+    }
+
+    /**
+     * Compiles a condition. Every condition that must hold alongside others becomes part of
+     * one {@link AllOf}, however it was nested with AND and parentheses.
+     *
+     * @param node The condition.
+     * @return The filter.
+     */
+    private static Filter compile(Node node) {
+        return switch (node) {
+            case Or or -> {
+                Filter[] parts = new Filter[or.parts().size()];
+                for (int i = 0; i < parts.length; i++) parts[i] = compile(or.parts().get(i));
+                yield book -> {
+                    for (Filter part : parts) {
+                        if (part.test(book)) return true;
+                    }
+                    return false;
+                };
+            }
+            case Not not -> {
+                Filter part = compile(not.part());
+                yield book -> !part.test(book);
+            }
+            default -> {
+                AllOf all = new AllOf();
+                all.add(node);
+                yield all.done();
+            }
+        };
+    }
+
+    /**
+     * The fused conditions of one group that must all hold. Each kind of condition is kept
+     * together, so a book is tested field by field, cheapest first, in one pass.
+     */
+    private static final class AllOf implements Filter {
+        private final List<String> anyText = new ArrayList<>();
+        private final List<String> titleText = new ArrayList<>();
+        private final List<String> authorText = new ArrayList<>();
+        private final List<Filter> others = new ArrayList<>(); // ORs and NOTs
+        private String isbn;
+        private String borrower;
+        private Boolean available;
+        private LocalDate dueFrom, dueTo;  // Null if the due date is not looked at
+        private boolean impossible;        // Two conditions contradict each other
+        private String[] any, titles, authors;
+        private Filter[] rest;
+
+        /**
+         * Adds a condition, flattening nested groups that must also all hold.
+         * @param node The condition.
+         */
+        void add(Node node) {
+            switch (node) {
+                case And and -> and.parts().forEach(this::add);
+                case Text text -> {
+                    switch (text.field()) {
+                        case ANY -> anyText.add(text.value());
+                        case TITLE -> titleText.add(text.value());
+                        case AUTHOR -> authorText.add(text.value());
+                        case ISBN -> {
+                            if (isbn != null && !isbn.equalsIgnoreCase(text.value())) impossible = true;
+                            isbn = text.value();
+                        }
+                        case BORROWER -> {
+                            if (borrower != null && !borrower.equals(text.value())) impossible = true;
+                            borrower = text.value();
+                        }
+                    }
+                }
+                case Available wanted -> {
+                    if (available != null && available != wanted.available()) impossible = true;
+                    available = wanted.available();
+                }
+                case DueRange due -> {
+                    // due>A due<B is one range
+                    dueFrom = dueFrom == null || due.from().isAfter(dueFrom) ? due.from() : dueFrom;
+                    dueTo = dueTo == null || due.to().isBefore(dueTo) ? due.to() : dueTo;
+                    if (dueTo.isBefore(dueFrom)) impossible = true;
+                }
+                default -> others.add(compile(node));
+            }
+        }
+
+        /**
+         * Finishes adding conditions.
+         * @return The filter.
+         */
+        Filter done() {
+            if (impossible) return book -> false;
+            any = anyText.toArray(new String[0]);
+            titles = titleText.toArray(new String[0]);
+            authors = authorText.toArray(new String[0]);
+            rest = others.toArray(new Filter[0]);
+            return this;
+        }
+
+        /**
+         * Checks a book against every condition.
+         * @param book The book.
+         * @return True if it meets them all.
+         */
+        @Override
+        public boolean test(Book book) {
+            if (available != null && book.isAvailable() != available) return false;
+            if (borrower != null && !borrower.equals(book.getBorrowedBy())) return false;
+            if (isbn != null && !isbn.equalsIgnoreCase(book.getIsbn())) return false;
+            if (dueFrom != null) {
+                LocalDate due = book.getDueDate();
+                if (due == null || due.isBefore(dueFrom) || due.isAfter(dueTo)) return false;
+            }
+            if (titles.length > 0) {
+                String title = book.getTitle();
+                for (String text : titles) {
+                    if (!TrigramIndex.containsIgnoreCase(title, text)) return false;
+                }
+            }
+            if (authors.length > 0) {
+                String author = book.getAuthor();
+                for (String text : authors) {
+                    if (!TrigramIndex.containsIgnoreCase(author, text)) return false;
+                }
+            }
+            for (String text : any) {
+                if (!TrigramIndex.matches(book, text) && !text.equalsIgnoreCase(book.getIsbn())) return false;
+            }
+            for (Filter filter : rest) {
+                if (!filter.test(book)) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package carter.stech.librarysystemv2;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Imports new books in bulk from a CSV, JSON-lines or JSON file.
+ * <p>
+ * The file is read as a stream, a chunk of records at a time. Each chunk is parsed and
+ * validated in parallel, checked for ISBNs that are already in the catalog or earlier in
+ * the file, and committed to the repository as one batch, while the next chunk is read.
+ * Problem records are skipped and reported rather than stopping the import.
+ * <p>
+ * CSV files have the columns title, author, isbn (an optional header row is skipped) and
+ * may quote fields with double quotes. JSON-lines files have one object per line with
+ * "title", "author" and "isbn" members. A .json file that starts with "[" is a JSON array of
+ * books in the same format as books.json, and is streamed a chunk of objects at a time; any
+ * other .json or .jsonl file is read as JSON lines. Imported books are always new copies on
+ * the shelf, whatever loan an array entry records.
+ */
+public class CatalogImporter {
+    private static final int CHUNK_LINES = 10_000;
+    private static final int BATCHES_IN_FLIGHT = 4;    // Committed batches not yet added to the list
+    private static final int MAX_FIELD_LENGTH = 1000;
+    private static final int MAX_REPORTED_ERRORS = 1000;
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final LibraryRepository repository;
+
+    /**
+     * A line that was not imported.
+     *
+     * @param line    The line number in the file, starting at 1; 0 if the record has no line of its own.
+     * @param message Why it was skipped.
+     */
+    public record Problem(long line, String message) { }
+
+    /**
+     * The outcome of an import.
+     *
+     * @param imported   The number of books added to the catalog.
+     * @param duplicates The number of records skipped because their ISBN was already present.
+     * @param invalid    The number of records skipped because they could not be parsed or were incomplete.
+     * @param problems   The first skipped records, with reasons.
+     */
+    public record Summary(long imported, long duplicates, long invalid, List<Problem> problems) { }
+
+    /**
+     * The parse of one record: a book, or why there is none.
+     *
+     * @param book    The parsed book, or null.
+     * @param problem Why the record was rejected, or null.
+     */
+    private record Parsed(Book book, String problem) { }
+
+    /**
+     * The running totals of one import, and the batches it has committed but not yet seen added.
+     */
+    private final class Run {
+        private long imported;
+        private long duplicates;
+        private long invalid;
+        private final List<Problem> problems = new ArrayList<>();
+        private final Set<String> seenIsbns = new HashSet<>();
+        private final Deque<CompletableFuture<List<Book>>> inFlight = new ArrayDeque<>();
+
+        /**
+         * Checks a parsed chunk for problems and duplicates, and commits the rest as one batch.
+         * Commits run while the next chunk is read, but only a few batches ahead of the list.
+         *
+         * @param parsed  The parse of each record; null entries (blank lines, headers) are skipped.
+         * @param first   The number of the chunk's first record, starting at 1.
+         * @param byLine  Whether records are lines, so problems name their line; otherwise
+         *                problems name the record's position in the array.
+         * @throws IOException If an earlier batch could not be added.
+         */
+        void commit(Parsed[] parsed, long first, boolean byLine) throws IOException {
+            List<Book> batch = new ArrayList<>(parsed.length);
+            for (int i = 0; i < parsed.length; i++) {
+                long number = first + i;
+                if (parsed[i] == null) continue; // Blank line or CSV header
+                if (parsed[i].problem() != null) {
+                    invalid++;
+                    report(number, byLine, parsed[i].problem());
+                    continue;
+                }
+                Book book = parsed[i].book();
+                String key = book.getIsbn().toLowerCase(Locale.ROOT);
+                if (!seenIsbns.add(key) || !repository.findBooksByIsbn(book.getIsbn()).isEmpty()) {
+                    duplicates++;
+                    report(number, byLine, "Duplicate ISBN " + book.getIsbn());
+                    continue;
+                }
+                batch.add(book);
+            }
+            if (batch.isEmpty()) return;
+            if (inFlight.size() == BATCHES_IN_FLIGHT) awaitOldest();
+            inFlight.add(repository.addBooksLater(batch));
+            imported += batch.size();
+        }
+
+        /**
+         * Waits for every committed batch to be added.
+         * @return What was imported and skipped.
+         * @throws IOException If a batch could not be added.
+         */
+        Summary finish() throws IOException {
+            while (!inFlight.isEmpty()) awaitOldest();
+            return new Summary(imported, duplicates, invalid, problems);
+        }
+
+        /**
+         * Waits for the oldest committed batch and moves any books it skipped to the duplicates.
+         * @throws IOException If the batch could not be added.
+         */
+        private void awaitOldest() throws IOException {
+            int skipped = awaitBatch(inFlight.poll(), problems);
+            imported -= skipped;
+            duplicates += skipped;
+        }
+
+        /**
+         * Adds a problem with a record to the report.
+         *
+         * @param number  The record's number.
+         * @param byLine  Whether the number is a line number.
+         * @param message What was wrong.
+         */
+        private void report(long number, boolean byLine, String message) {
+            if (byLine) CatalogImporter.report(problems, number, message);
+            else CatalogImporter.report(problems, 0, "Book " + number + ": " + message);
+        }
+    }
+
+    /**
+     * Creates an importer that adds to a repository's catalog.
+     * @param repository The repository to import into.
+     */
+    public CatalogImporter(LibraryRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Imports a file. Blocks until every batch is committed, so call it off the JavaFX application thread.
+     *
+     * @param file     The CSV, JSON-lines or JSON file.
+     * @param progress Receives the fraction of the file processed so far, from the importing thread;
+     *                 -1 while the fraction is unknown, as it is for a JSON array.
+     * @return What was imported and skipped.
+     * @throws IOException If the file cannot be read or the library is not loaded.
+     */
+    public Summary importFile(Path file, DoubleConsumer progress) throws IOException {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        boolean json = name.endsWith(".jsonl") || name.endsWith(".json");
+        Run run = new Run();
+        if (json && startsWithArray(file)) {
+            importArray(file, run, progress);
+        } else {
+            importLines(file, json, run, progress);
+        }
+        Summary summary = run.finish();
+        progress.accept(1.0);
+        return summary;
+    }
+
+    /**
+     * Imports a CSV or JSON-lines file, a chunk of lines at a time.
+     *
+     * @param file      The file.
+     * @param jsonLines Whether each line is a JSON object rather than CSV.
+     * @param run       The import's totals.
+     * @param progress  Receives the fraction of the file read so far.
+     * @throws IOException If the file cannot be read or a batch could not be added.
+     */
+    private void importLines(Path file, boolean jsonLines, Run run, DoubleConsumer progress) throws IOException {
+        long totalBytes = Math.max(1, Files.size(file));
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            long lineNumber = 0;
+            long bytesRead = 0;
+            List<String> lines = new ArrayList<>(CHUNK_LINES);
+            boolean done = false;
+            while (!done) {
+                String line = reader.readLine();
+                if (line != null) {
+                    lines.add(line);
+                    bytesRead += line.length() + 1; // Close enough for progress
+                    if (lines.size() < CHUNK_LINES) continue;
+                } else {
+                    done = true;
+                    if (lines.isEmpty()) break;
+                }
+
+                // Parse and validate the chunk across all cores
+                List<String> chunk = lines;
+                Parsed[] parsed = new Parsed[chunk.size()];
+                IntStream.range(0, chunk.size()).parallel()
+                        .forEach(i -> parsed[i] = jsonLines ? parseJsonLine(chunk.get(i)) : parseCsvLine(chunk.get(i)));
+                run.commit(parsed, lineNumber + 1, true);
+                lineNumber += chunk.size();
+                lines = new ArrayList<>(CHUNK_LINES);
+                progress.accept(Math.min(1.0, (double) bytesRead / totalBytes));
+            }
+        }
+    }
+
+    /**
+     * Imports a JSON array of books, streaming a chunk of objects at a time. The array is
+     * bound to books as it is read, so only the fields need validating.
+     *
+     * @param file     The file.
+     * @param run      The import's totals.
+     * @param progress Told the fraction is unknown.
+     * @throws IOException If the file is not an array of books or a batch could not be added.
+     */
+    private void importArray(Path file, Run run, DoubleConsumer progress) throws IOException {
+        progress.accept(-1);
+        long[] read = {0};
+        try {
+            JsonRecords.read(file, Book.class, CHUNK_LINES, chunk -> {
+                Parsed[] parsed = new Parsed[chunk.size()];
+                IntStream.range(0, chunk.size()).parallel().forEach(i -> {
+                    Book book = chunk.get(i);
+                    parsed[i] = validate(book.getTitle(), book.getAuthor(), book.getIsbn());
+                });
+                try {
+                    run.commit(parsed, read[0] + 1, false);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e); // The sink cannot throw it; unwrapped below
+                }
+                read[0] += chunk.size();
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Checks whether a file's first non-blank character opens a JSON array.
+     *
+     * @param file The file.
+     * @return True if it starts with "[".
+     * @throws IOException If the file cannot be read.
+     */
+    private static boolean startsWithArray(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c == '\uFEFF' || Character.isWhitespace(c)) continue; // Skip a byte order mark too
+                return c == '[';
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Waits for a committed batch to be added and notes any books skipped as duplicates then.
+     *
+     * @param commit   The batch's commit.
+     * @param problems The problem report.
+     * @return The number of books skipped.
+     * @throws IOException If the batch could not be added.
+     */
+    private static int awaitBatch(CompletableFuture<List<Book>> commit, List<Problem> problems) throws IOException {
+        List<Book> skipped;
+        try {
+            skipped = commit.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+        for (Book book : skipped) report(problems, 0, "Duplicate ISBN " + book.getIsbn() + " (added elsewhere during the import)");
+        return skipped.size();
+    }
+
+    /**
+     * Adds a problem to the report, unless the report is already full.
+     *
+     * @param problems The problem report.
+     * @param line     The line number, or 0 if unknown.
+     * @param message  What was wrong.
+     */
+    private static void report(List<Problem> problems, long line, String message) {
+        if (problems.size() < MAX_REPORTED_ERRORS) problems.add(new Problem(line, message));
+    }
+
+    /**
+     * Parses one CSV line of title, author and isbn.
+     * @param line The line.
+     * @return The parse, or null for a blank line or the header row.
+     */
+    private static Parsed parseCsvLine(String line) {
+        if (line.isBlank()) return null;
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"'); // Doubled quote inside a quoted field
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) return new Parsed(null, "Unterminated quoted field");
+        fields.add(field.toString());
+
+        if (fields.size() != 3) return new Parsed(null, "Expected 3 fields (title, author, isbn) but found " + fields.size());
+        if (fields.get(0).trim().equalsIgnoreCase("title") && fields.get(2).trim().equalsIgnoreCase("isbn")) return null;
+        return validate(fields.get(0), fields.get(1), fields.get(2));
+    }
+
+    /**
+     * Parses one JSON line with title, author and isbn members.
+     * @param line The line.
+     * @return The parse, or null for a blank line.
+     */
+    private static Parsed parseJsonLine(String line) {
+        if (line.isBlank()) return null;
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(line);
+        } catch (IOException e) {
+            return new Parsed(null, "Not valid JSON");
+        }
+        if (!node.isObject()) return new Parsed(null, "Not a JSON object");
+        return validate(node.path("title").asText(null), node.path("author").asText(null), node.path("isbn").asText(null));
+    }
+
+    /**
+     * Checks the fields of a new book.
+     *
+     * @param title  The title.
+     * @param author The author.
+     * @param isbn   The ISBN or book ID.
+     * @return The book, or the problem with it.
+     */
+    private static Parsed validate(String title, String author, String isbn) {
+        title = title != null ? title.trim() : "";
+        author = author != null ? author.trim() : "";
+        isbn = isbn != null ? isbn.trim() : "";
+        if (title.isEmpty() || author.isEmpty() || isbn.isEmpty()) {
+            return new Parsed(null, "Title, author and ISBN are all required");
+        }
+        if (title.length() > MAX_FIELD_LENGTH || author.length() > MAX_FIELD_LENGTH || isbn.length() > MAX_FIELD_LENGTH) {
+            return new Parsed(null, "A field is longer than " + MAX_FIELD_LENGTH + " characters");
+        }
+        return new Parsed(new Book(title, author, isbn, true, null, null), null);
+    }
+}
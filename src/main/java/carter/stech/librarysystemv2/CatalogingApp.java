@@ -2,27 +2,29 @@ package carter.stech.librarysystemv2;
 
 import javafx.application.Application;
 import javafx.application.Platform;
-import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
-import com.fasterxml.jackson.databind.ObjectMapper;
+
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
 
 /**
  * A JavaFX application for managing the catalog of books in a library system.
- * Allows users to add and remove books from the library catalog.
+ * Allows users to add and remove books from the library catalog, or import them in bulk.
  */
 public class CatalogingApp extends Application {
-    private static final String BOOKS_FILE = "books.json";
+    private LibraryRepository repository;
     private ObservableList<Book> booksList;
     private TableView<Book> tableView;
+    private HBox importBox;
+    private ProgressBar importProgress;
+    private Label importStatus;
 
     /**
      * Starts the JavaFX application and initializes the UI.
@@ -31,7 +33,8 @@ public class CatalogingApp extends Application {
      */
     @Override
     public void start(Stage primaryStage) {
-        booksList = FXCollections.observableArrayList(loadBooks());
+        repository = LibraryRepository.getInstance();
+        booksList = repository.getBooks();
         tableView = new TableView<>();
 
         TableColumn<Book, String> titleCol = new TableColumn<>("Title");
@@ -61,12 +64,24 @@ public class CatalogingApp extends Application {
         Button removeButton = new Button("Remove Book");
         removeButton.setOnAction(e -> removeBook());
 
-        HBox inputBox = new HBox(10, titleField, authorField, isbnField, addButton, removeButton);
+        Button importButton = new Button("Import...");
+        importButton.setOnAction(e -> importBooks(primaryStage));
+
+        HBox inputBox = new HBox(10, titleField, authorField, isbnField, addButton, removeButton, importButton);
         inputBox.setPadding(new Insets(10));
 
+        importProgress = new ProgressBar(0);
+        importProgress.setPrefWidth(300);
+        importStatus = new Label();
+        importBox = new HBox(10, importProgress, importStatus);
+        importBox.setPadding(new Insets(10));
+        importBox.setVisible(false);
+        importBox.managedProperty().bind(importBox.visibleProperty());
+
         BorderPane root = new BorderPane();
         root.setTop(inputBox);
         root.setCenter(tableView);
+        root.setBottom(importBox);
 
         Scene scene = new Scene(root, 800, 600);
         primaryStage.setTitle("Library Cataloging System");
@@ -88,7 +103,7 @@ public class CatalogingApp extends Application {
         if (!title.getText().isEmpty() && !author.getText().isEmpty() && !isbn.getText().isEmpty()) {
             Book newBook = new Book(title.getText(), author.getText(), isbn.getText(), true, null, null);
             booksList.add(newBook);
-            saveBooks(booksList);
+            saveBooks();
             title.clear();
             author.clear();
             isbn.clear();
@@ -103,7 +118,7 @@ public class CatalogingApp extends Application {
         if (selectedBook != null) {
             if (selectedBook.isAvailable()) {  // Prevent removal if book is checked out
                 booksList.remove(selectedBook);
-                saveBooks(booksList);
+                saveBooks();
             } else {
                 Alert alert = new Alert(Alert.AlertType.WARNING);
                 alert.setTitle("Cannot Remove Book");
@@ -115,39 +130,88 @@ public class CatalogingApp extends Application {
     }
 
     /**
-     * Loads books from a JSON file.
+     * Imports books from a CSV, JSON-lines or JSON file chosen by the user. The import runs in the
+     * background with a progress bar, and a report of any skipped lines is shown at the end.
      *
-     * @return A list of books in the catalog.
+     * @param owner The window that owns the file chooser.
      */
-    private List<Book> loadBooks() {
-        try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            objectMapper.registerModule(new com.fasterxml.jackson.datatype.jsr310.JavaTimeModule()); // Enable LocalDate support
-
-            File file = new File(BOOKS_FILE);
-            if (!file.exists()) return FXCollections.observableArrayList();
-
-            return List.of(objectMapper.readValue(file, Book[].class));
-        } catch (IOException e) {
-            e.printStackTrace();
-            return FXCollections.observableArrayList();
-        }
+    private void importBooks(Stage owner) {
+        if (importBox.isVisible()) return; // One import at a time
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Import Books");
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("CSV or JSON", "*.csv", "*.jsonl", "*.json"),
+                new FileChooser.ExtensionFilter("All Files", "*.*"));
+        File file = chooser.showOpenDialog(owner);
+        if (file == null) return;
+
+        importProgress.setProgress(0);
+        importStatus.setText("Importing " + file.getName() + "...");
+        importBox.setVisible(true);
+        Thread importer = new Thread(() -> {
+            try {
+                CatalogImporter.Summary summary = new CatalogImporter(repository).importFile(file.toPath(),
+                        fraction -> Platform.runLater(() -> importProgress.setProgress(fraction)));
+                Platform.runLater(() -> showImportReport(file.getName(), summary));
+            } catch (IOException e) {
+                e.printStackTrace();
+                Platform.runLater(() -> {
+                    importBox.setVisible(false);
+                    Alert alert = new Alert(Alert.AlertType.ERROR);
+                    alert.setTitle("Import Failed");
+                    alert.setHeaderText("The file could not be imported");
+                    alert.setContentText(e.getMessage());
+                    alert.showAndWait();
+                });
+            }
+        }, "catalog-import");
+        importer.setDaemon(true);
+        importer.start();
     }
 
     /**
-     * Saves the current book catalog to a JSON file.
+     * Shows the outcome of an import, with the skipped lines in an expandable list.
      *
-     * @param books The list of books to save.
+     * @param fileName The imported file's name.
+     * @param summary  What was imported and skipped.
      */
-    private void saveBooks(List<Book> books) {
-        try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            objectMapper.registerModule(new com.fasterxml.jackson.datatype.jsr310.JavaTimeModule()); // Enable LocalDate support
+    private void showImportReport(String fileName, CatalogImporter.Summary summary) {
+        importBox.setVisible(false);
+        Alert alert = new Alert(summary.problems().isEmpty() ? Alert.AlertType.INFORMATION : Alert.AlertType.WARNING);
+        alert.setTitle("Import Complete");
+        alert.setHeaderText("Imported " + summary.imported() + " books from " + fileName);
+        alert.setContentText("Skipped " + summary.duplicates() + " duplicate ISBNs and " + summary.invalid() + " invalid records.");
+        if (!summary.problems().isEmpty()) {
+            StringBuilder report = new StringBuilder();
+            for (CatalogImporter.Problem problem : summary.problems()) {
+                if (problem.line() > 0) report.append("Line ").append(problem.line()).append(": ");
+                report.append(problem.message()).append('\n');
+            }
+            long skipped = summary.duplicates() + summary.invalid();
+            if (skipped > summary.problems().size()) {
+                report.append("... and ").append(skipped - summary.problems().size()).append(" more\n");
+            }
+            TextArea details = new TextArea(report.toString());
+            details.setEditable(false);
+            alert.getDialogPane().setExpandableContent(details);
+        }
+        alert.showAndWait();
+    }
 
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(BOOKS_FILE), books);
-        } catch (IOException e) {
+    /**
+     * Saves the current book catalog to a JSON file in the background.
+     * The window is told if the save fails.
+     */
+    private void saveBooks() {
+        repository.saveBooks().whenComplete((ignored, e) -> {
+            if (e == null) return;
             e.printStackTrace();
-        }
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Save Failed");
+            alert.setHeaderText("The catalog could not be saved");
+            alert.setContentText(e.getMessage());
+            alert.showAndWait();
+        });
     }
 
     /**
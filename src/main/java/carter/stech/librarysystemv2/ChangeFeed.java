@@ -0,0 +1,145 @@
+package carter.stech.librarysystemv2;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * A feed of the changes made to a repository's books and users, so that open windows can
+ * patch what they show instead of reloading. Changes may be published from any thread;
+ * they are queued and handed to the listeners in one batch on the application thread
+ * (for the windows, one {@code Platform.runLater} per burst of changes, so a checkout that
+ * edits three book fields and a user's list reaches each window as one update).
+ * <p>
+ * Within a batch, repeated edits of the same record are reported once, in the place of the
+ * first. Additions and removals are always reported, in order.
+ * Nothing is queued while there are no listeners.
+ */
+public class ChangeFeed {
+    /**
+     * What happened to a record.
+     */
+    public enum Kind {
+        BOOK_ADDED, BOOK_REMOVED,
+        BOOK_EDITED,           // Title, author or ISBN
+        AVAILABILITY_CHANGED,  // Lent or returned: available, borrower or due date
+        USER_ADDED, USER_REMOVED,
+        USER_EDITED            // ID, name or checked-out list
+    }
+
+    /**
+     * One change. Records use identity equality, so an event equals another for the same
+     * record and kind.
+     *
+     * @param kind   What happened.
+     * @param record The Book or User it happened to.
+     */
+    public record Event(Kind kind, Object record) {
+        /**
+         * Gets the book, for book events.
+         * @return The book.
+         */
+        public Book book() {
+            return (Book) record;
+        }
+
+        /**
+         * Gets the user, for user events.
+         * @return The user.
+         */
+        public User user() {
+            return (User) record;
+        }
+    }
+
+    /**
+     * Receives batches of changes on the application thread.
+     */
+    public interface Listener {
+        /**
+         * Called with the changes made since the last batch.
+         * @param events The changes, in the order they were made.
+         */
+        void changed(List<Event> events);
+    }
+
+    private final Executor applicationThread;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private List<Event> queued = new ArrayList<>(); // Guarded by this
+    private Set<Event> queuedEdits = new HashSet<>(); // Guarded by this
+    private boolean deliveryScheduled;               // Guarded by this
+
+    /**
+     * Creates a feed.
+     * @param applicationThread Where batches are delivered.
+     */
+    public ChangeFeed(Executor applicationThread) {
+        this.applicationThread = applicationThread;
+    }
+
+    /**
+     * Starts sending batches to a listener. A window should unsubscribe when it closes.
+     * @param listener The listener.
+     */
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stops sending batches to a listener.
+     * @param listener The listener.
+     */
+    public void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queues a change for the next batch. May be called on any thread.
+     *
+     * @param kind   What happened.
+     * @param record The Book or User it happened to.
+     */
+    void publish(Kind kind, Object record) {
+        if (listeners.isEmpty()) return;
+        Event event = new Event(kind, record);
+        boolean edit = kind == Kind.BOOK_EDITED || kind == Kind.AVAILABILITY_CHANGED || kind == Kind.USER_EDITED;
+        synchronized (this) {
+            if (edit && !queuedEdits.add(event)) return; // Already in this batch
+            queued.add(event);
+            if (deliveryScheduled) return;
+            deliveryScheduled = true;
+        }
+        applicationThread.execute(this::deliver);
+    }
+
+    /**
+     * Hands the queued changes to every listener. Runs on the application thread.
+     */
+    private void deliver() {
+        List<Event> batch;
+        synchronized (this) {
+            batch = queued;
+            queued = new ArrayList<>();
+            queuedEdits = new HashSet<>();
+            deliveryScheduled = false;
+        }
+        LibraryEvents.ChangeDelivery delivery = new LibraryEvents.ChangeDelivery();
+        delivery.begin();
+        List<Event> events = List.copyOf(batch);
+        for (Listener listener : listeners) {
+            try {
+                listener.changed(events);
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // One broken window should not stop the others updating
+            }
+        }
+        if (delivery.shouldCommit()) {
+            delivery.changes = events.size();
+            delivery.listeners = listeners.size();
+            delivery.commit();
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package carter.stech.librarysystemv2;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
@@ -12,28 +11,55 @@ import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
+import org.controlsfx.control.textfield.AutoCompletionBinding;
+import org.controlsfx.control.textfield.TextFields;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
 
 /**
  * A JavaFX application for managing book circulation in the library system.
  * Allows users to check out and check in books.
  */
 public class CirculationApp extends Application {
-    private static final String BOOKS_FILE = "books.json";
-    private static final String USERS_FILE = "users.json";
-    private static final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
-    private ObservableList<Book> bookList;
-    private ObservableList<User> userList;
+    private static final String BATCH_CHECK_IN = "Check In";
+    private static final String BATCH_CHECK_OUT = "Check Out";
+    private static final Duration SCAN_PAUSE = Duration.millis(300); //Pause in scanning before queued scans are processed
+    private static final int SUGGESTIONS = 8; //Most suggestions shown under a field as it is typed in
+    private static final long SUGGESTION_DELAY_MS = 50; //Pause in typing before suggestions are looked up
+    private LibraryRepository repository;
+    private CirculationService circulation;
     private TableView<Book> userBooksTable, recentCheckInsTable;
     private TextField userIdField, isbnField, checkInField;
     private Label userNameLabel;
     private User currentUser;
     private Queue<Book> recentCheckInsQueue = new LinkedList<>();
+    private TableView<Book> overdueTable;
+    private TableView<Map.Entry<String, Integer>> overduePatronsTable;
+    private ComboBox<String> overdueViewBox;
+    private Spinner<Integer> dueSoonDaysSpinner;
+    private Label overdueSummaryLabel;
+    private ExecutorService overdueExecutor;
+    private long overdueGeneration;
+    private ComboBox<String> batchModeBox;
+    private TextField batchUserField, scanField;
+    private TextArea batchListArea;
+    private TableView<CirculationService.Result> batchResultsTable;
+    private final ObservableList<CirculationService.Result> batchResults = FXCollections.observableArrayList();
+    private Label batchSummaryLabel;
+    private PauseTransition scanPause;
+    private final List<String> queuedScans = new ArrayList<>();
 
     /**
      * Starts the JavaFX application and initializes the UI.
@@ -42,14 +68,16 @@ public class CirculationApp extends Application {
      */
     @Override
     public void start(Stage primaryStage) {
-        bookList = FXCollections.observableArrayList(loadBooks());
-        userList = FXCollections.observableArrayList(loadUsers());
+        repository = LibraryRepository.getInstance();
+        circulation = new CirculationService(repository);
 
         //--User UI for Check-Outs
         userIdField = new TextField();
         userIdField.setPromptText("Enter User ID or Name");
         Button findUserButton = new Button("Find User");
         findUserButton.setOnAction(e -> findUser());
+        // Picking a suggested ID or name finds that user straight away
+        bindSuggestions(userIdField, repository::suggestUsers).setOnAutoCompleted(e -> findUser());
 
         HBox userInputBox = new HBox(10, userIdField, findUserButton);
         userInputBox.setPadding(new Insets(10));
@@ -84,6 +112,7 @@ public class CirculationApp extends Application {
         isbnField.setPromptText("Enter BookID, or Title to Check Out");
         Button checkoutButton = new Button("Check Out Book");
         checkoutButton.setOnAction(e -> checkoutBook());
+        bindSuggestions(isbnField, repository::suggestBooks);
 
         HBox checkoutBox = new HBox(10, isbnField, checkoutButton);
         checkoutBox.setPadding(new Insets(10));
@@ -95,6 +124,7 @@ public class CirculationApp extends Application {
         checkInField.setPromptText("Enter BookID or Title to Check In");
         Button checkInButton = new Button("Check In Book");
         checkInButton.setOnAction(e -> checkInBook());
+        bindSuggestions(checkInField, repository::suggestBooks);
 
         HBox checkInBox = new HBox(10, checkInField, checkInButton);
         checkInBox.setPadding(new Insets(10));
@@ -127,9 +157,30 @@ public class CirculationApp extends Application {
         TabPane tabPane = new TabPane();
         Tab checkoutTab = new Tab("Check Out", new VBox(10, userInputBox, userNameLabel, userBooksTable, checkoutBox));
         Tab checkInTab = new Tab("Check In", checkInLayout);
+        Tab batchTab = createBatchTab();
+        Tab overdueTab = createOverdueTab();
         checkoutTab.setClosable(false);
         checkInTab.setClosable(false);
-        tabPane.getTabs().addAll(checkoutTab, checkInTab);
+        batchTab.setClosable(false);
+        overdueTab.setClosable(false);
+        tabPane.getTabs().addAll(checkoutTab, checkInTab, batchTab, overdueTab);
+
+        // Overdue queries run off the JavaFX thread so the tab stays responsive with millions of loans
+        overdueExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "circulation-overdue");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Loans made or ended elsewhere show up in the current user's table
+        ChangeFeed.Listener changeListener = this::applyChanges;
+        repository.getChangeFeed().subscribe(changeListener);
+        primaryStage.setOnHidden(e -> {
+            overdueExecutor.shutdownNow();
+            repository.getChangeFeed().unsubscribe(changeListener);
+        });
+        overdueTab.setOnSelectionChanged(e -> {
+            if (overdueTab.isSelected()) refreshOverdue();
+        });
 
 
 
@@ -146,21 +197,123 @@ public class CirculationApp extends Application {
         Platform.runLater(() -> userIdField.getParent().requestFocus());
     }
 
+    /**
+     * Shows suggestions under a field as it is typed in. They are looked up off the JavaFX
+     * thread, from the repository's sorted keys, so each keystroke costs a binary search.
+     *
+     * @param field   The field.
+     * @param suggest Gets up to the given number of suggestions for the text typed so far.
+     * @return The binding, for reacting to a suggestion being picked.
+     */
+    private AutoCompletionBinding<String> bindSuggestions(TextField field, BiFunction<String, Integer, List<String>> suggest) {
+        AutoCompletionBinding<String> binding = TextFields.bindAutoCompletion(field,
+                request -> suggest.apply(request.getUserText().trim(), SUGGESTIONS));
+        binding.setDelay(SUGGESTION_DELAY_MS);
+        binding.setVisibleRowCount(SUGGESTIONS);
+        return binding;
+    }
+
+    /**
+     * Builds the Overdue tab: the overdue (or soon due) loans, and the patrons with overdue loans.
+     * @return The tab.
+     */
+    private Tab createOverdueTab() {
+        overdueViewBox = new ComboBox<>(FXCollections.observableArrayList("Overdue", "Due Soon"));
+        overdueViewBox.setValue("Overdue");
+        dueSoonDaysSpinner = new Spinner<>(0, 365, 7);
+        dueSoonDaysSpinner.setPrefWidth(80);
+        dueSoonDaysSpinner.disableProperty().bind(overdueViewBox.valueProperty().isEqualTo("Overdue"));
+        Button refreshButton = new Button("Refresh");
+        refreshButton.setOnAction(e -> refreshOverdue());
+        overdueViewBox.setOnAction(e -> refreshOverdue());
+        dueSoonDaysSpinner.valueProperty().addListener((obs, oldDays, newDays) -> refreshOverdue());
+
+        HBox controlsBox = new HBox(10, overdueViewBox, new Label("Days ahead:"), dueSoonDaysSpinner, refreshButton);
+        controlsBox.setAlignment(Pos.CENTER_LEFT);
+        overdueSummaryLabel = new Label();
+
+        overdueTable = new TableView<>();
+        TableColumn<Book, String> titleCol = new TableColumn<>("Title");
+        titleCol.setCellValueFactory(data -> data.getValue().titleProperty());
+
+        TableColumn<Book, String> isbnCol = new TableColumn<>("ISBN or BookID");
+        isbnCol.setCellValueFactory(data -> data.getValue().isbnProperty());
+
+        TableColumn<Book, String> borrowerCol = new TableColumn<>("Borrowed By");
+        borrowerCol.setCellValueFactory(data ->
+                new SimpleStringProperty(getUserNameById(data.getValue().getBorrowedBy())));
+
+        TableColumn<Book, String> dueDateCol = new TableColumn<>("Due Date");
+        dueDateCol.setCellValueFactory(data -> new SimpleStringProperty(
+                data.getValue().getDueDate() != null ? data.getValue().getDueDate().toString() : "N/A"));
+
+        TableColumn<Book, String> daysLateCol = new TableColumn<>("Days Overdue");
+        daysLateCol.setCellValueFactory(data -> {
+            LocalDate dueDate = data.getValue().getDueDate();
+            long daysLate = dueDate != null ? ChronoUnit.DAYS.between(dueDate, LocalDate.now()) : 0;
+            return new SimpleStringProperty(daysLate > 0 ? String.valueOf(daysLate) : "");
+        });
+
+        overdueTable.getColumns().setAll(List.of(titleCol, isbnCol, borrowerCol, dueDateCol, daysLateCol));
+        overdueTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
+        overdueTable.setPlaceholder(new Label("No books found."));
+
+        overduePatronsTable = new TableView<>();
+        TableColumn<Map.Entry<String, Integer>, String> patronCol = new TableColumn<>("Patron");
+        patronCol.setCellValueFactory(data -> new SimpleStringProperty(
+                data.getValue().getKey() + " - " + getUserNameById(data.getValue().getKey())));
+
+        TableColumn<Map.Entry<String, Integer>, String> countCol = new TableColumn<>("Overdue");
+        countCol.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().getValue().toString()));
+
+        overduePatronsTable.getColumns().setAll(List.of(patronCol, countCol));
+        overduePatronsTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
+        overduePatronsTable.setPlaceholder(new Label("No overdue patrons."));
+        overduePatronsTable.setPrefWidth(250);
+
+        HBox tablesBox = new HBox(10, overdueTable, overduePatronsTable);
+        HBox.setHgrow(overdueTable, Priority.ALWAYS);
+        VBox overdueLayout = new VBox(10, controlsBox, overdueSummaryLabel, tablesBox);
+        VBox.setVgrow(tablesBox, Priority.ALWAYS);
+        overdueLayout.setPadding(new Insets(10));
+        return new Tab("Overdue", overdueLayout);
+    }
+
+    /**
+     * Reloads the Overdue tab from the repository's due date index.
+     * The query runs on the overdue thread; results from a superseded refresh are dropped.
+     */
+    private void refreshOverdue() {
+        long generation = ++overdueGeneration;
+        boolean showOverdue = "Overdue".equals(overdueViewBox.getValue());
+        int days = dueSoonDaysSpinner.getValue();
+        LocalDate today = LocalDate.now();
+
+        overdueExecutor.submit(() -> {
+            List<Book> loans = showOverdue
+                    ? repository.findOverdueLoans(today)
+                    : repository.findLoansDueWithin(today, days);
+            List<Map.Entry<String, Integer>> patrons = new ArrayList<>(repository.countOverdueByBorrower(today).entrySet());
+            patrons.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+
+            Platform.runLater(() -> {
+                if (generation != overdueGeneration) return;
+                overdueTable.setItems(FXCollections.observableArrayList(loans));
+                overduePatronsTable.setItems(FXCollections.observableArrayList(patrons));
+                overdueSummaryLabel.setText(showOverdue
+                        ? loans.size() + " overdue loans held by " + patrons.size() + " patrons"
+                        : loans.size() + " loans due in the next " + days + " days");
+            });
+        });
+    }
+
     /**
      * Searches for a user based on the provided ID or name.
      */
     private void findUser() {
         String input = userIdField.getText().trim();
-        //Try searching by ID first
-        Optional<User> userOptional = userList.stream().filter(user -> user.getUserId()
-                .equals(input)).findFirst();
-
-        //Alternatively, search by Name
-        if(userOptional.isEmpty()) {
-            userOptional = userList.stream()
-                    .filter(user -> user.getName().equalsIgnoreCase(input))
-                    .findFirst();
-        }
+        //Searches by ID first, then by name
+        Optional<User> userOptional = circulation.findUser(input);
 
         if (userOptional.isPresent()) {
             currentUser = userOptional.get();
@@ -180,41 +333,26 @@ public class CirculationApp extends Application {
             return;
         }
 
-        int checkOutLimit = 10; //Checkout limit can be adjusted here
-        if (currentUser.getCheckedOutBooks().size() >= checkOutLimit) {
-            showAlert(Alert.AlertType.WARNING, "Checkout Limit Reached",
-                    "Users can only check out up to" + checkOutLimit + " books.");
-            return;
-        }
-
-        //Try searching by ISBN first:
         String input = isbnField.getText().trim();
-        Optional<Book> bookOptional = bookList.stream().filter(book -> book.getIsbn()
-                .equalsIgnoreCase(input) && book.isAvailable()).findFirst();
-
-        //Alternatively, search by Title
-        if(bookOptional.isEmpty()) {
-            bookOptional = bookList.stream()
-                    .filter(book -> book.getTitle().equalsIgnoreCase(input)
-                            && book.isAvailable()).findFirst();
+        CirculationService.Result result;
+        try {
+            result = circulation.checkOut(currentUser, input);
+            // A title with a typo is only used once the desk confirms which book it means
+            Optional<String> meant = circulation.namesBook(input) ? Optional.empty() : confirmTitle(input, "Check Out");
+            if (meant.isPresent()) result = circulation.checkOut(currentUser, meant.get());
+        } catch (IOException e) {
+            showAlert(Alert.AlertType.ERROR, "Journal Error", "Could not record the transaction: " + e.getMessage());
+            updateUserBooksTable();
+            return;
         }
 
-        if (bookOptional.isPresent()) {
-            Book selectedBook = bookOptional.get();
-            selectedBook.setAvailable(false);
-            selectedBook.setBorrowedBy(currentUser.getUserId());
-            //Default Checkout period can be changed here:
-            selectedBook.setDueDate(LocalDate.now().plusWeeks(2));
-
-            //Store only ISBN in user's record
-            currentUser.addCheckedOutBook(selectedBook.getIsbn());
-
-            saveBooks(bookList);
-            saveUsers(userList);
+        if (result.success()) {
             updateUserBooksTable();
-            showAlert(Alert.AlertType.INFORMATION, "Success", "Book checked out successfully.");
+            Book book = result.book();
+            showAlert(Alert.AlertType.INFORMATION, "Success", "Checked out \"" + book.getTitle() + "\" (" + book.getIsbn()
+                    + ") to " + currentUser.getName() + ", due " + book.getDueDate() + ".");
         } else {
-            showAlert(Alert.AlertType.ERROR, "Book Unavailable", "This book is not available for checkout.");
+            showAlert(Alert.AlertType.ERROR, "Checkout Failed", sentence(result.message()));
         }
     }
 
@@ -223,133 +361,257 @@ public class CirculationApp extends Application {
      */
     private void checkInBook() {
         String input = checkInField.getText().trim();
+        CirculationService.Result result;
+        try {
+            result = circulation.checkIn(input);
+            Optional<String> meant = circulation.namesBook(input) ? Optional.empty() : confirmTitle(input, "Check In");
+            if (meant.isPresent()) result = circulation.checkIn(meant.get());
+        } catch (IOException e) {
+            showAlert(Alert.AlertType.ERROR, "Journal Error", "Could not record the transaction: " + e.getMessage());
+            return;
+        }
 
-        // Find the book regardless of whether it's checked out
-        Optional<Book> bookOptional = bookList.stream()
-                .filter(book -> book.getIsbn().equalsIgnoreCase(input) || book.getTitle().equalsIgnoreCase(input))
-                .findFirst();
-
-        if (bookOptional.isPresent()) {
-            Book selectedBook = bookOptional.get();
-            String lastBorrowedBy = selectedBook.getBorrowedBy();
-            LocalDate lastDueDate = selectedBook.getDueDate();
-
-            // If the book was checked out, remove it from the borrower's record
-            if (lastBorrowedBy != null) {
-                Optional<User> userOptional = userList.stream()
-                        .filter(user -> user.getUserId().equals(lastBorrowedBy))
-                        .findFirst();
-
-                userOptional.ifPresent(user -> {
-                    user.returnBook(selectedBook.getIsbn());
-                    saveUsers(userList);
-                });
-            }
+        if (result.success()) {
+            addRecentCheckIns(List.of(result));
+            updateUserBooksTable(); // Update the checkout tab
+            showAlert(Alert.AlertType.INFORMATION, "Success", "Checked in \"" + result.book().getTitle() + "\" ("
+                    + result.book().getIsbn() + ").");
+        } else {
+            showAlert(Alert.AlertType.ERROR, "Check-In Error", sentence(result.message()));
+        }
+    }
 
-            // Update book status to available
-            selectedBook.setAvailable(true);
-            selectedBook.setBorrowedBy(null);
-            selectedBook.setDueDate(null);
+    /**
+     * Asks the desk which book a title that matched nothing was meant to be, offering the closest titles.
+     *
+     * @param input  The title as entered.
+     * @param action The name of the transaction, for the dialog's title.
+     * @return The title the desk chose; empty if there were no close titles or the desk cancelled.
+     */
+    private Optional<String> confirmTitle(String input, String action) {
+        List<String> titles = circulation.suggestTitles(input);
+        if (titles.isEmpty()) return Optional.empty();
+        ChoiceDialog<String> dialog = new ChoiceDialog<>(titles.get(0), titles);
+        dialog.setTitle(action);
+        dialog.setHeaderText("No book found with ID or Title \"" + input + "\".");
+        dialog.setContentText("Did you mean:");
+        return dialog.showAndWait();
+    }
+
+    /**
+     * Ends a result message with a full stop, unless it already ends with a question.
+     * @param message The message.
+     * @return The message as a sentence.
+     */
+    private static String sentence(String message) {
+        return message.endsWith("?") ? message : message + ".";
+    }
 
-            // Add to recent check ins
+    /**
+     * Adds books to the recently checked in table, which keeps the last ten.
+     * @param results The successful check-ins, oldest first.
+     */
+    private void addRecentCheckIns(List<CirculationService.Result> results) {
+        for (CirculationService.Result result : results) {
+            if (!result.success()) continue;
+            Book book = result.book();
             if (recentCheckInsQueue.size() == 10) recentCheckInsQueue.poll();
             recentCheckInsQueue.add(new Book(
-                    selectedBook.getTitle(),
-                    selectedBook.getAuthor(),
-                    selectedBook.getIsbn(),
+                    book.getTitle(),
+                    book.getAuthor(),
+                    book.getIsbn(),
                     false,
-                    (lastBorrowedBy != null) ? lastBorrowedBy : "N/A", // If null, display "N/A"
-                    (lastDueDate != null) ? lastDueDate : null // Keep null for proper formatting
+                    (result.lastBorrowedBy() != null) ? result.lastBorrowedBy() : "N/A", // If null, display "N/A"
+                    result.lastDueDate() // Keep null for proper formatting
             ));
-
-            // Update the check-in table
-            recentCheckInsTable.setItems(FXCollections.observableArrayList(recentCheckInsQueue));
-
-            // Save the changes
-            saveBooks(bookList);
-            updateUserBooksTable(); // Update the checkout tab
-
-            showAlert(Alert.AlertType.INFORMATION, "Success", "Book checked in successfully.");
-        } else {
-            showAlert(Alert.AlertType.ERROR, "Check-In Error", "No book found with that ID or Title.");
         }
+        recentCheckInsTable.setItems(FXCollections.observableArrayList(recentCheckInsQueue));
     }
 
-
     /**
-     * Retrieves the user's name by their ID.
-     *
-     * @param userId The ID of the user.
-     * @return The user's name, or "N/A" if not found.
+     * Builds the Batch tab, where barcodes from a scanner, a pasted list or a file are
+     * checked in or out together and the outcome of each is listed instead of shown in a dialog.
+     * @return The tab.
      */
-    private String getUserNameById(String userId) {
-        return userList.stream()
-                .filter(user -> user.getUserId().equals(userId))
-                .map(User::getName)
-                .findFirst()
-                .orElse("N/A");
+    private Tab createBatchTab() {
+        batchModeBox = new ComboBox<>(FXCollections.observableArrayList(BATCH_CHECK_IN, BATCH_CHECK_OUT));
+        batchModeBox.setValue(BATCH_CHECK_IN);
+        batchUserField = new TextField();
+        batchUserField.setPromptText("User ID or Name (for Check Out)");
+        batchUserField.disableProperty().bind(batchModeBox.valueProperty().isEqualTo(BATCH_CHECK_IN));
+        HBox modeBox = new HBox(10, batchModeBox, batchUserField);
+        modeBox.setAlignment(Pos.CENTER_LEFT);
+
+        // A keyboard-wedge scanner types each barcode followed by Enter; scans are queued
+        // and processed together once the scanner pauses
+        scanField = new TextField();
+        scanField.setPromptText("Scan barcodes here");
+        scanPause = new PauseTransition(SCAN_PAUSE);
+        scanPause.setOnFinished(e -> processScans());
+        scanField.setOnAction(e -> {
+            String barcode = scanField.getText().trim();
+            scanField.clear();
+            if (!barcode.isEmpty()) queuedScans.add(barcode);
+            scanPause.playFromStart();
+        });
+
+        batchListArea = new TextArea();
+        batchListArea.setPromptText("Or paste barcodes, one per line");
+        batchListArea.setPrefRowCount(5);
+        Button processListButton = new Button("Process List");
+        processListButton.setOnAction(e -> {
+            processBatch(Arrays.asList(batchListArea.getText().split("\\R")));
+            batchListArea.clear();
+        });
+        Button loadFileButton = new Button("Process File...");
+        loadFileButton.setOnAction(e -> processBatchFile());
+        Button clearResultsButton = new Button("Clear Results");
+        clearResultsButton.setOnAction(e -> {
+            batchResults.clear();
+            batchSummaryLabel.setText("");
+        });
+        HBox listButtonsBox = new HBox(10, processListButton, loadFileButton, clearResultsButton);
+
+        TableView<CirculationService.Result> resultsTable = new TableView<>(batchResults);
+        TableColumn<CirculationService.Result, String> barcodeCol = new TableColumn<>("Barcode");
+        barcodeCol.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().input()));
+
+        TableColumn<CirculationService.Result, String> resultTitleCol = new TableColumn<>("Title");
+        resultTitleCol.setCellValueFactory(data -> new SimpleStringProperty(
+                data.getValue().book() != null ? data.getValue().book().getTitle() : ""));
+
+        TableColumn<CirculationService.Result, String> statusCol = new TableColumn<>("Status");
+        statusCol.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().success() ? "OK" : "Failed"));
+        statusCol.setMaxWidth(80);
+
+        TableColumn<CirculationService.Result, String> messageCol = new TableColumn<>("Result");
+        messageCol.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().message()));
+
+        resultsTable.getColumns().setAll(List.of(barcodeCol, resultTitleCol, statusCol, messageCol));
+        resultsTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
+        resultsTable.setPlaceholder(new Label("No items processed."));
+        batchResultsTable = resultsTable;
+
+        batchSummaryLabel = new Label();
+        VBox batchLayout = new VBox(10, modeBox, scanField, batchListArea, listButtonsBox, batchSummaryLabel, resultsTable);
+        VBox.setVgrow(resultsTable, Priority.ALWAYS);
+        batchLayout.setPadding(new Insets(10));
+        return new Tab("Batch", batchLayout);
     }
 
-
-    private void updateUserBooksTable() {
-        if (currentUser != null) {
-            List<Book> checkedOutBooks = bookList.stream()
-                    .filter(book -> book.getBorrowedBy() != null && book.getBorrowedBy().equals(currentUser.getUserId()))
-                    .toList();
-            userBooksTable.setItems(FXCollections.observableArrayList(checkedOutBooks));
-        }
+    /**
+     * Processes the barcodes scanned since the last pause.
+     */
+    private void processScans() {
+        List<String> scans = new ArrayList<>(queuedScans);
+        queuedScans.clear();
+        processBatch(scans);
     }
 
     /**
-     * Retrieves a list of books from the stored file.
-     * @return List of books
+     * Asks for a file of barcodes, one per line, and processes it as one batch.
      */
-    private List<Book> loadBooks() {
+    private void processBatchFile() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Open Barcode List");
+        File file = chooser.showOpenDialog(batchListArea.getScene().getWindow());
+        if (file == null) return;
         try {
-            File file = new File(BOOKS_FILE);
-            if (!file.exists()) return new ArrayList<>();
-            return List.of(objectMapper.readValue(file, Book[].class));
+            processBatch(Files.readAllLines(file.toPath()));
         } catch (IOException e) {
-            return new ArrayList<>();
+            showAlert(Alert.AlertType.ERROR, "File Error", "Could not read " + file.getName() + ": " + e.getMessage());
         }
     }
 
     /**
-     * Retrieves a list of users from the stored file.
-     * @return List of users
+     * Checks a batch of barcodes in or out as one transaction and lists the outcome of each.
+     * @param lines The barcodes; blank lines are skipped.
      */
-    private List<User> loadUsers() {
+    private void processBatch(List<String> lines) {
+        List<String> barcodes = lines.stream().map(String::trim).filter(line -> !line.isEmpty()).toList();
+        if (barcodes.isEmpty()) return;
+
+        List<CirculationService.Result> results;
         try {
-            File file = new File(USERS_FILE);
-            if (!file.exists()) return new ArrayList<>();
-            return List.of(objectMapper.readValue(file, User[].class));
+            if (BATCH_CHECK_OUT.equals(batchModeBox.getValue())) {
+                Optional<User> user = circulation.findUser(batchUserField.getText().trim());
+                if (user.isEmpty()) {
+                    showAlert(Alert.AlertType.ERROR, "User Not Found", "Enter the borrower before scanning books to check out.");
+                    return;
+                }
+                results = circulation.checkOutAll(user.get(), barcodes);
+            } else {
+                results = circulation.checkInAll(barcodes);
+                addRecentCheckIns(results);
+            }
         } catch (IOException e) {
-            return new ArrayList<>();
+            // The batch was applied; only its journal record is missing
+            showAlert(Alert.AlertType.ERROR, "Journal Error", "Could not record the batch: " + e.getMessage());
+            updateUserBooksTable();
+            return;
         }
+
+        batchResults.addAll(results);
+        batchResultsTable.scrollTo(batchResults.size() - 1);
+        long failed = results.stream().filter(result -> !result.success()).count();
+        batchSummaryLabel.setText(results.size() + " items processed, " + failed + " failed");
+        updateUserBooksTable();
     }
 
     /**
-     * Saves the current list of books.
-     * @param books List of books to save
+     * Retrieves the user's name by their ID.
+     *
+     * @param userId The ID of the user.
+     * @return The user's name, or "N/A" if not found.
      */
-    private void saveBooks(List<Book> books) {
-        try {
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(BOOKS_FILE), books);
-        } catch (IOException e) {
-            e.printStackTrace();
+    private String getUserNameById(String userId) {
+        return repository.findUserById(userId)
+                .map(User::getName)
+                .orElse("N/A");
+    }
+
+
+    /**
+     * Shows the current user's loans, looked up from the repository's loan index.
+     */
+    private void updateUserBooksTable() {
+        if (currentUser != null) {
+            userBooksTable.setItems(FXCollections.observableArrayList(repository.findLoans(currentUser.getUserId())));
         }
     }
 
     /**
-     * Saves the current list of users.
-     * @param users List of users to save
+     * Patches the window for changes made elsewhere: the current user's loans are listed again
+     * if one of them was made or ended, and the overdue list redraws loans that changed.
+     *
+     * @param events A batch of changes from the repository.
      */
-    private void saveUsers(List<User> users) {
-        try {
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(USERS_FILE), users);
-        } catch (IOException e) {
-            e.printStackTrace();
+    private void applyChanges(List<ChangeFeed.Event> events) {
+        boolean anyLoanChanged = false;
+        boolean userLoansChanged = false;
+        boolean userChanged = false;
+        for (ChangeFeed.Event event : events) {
+            switch (event.kind()) {
+                case AVAILABILITY_CHANGED, BOOK_REMOVED -> {
+                    anyLoanChanged = true;
+                    if (currentUser == null) continue;
+                    userLoansChanged |= currentUser.getUserId().equals(event.book().getBorrowedBy())
+                            || userBooksTable.getItems().contains(event.book());
+                }
+                case USER_EDITED -> userChanged |= event.user() == currentUser;
+                case USER_REMOVED -> {
+                    if (event.user() == currentUser) {
+                        currentUser = null;
+                        userNameLabel.setText("User: Not Selected");
+                        userBooksTable.getItems().clear();
+                    }
+                }
+                default -> { }
+            }
         }
+        if (userLoansChanged && currentUser != null) updateUserBooksTable();
+        if (userChanged && currentUser != null) userNameLabel.setText("User: " + currentUser.getName());
+        if (anyLoanChanged) overdueTable.refresh();
     }
 
     /**
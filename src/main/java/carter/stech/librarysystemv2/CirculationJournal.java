@@ -0,0 +1,374 @@
+package carter.stech.librarysystemv2;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only journal of circulation transactions.
+ * Each checkout or check-in is appended as one small JSON line instead of rewriting
+ * books.json and users.json. Appends are forced to disk in groups by a background
+ * thread, and the journal is replayed over the last JSON snapshot on startup.
+ * The snapshot is only rewritten when the journal is compacted: a snapshot is taken at
+ * a {@link #mark()}, written out by the caller, and then the records up to the mark are discarded.
+ */
+public final class CirculationJournal implements Closeable {
+    private static final long SYNC_INTERVAL_MS = 50;
+    private static final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    /**
+     * The kinds of transaction recorded in the journal.
+     */
+    public enum Operation { CHECKOUT, CHECK_IN }
+
+    /**
+     * A single journal record.
+     *
+     * @param op      The transaction type.
+     * @param isbn    The ISBN (or custom book ID) of the book.
+     * @param userId  The borrower's ID.
+     * @param dueDate The due date for a checkout, or null for a check-in.
+     */
+    public record Entry(Operation op, String isbn, String userId, LocalDate dueDate) {
+        /**
+         * Creates a checkout record.
+         *
+         * @param isbn    The ISBN of the book checked out.
+         * @param userId  The borrower's ID.
+         * @param dueDate The due date of the loan.
+         * @return The record.
+         */
+        public static Entry checkout(String isbn, String userId, LocalDate dueDate) {
+            return new Entry(Operation.CHECKOUT, isbn, userId, dueDate);
+        }
+
+        /**
+         * Creates a check-in record.
+         *
+         * @param isbn   The ISBN of the book checked in.
+         * @param userId The ID of the last borrower, or null if the book was not on loan.
+         * @return The record.
+         */
+        public static Entry checkIn(String isbn, String userId) {
+            return new Entry(Operation.CHECK_IN, isbn, userId, null);
+        }
+    }
+
+    private final Path path;
+    private FileChannel channel; // Guarded by this; replaced when the journal is rewritten
+    private final ScheduledExecutorService syncer;
+    private boolean unsynced; // Guarded by this
+    private int entryCount;   // Guarded by this
+    private long baseOffset;  // Logical offset of the first byte in the file, guarded by this
+
+    /**
+     * Opens (or creates) the journal for appending.
+     *
+     * @param path The journal file.
+     * @throws IOException If the file cannot be opened.
+     */
+    public CirculationJournal(Path path) throws IOException {
+        this.path = path;
+        this.channel = openChannel(path);
+        this.entryCount = countEntries(path);
+        this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "circulation-journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Group commit: appends only hit the page cache, one fsync covers everything since the last tick
+        syncer.scheduleWithFixedDelay(this::syncQuietly, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends one record to the journal. The record reaches the disk on the next group sync.
+     *
+     * @param entry The record to append.
+     * @throws IOException If the record could not be written.
+     */
+    public void append(Entry entry) throws IOException {
+        appendAll(List.of(entry));
+    }
+
+    /**
+     * Appends several records to the journal in a single write, so a batch reaches the
+     * disk together on the next group sync.
+     *
+     * @param entries The records to append, in order.
+     * @throws IOException If the records could not be written.
+     */
+    public synchronized void appendAll(List<Entry> entries) throws IOException {
+        long start = System.nanoTime();
+        StringBuilder lines = new StringBuilder();
+        for (Entry entry : entries) {
+            lines.append(objectMapper.writeValueAsString(entry)).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        unsynced = true;
+        entryCount += entries.size();
+        Metric.JOURNAL_APPEND.record(start, buffer.limit());
+    }
+
+    /**
+     * Forces all appended records to disk.
+     *
+     * @throws IOException If the sync fails.
+     */
+    public void sync() throws IOException {
+        FileChannel current;
+        synchronized (this) {
+            if (!unsynced) return;
+            unsynced = false;
+            current = channel;
+        }
+        // Forcing outside the lock lets the desk keep appending while the disk catches up
+        long start = System.nanoTime();
+        try {
+            current.force(false);
+            Metric.JOURNAL_SYNC.record(start);
+        } catch (ClosedChannelException e) {
+            // The journal was rewritten and forced in the meantime
+        }
+    }
+
+    /**
+     * Background sync task; failures are retried on the next tick.
+     */
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            synchronized (this) {
+                unsynced = true;
+            }
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets the number of records currently in the journal.
+     * @return The journal length in records.
+     */
+    public synchronized int size() {
+        return entryCount;
+    }
+
+    /**
+     * Marks the current end of the journal. Every record before the mark is reflected in
+     * the in-memory data at the time of the call.
+     *
+     * @return A logical offset that stays valid across earlier discards.
+     * @throws IOException If the journal size cannot be read.
+     */
+    public synchronized long mark() throws IOException {
+        return baseOffset + channel.size();
+    }
+
+    /**
+     * Discards the records before a mark once a snapshot taken at that mark is safely on disk.
+     * Records appended after the mark are kept, so appends never wait for the snapshot itself.
+     *
+     * @param mark A value previously returned by {@link #mark()}.
+     * @throws IOException If the journal could not be rewritten.
+     */
+    public synchronized void discardThrough(long mark) throws IOException {
+        if (mark <= baseOffset) return;
+        long start = mark - baseOffset;
+        ByteBuffer tail = ByteBuffer.allocate((int) (channel.size() - start));
+        while (tail.hasRemaining() && channel.read(tail, start + tail.position()) >= 0) {
+            // Keep reading until the whole tail is in memory
+        }
+        tail.flip();
+
+        // Write the surviving tail beside the journal and swap it in, so a crash leaves one or the other intact
+        Path rewritten = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(rewritten, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (tail.hasRemaining()) {
+                out.write(tail);
+            }
+            out.force(true);
+        }
+        channel.close();
+        Files.move(rewritten, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = openChannel(path);
+        unsynced = false;
+        baseOffset = mark;
+
+        int remaining = 0;
+        for (int i = 0; i < tail.limit(); i++) {
+            if (tail.get(i) == '\n') remaining++;
+        }
+        entryCount = remaining;
+    }
+
+    /**
+     * Syncs outstanding records and closes the journal.
+     *
+     * @throws IOException If the final sync fails.
+     */
+    @Override
+    public void close() throws IOException {
+        syncer.shutdown();
+        try {
+            sync();
+        } finally {
+            synchronized (this) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Replays a journal file over freshly loaded books.
+     * Replay is idempotent, so records that were already captured by the snapshot are harmless.
+     * A torn final line (from a crash mid-append) ends the replay. The borrowers' own lists
+     * follow the books' loans through the repository, so only the books are updated here.
+     * <p>
+     * Records name a book by ISBN, and several copies may share one, so each record is
+     * applied to the copy it must have meant: a checkout to a copy the snapshot already shows
+     * lent to that borrower on that due date, or else to the first copy on the shelf, as the
+     * desk picks; a check-in to the first copy lent to the borrower it names.
+     *
+     * @param path  The journal file.
+     * @param books The books loaded from the last snapshot.
+     * @return The number of records applied.
+     */
+    public static int replay(Path path, List<Book> books) {
+        if (!Files.exists(path)) return 0;
+
+        Map<String, List<Book>> copiesByIsbn = new HashMap<>();
+        for (Book book : books) copiesByIsbn.computeIfAbsent(book.getIsbn(), isbn -> new ArrayList<>(1)).add(book);
+        // Copies lent by a checkout replayed so far, so two loans of one ISBN land on two copies
+        Set<Book> claimed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        int applied = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                Entry entry;
+                try {
+                    entry = objectMapper.readValue(line, Entry.class);
+                } catch (IOException e) {
+                    System.err.println("Stopping journal replay at damaged record: " + line);
+                    break;
+                }
+                List<Book> copies = copiesByIsbn.get(entry.isbn());
+                if (copies != null) apply(entry, copies, claimed);
+                applied++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return applied;
+    }
+
+    /**
+     * Applies one record to the copy of its book it refers to.
+     *
+     * @param entry   The record.
+     * @param copies  The copies with the record's ISBN, in catalog order.
+     * @param claimed The copies lent by checkouts replayed so far and not yet checked in.
+     */
+    private static void apply(Entry entry, List<Book> copies, Set<Book> claimed) {
+        if (entry.op() == Operation.CHECKOUT) {
+            Book book = copyCheckedOut(entry, copies, claimed);
+            if (book == null) return;
+            claimed.add(book);
+            book.setAvailable(false);
+            book.setBorrowedBy(entry.userId());
+            book.setDueDate(entry.dueDate());
+        } else {
+            for (Book book : copies) {
+                if (!book.isAvailable() && Objects.equals(book.getBorrowedBy(), entry.userId())) {
+                    claimed.remove(book);
+                    book.setAvailable(true);
+                    return;
+                }
+            }
+            // No copy is out to that borrower, so the snapshot already has the check-in
+        }
+    }
+
+    /**
+     * Picks the copy a checkout record lent.
+     *
+     * @param entry   The checkout record.
+     * @param copies  The copies with its ISBN, in catalog order.
+     * @param claimed The copies lent by checkouts replayed so far.
+     * @return The copy already showing this loan in the snapshot, else the first copy on the
+     * shelf, else the first copy not lent during the replay; null if every copy was.
+     */
+    private static Book copyCheckedOut(Entry entry, List<Book> copies, Set<Book> claimed) {
+        for (Book book : copies) {
+            if (!claimed.contains(book) && !book.isAvailable() && Objects.equals(book.getBorrowedBy(), entry.userId())
+                    && Objects.equals(book.getDueDate(), entry.dueDate())) {
+                return book;
+            }
+        }
+        for (Book book : copies) {
+            if (!claimed.contains(book) && book.isAvailable()) return book;
+        }
+        // The snapshot is ahead of this record; later records will settle the copy
+        for (Book book : copies) {
+            if (!claimed.contains(book)) return book;
+        }
+        return null;
+    }
+
+    /**
+     * Opens the journal file for reading and appending.
+     * READ cannot be combined with APPEND, so the channel is positioned at the end instead;
+     * all writes go through {@link #append(Entry)}, which is synchronized.
+     *
+     * @param path The journal file.
+     * @return The open channel.
+     * @throws IOException If the file cannot be opened.
+     */
+    private static FileChannel openChannel(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    /**
+     * Counts the records in an existing journal file.
+     *
+     * @param path The journal file.
+     * @return The number of non-blank lines.
+     * @throws IOException If the file cannot be read.
+     */
+    private static int countEntries(Path path) throws IOException {
+        try (var lines = Files.lines(path, StandardCharsets.UTF_8)) {
+            return (int) lines.filter(line -> !line.isBlank()).count();
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package carter.stech.librarysystemv2;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A headless circulation service that owns the library data and serves it to the desks
+ * over a small HTTP/JSON API, so several workstations can share one collection.
+ * <p>
+ * Each request is handled on its own virtual thread from start to finish. Checkouts and
+ * check-ins run as {@link CirculationService} transactions, which lock only the books and
+ * users involved, so desks working on different items never wait for each other. Records
+ * are copied for the response under the same locks, so a response never shows a book
+ * half-way through a change. The lists themselves (loading, saving, compaction) belong to
+ * a single "library-application" thread, which stands in for the JavaFX thread.
+ * <p>
+ * Endpoints (request and response bodies are JSON):
+ * <ul>
+ *     <li>GET /books?isbn=... or /books?title=... - exact lookup</li>
+ *     <li>GET /search?q=...&amp;limit=... - partial title, author or ISBN search</li>
+ *     <li>GET /users/{id} - a patron and their loans</li>
+ *     <li>POST /checkout {"userId": "...", "items": ["isbn or title", ...]}</li>
+ *     <li>POST /checkin {"items": ["isbn or title", ...]}</li>
+ * </ul>
+ * Start it with {@code java -jar LibrarySystemV2.jar --server [port] [address]}. The API has
+ * no sign-in, so it listens only on the loopback interface unless an address to listen on is
+ * given, such as a LAN address or 0.0.0.0 for every interface.
+ */
+public class CirculationServer {
+    public static final int DEFAULT_PORT = 8080;
+    private static final int BACKLOG = 256;           // Connections queued while every handler is busy
+    private static final int DEFAULT_SEARCH_LIMIT = 50;
+    private static final int MAX_SEARCH_LIMIT = 1000;
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS); // "2026-10-31" rather than [2026,10,31]
+
+    private final ExecutorService applicationThread;
+    private final LibraryRepository repository;
+    private final CirculationService circulation;
+    private final HttpServer server;
+
+    /**
+     * A book as sent to the desks: a copy taken under the book's lock.
+     *
+     * @param title      The title.
+     * @param author     The author.
+     * @param isbn       The ISBN or book ID.
+     * @param available  Whether it is on the shelf.
+     * @param borrowedBy Who has it, or null.
+     * @param dueDate    When it is due back, or null.
+     */
+    public record BookView(String title, String author, String isbn, boolean available,
+                           String borrowedBy, LocalDate dueDate) {
+        /**
+         * Copies a book. The caller holds the book's lock.
+         * @param book The book, or null.
+         * @return The copy, or null.
+         */
+        static BookView of(Book book) {
+            return book == null ? null : new BookView(book.getTitle(), book.getAuthor(), book.getIsbn(),
+                    book.isAvailable(), book.getBorrowedBy(), book.getDueDate());
+        }
+    }
+
+    /**
+     * A patron and their loans, copied under their locks.
+     *
+     * @param userId The user's ID.
+     * @param name   The user's name.
+     * @param loans  The books they have out.
+     */
+    public record UserView(String userId, String name, List<BookView> loans) { }
+
+    /**
+     * The outcome of one item in a checkout or check-in, copied under the book's lock.
+     *
+     * @param input          The ID or title sent.
+     * @param success        Whether the transaction was applied.
+     * @param message        What happened.
+     * @param book           The book it resolved to, or null.
+     * @param lastBorrowedBy For a check-in, who had the book.
+     * @param lastDueDate    For a check-in, when it was due.
+     */
+    public record ResultView(String input, boolean success, String message, BookView book,
+                             String lastBorrowedBy, LocalDate lastDueDate) {
+        /**
+         * Copies a circulation result. The caller holds its book's lock.
+         * @param result The result.
+         * @return The copy.
+         */
+        static ResultView of(CirculationService.Result result) {
+            return new ResultView(result.input(), result.success(), result.message(), BookView.of(result.book()),
+                    result.lastBorrowedBy(), result.lastDueDate());
+        }
+    }
+
+    /**
+     * A request that cannot be served, with the HTTP status to answer it with.
+     */
+    private static class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        /**
+         * Creates the error.
+         *
+         * @param status  The HTTP status code.
+         * @param message The reason, sent to the client.
+         */
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Handles one route; may throw an HttpError to answer with an error status.
+     */
+    private interface Route {
+        /**
+         * Serves a request.
+         * @param exchange The request and response.
+         * @return The object to send back as JSON.
+         * @throws Exception If the request cannot be served.
+         */
+        Object handle(HttpExchange exchange) throws Exception;
+    }
+
+    /**
+     * Creates a server on a port of the loopback interface, reachable only from this machine.
+     *
+     * @param port The port to listen on.
+     * @throws IOException If the port cannot be bound.
+     */
+    public CirculationServer(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Creates a server on a port. The repository must not have been created yet, since the
+     * server's own thread takes the place of the JavaFX application thread.
+     *
+     * @param address The interface to listen on; the wildcard address listens on all of them.
+     * @param port    The port to listen on.
+     * @throws IOException If the port cannot be bound.
+     */
+    public CirculationServer(InetAddress address, int port) throws IOException {
+        applicationThread = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "library-application");
+            thread.setDaemon(true);
+            return thread;
+        });
+        LibraryRepository.useApplicationThread(applicationThread);
+        try {
+            repository = applicationThread.submit(LibraryRepository::getInstance).get();
+        } catch (InterruptedException e) {
+            throw new IOException("The library could not be opened.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("The library could not be opened: " + e.getCause().getMessage(), e.getCause());
+        }
+        circulation = new CirculationService(repository);
+
+        server = HttpServer.create(new InetSocketAddress(address, port), BACKLOG);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        route("/books", "GET", this::lookupBooks);
+        route("/search", "GET", this::search);
+        route("/users/", "GET", this::lookupUser);
+        route("/checkout", "POST", this::checkOut);
+        route("/checkin", "POST", this::checkIn);
+    }
+
+    /**
+     * Starts accepting requests once the data has loaded.
+     * @throws IOException If the library data could not be loaded.
+     */
+    public void start() throws IOException {
+        try {
+            repository.whenLoaded().join();
+        } catch (CompletionException e) {
+            throw new IOException("The library data could not be loaded.", e.getCause());
+        }
+        server.start();
+        InetSocketAddress address = server.getAddress();
+        System.out.println("Circulation server listening on " + address.getAddress().getHostAddress() + " port " + address.getPort());
+    }
+
+    /**
+     * Stops accepting requests, giving those in progress a moment to finish.
+     * Unsaved changes are written by the repository's own shutdown hook.
+     */
+    public void stop() {
+        server.stop(1);
+    }
+
+    /**
+     * Serves GET /books?isbn=... or /books?title=...
+     * @param exchange The request.
+     * @return The matching books.
+     * @throws Exception If neither parameter was given.
+     */
+    private Object lookupBooks(HttpExchange exchange) throws Exception {
+        Map<String, String> query = queryOf(exchange);
+        String isbn = query.get("isbn");
+        String title = query.get("title");
+        if (isbn == null && title == null) throw new HttpError(400, "Give an isbn or title parameter");
+        return views(isbn != null ? repository.findBooksByIsbn(isbn) : repository.findBooksByTitle(title));
+    }
+
+    /**
+     * Serves GET /search?q=...&amp;limit=...
+     * @param exchange The request.
+     * @return The matching books, up to the limit.
+     * @throws Exception If there is no query.
+     */
+    private Object search(HttpExchange exchange) throws Exception {
+        Map<String, String> query = queryOf(exchange);
+        String text = query.getOrDefault("q", "");
+        if (text.isBlank()) throw new HttpError(400, "Give a q parameter");
+        int limit = DEFAULT_SEARCH_LIMIT;
+        if (query.containsKey("limit")) {
+            try {
+                limit = Math.max(1, Math.min(MAX_SEARCH_LIMIT, Integer.parseInt(query.get("limit"))));
+            } catch (NumberFormatException e) {
+                throw new HttpError(400, "limit must be a number");
+            }
+        }
+        List<Book> found = repository.searchBooks(text);
+        return views(found.subList(0, Math.min(limit, found.size())));
+    }
+
+    /**
+     * Serves GET /users/{id}.
+     * @param exchange The request.
+     * @return The user and their loans.
+     * @throws Exception If there is no such user.
+     */
+    private Object lookupUser(HttpExchange exchange) throws Exception {
+        String userId = URLDecoder.decode(exchange.getRequestURI().getRawPath().substring("/users/".length()), StandardCharsets.UTF_8);
+        User user = repository.findUserById(userId).orElseThrow(() -> new HttpError(404, "No user with ID " + userId));
+        List<Book> loans = repository.findLoans(user.getUserId());
+        return repository.atomically(isbnsOf(loans), List.of(user.getUserId()),
+                () -> new UserView(user.getUserId(), user.getName(), copies(loans)));
+    }
+
+    /**
+     * Serves POST /checkout.
+     * @param exchange The request, with a userId and the items to check out.
+     * @return The outcome of each item.
+     * @throws Exception If the body is malformed, the user is unknown or the journal could not be written.
+     */
+    private Object checkOut(HttpExchange exchange) throws Exception {
+        JsonNode body = bodyOf(exchange);
+        String userId = body.path("userId").asText("");
+        List<String> items = itemsOf(body);
+        User user = circulation.findUser(userId).orElseThrow(() -> new HttpError(404, "No user with ID or name " + userId));
+        return resultViews(circulation.checkOutAll(user, items));
+    }
+
+    /**
+     * Serves POST /checkin.
+     * @param exchange The request, with the items to check in.
+     * @return The outcome of each item.
+     * @throws Exception If the body is malformed or the journal could not be written.
+     */
+    private Object checkIn(HttpExchange exchange) throws Exception {
+        List<String> items = itemsOf(bodyOf(exchange));
+        return resultViews(circulation.checkInAll(items));
+    }
+
+    /**
+     * Registers a route that answers one method with JSON.
+     *
+     * @param path    The path prefix.
+     * @param method  The HTTP method it answers.
+     * @param handler The handler.
+     */
+    private void route(String path, String method, Route handler) {
+        server.createContext(path, exchange -> {
+            long start = System.nanoTime();
+            int status = 200;
+            Object response;
+            try {
+                if (!exchange.getRequestMethod().equals(method)) throw new HttpError(405, method + " only");
+                response = handler.handle(exchange);
+            } catch (HttpError e) {
+                status = e.status;
+                response = Map.of("error", e.getMessage());
+            } catch (Exception e) {
+                e.printStackTrace();
+                status = 500;
+                response = Map.of("error", String.valueOf(e.getMessage()));
+            }
+            Metric.SERVER_REQUEST.record(start, send(exchange, status, response));
+        });
+    }
+
+    /**
+     * Writes a JSON response and closes the exchange.
+     *
+     * @param exchange The request.
+     * @param status   The HTTP status.
+     * @param response The object to send as JSON.
+     * @return The size of the response body.
+     * @throws IOException If the client has gone.
+     */
+    private static long send(HttpExchange exchange, int status, Object response) throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(response);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, json.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(json);
+        }
+        return json.length;
+    }
+
+    /**
+     * Copies books for sending, holding their locks so each copy is consistent.
+     * @param books The books.
+     * @return The copies, in the same order.
+     * @throws IOException Never; declared by the locking.
+     */
+    private List<BookView> views(List<Book> books) throws IOException {
+        return repository.atomically(isbnsOf(books), List.of(), () -> copies(books));
+    }
+
+    /**
+     * Copies circulation results for sending, holding their books' locks.
+     * @param results The results.
+     * @return The copies, in the same order.
+     * @throws IOException Never; declared by the locking.
+     */
+    private List<ResultView> resultViews(List<CirculationService.Result> results) throws IOException {
+        List<String> isbns = new ArrayList<>(results.size());
+        for (CirculationService.Result result : results) {
+            if (result.book() != null) isbns.add(result.book().getIsbn());
+        }
+        return repository.atomically(isbns, List.of(), () -> {
+            List<ResultView> views = new ArrayList<>(results.size());
+            for (CirculationService.Result result : results) views.add(ResultView.of(result));
+            return views;
+        });
+    }
+
+    /**
+     * Copies books. The caller holds their locks.
+     * @param books The books.
+     * @return The copies, in the same order.
+     */
+    private static List<BookView> copies(List<Book> books) {
+        List<BookView> views = new ArrayList<>(books.size());
+        for (Book book : books) views.add(BookView.of(book));
+        return views;
+    }
+
+    /**
+     * Gets the ISBNs of some books, to lock them.
+     * @param books The books.
+     * @return Their ISBNs.
+     */
+    private static List<String> isbnsOf(List<Book> books) {
+        List<String> isbns = new ArrayList<>(books.size());
+        for (Book book : books) isbns.add(book.getIsbn());
+        return isbns;
+    }
+
+    /**
+     * Decodes a request's query string.
+     * @param exchange The request.
+     * @return The parameters by name; the first value wins.
+     */
+    private static Map<String, String> queryOf(HttpExchange exchange) {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) return query;
+        for (String pair : raw.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            query.putIfAbsent(name, value);
+        }
+        return query;
+    }
+
+    /**
+     * Parses a request's JSON body.
+     * @param exchange The request.
+     * @return The body as a JSON tree.
+     * @throws HttpError If the body is not a JSON object.
+     */
+    private static JsonNode bodyOf(HttpExchange exchange) throws HttpError {
+        try (InputStream in = exchange.getRequestBody()) {
+            JsonNode body = objectMapper.readTree(in);
+            if (body == null || !body.isObject()) throw new HttpError(400, "The body must be a JSON object");
+            return body;
+        } catch (IOException e) {
+            throw new HttpError(400, "The body is not valid JSON");
+        }
+    }
+
+    /**
+     * Gets the "items" array from a request body.
+     * @param body The request body.
+     * @return The item IDs or titles, in order.
+     * @throws HttpError If there is no non-empty array of strings.
+     */
+    private static List<String> itemsOf(JsonNode body) throws HttpError {
+        JsonNode items = body.path("items");
+        if (!items.isArray() || items.isEmpty()) throw new HttpError(400, "items must be a non-empty array");
+        List<String> inputs = new ArrayList<>(items.size());
+        for (JsonNode item : items) {
+            if (!item.isTextual() || item.asText().isBlank()) throw new HttpError(400, "Each item must be an ID or title");
+            inputs.add(item.asText().trim());
+        }
+        return inputs;
+    }
+
+    /**
+     * Runs the server until the process is stopped.
+     * @param args An optional port number, then an optional address to listen on instead of loopback.
+     */
+    public static void main(String[] args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        try {
+            InetAddress address = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+            CirculationServer server = new CirculationServer(address, port);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            server.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
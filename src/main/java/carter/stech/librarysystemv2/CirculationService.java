@@ -0,0 +1,360 @@
+package carter.stech.librarysystemv2;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The circulation rules, independent of any window: finding patrons and books from what
+ * the desk typed or scanned, checking books out and in, and journaling the result.
+ * <p>
+ * Each batch is one transaction. The books are picked without locking, then the batch
+ * locks those books and the users involved (see {@link LibraryRepository#atomically}),
+ * checks that each book is still in the state it was picked in, applies every book and
+ * user change, and journals them all with one write before unlocking. So a cart of
+ * returns costs one journal append, two desks can never lend the same copy, and a book
+ * and its borrower's record never disagree. Items that another desk changed between
+ * being picked and being locked are picked again.
+ * <p>
+ * The methods may be called from any thread. The windows call them on the JavaFX
+ * application thread, since their tables display these records.
+ */
+public class CirculationService {
+    public static final int CHECKOUT_LIMIT = 10;  //Checkout limit can be adjusted here
+    public static final int LOAN_WEEKS = 2;       //Default Checkout period can be changed here
+    private static final int MAX_ATTEMPTS = 3;    //Rounds for items changed by another desk while being picked
+    private static final int MAX_SUGGESTIONS = 3; //Close titles offered when an item names no book
+
+    private final LibraryRepository repository;
+    private final LongAdder conflicts = new LongAdder();
+
+    /**
+     * The outcome of checking out or checking in one item.
+     *
+     * @param input          The ID or title that was entered or scanned.
+     * @param book           The book it resolved to, or null if none was found.
+     * @param success        Whether the transaction was applied.
+     * @param message        What happened, for the desk.
+     * @param lastBorrowedBy For a check-in, who had the book; otherwise null.
+     * @param lastDueDate    For a check-in, when it was due; otherwise null.
+     */
+    public record Result(String input, Book book, boolean success, String message,
+                         String lastBorrowedBy, LocalDate lastDueDate) {
+        /**
+         * Creates the outcome of an item that could not be processed.
+         *
+         * @param input   The ID or title that was entered or scanned.
+         * @param book    The book it resolved to, or null.
+         * @param message Why it failed.
+         * @return The result.
+         */
+        static Result failed(String input, Book book, String message) {
+            return new Result(input, book, false, message, null, null);
+        }
+    }
+
+    /**
+     * Creates a service over a repository.
+     * @param repository The repository whose books and users are circulated.
+     */
+    public CirculationService(LibraryRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Gets how many items this service picked that another desk changed before they could
+     * be locked. Each was picked again, or reported as failed after the last attempt.
+     * @return The number of conflicts so far.
+     */
+    public long conflictCount() {
+        return conflicts.sum();
+    }
+
+    /**
+     * Finds a patron by ID, or failing that by name.
+     * @param input The ID or name entered.
+     * @return The user, if found.
+     */
+    public Optional<User> findUser(String input) {
+        LibraryEvents.FindUser event = new LibraryEvents.FindUser();
+        event.begin();
+        Optional<User> user = repository.findUserById(input);
+        if (user.isEmpty()) user = repository.findUserByName(input);
+        if (event.shouldCommit()) {
+            event.input = input;
+            event.found = user.isPresent();
+            event.commit();
+        }
+        return user;
+    }
+
+    /**
+     * Checks out one book and journals it.
+     *
+     * @param user  The borrower.
+     * @param input The book's ID or title.
+     * @return The outcome.
+     * @throws IOException If the change was applied but could not be journaled.
+     */
+    public Result checkOut(User user, String input) throws IOException {
+        return checkOutAll(user, List.of(input)).get(0);
+    }
+
+    /**
+     * Checks out several books to one borrower, then journals them all with one write.
+     * Each item succeeds or fails on its own; failures are reported, not thrown.
+     *
+     * @param user   The borrower.
+     * @param inputs The books' IDs or titles, in scan order.
+     * @return The outcome of each item, in the same order.
+     * @throws IOException If the changes were applied but could not be journaled.
+     */
+    public List<Result> checkOutAll(User user, List<String> inputs) throws IOException {
+        long start = System.nanoTime();
+        LibraryEvents.Checkout event = new LibraryEvents.Checkout();
+        event.begin();
+        Result[] results = new Result[inputs.size()];
+        LocalDate dueDate = LocalDate.now().plusWeeks(LOAN_WEEKS);
+        List<Integer> pending = indexesOf(inputs);
+        int attempt = 0;
+        for (; attempt < MAX_ATTEMPTS && !pending.isEmpty(); attempt++) {
+            // Pick a copy for each item; the picks are checked again once locked
+            Map<Integer, Book> picked = new LinkedHashMap<>();
+            Set<Book> taken = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<String> isbns = new ArrayList<>();
+            for (int i : pending) {
+                List<Book> copies = copiesOf(inputs.get(i));
+                if (copies.isEmpty()) {
+                    results[i] = Result.failed(inputs.get(i), null, notFound(inputs.get(i)));
+                    continue;
+                }
+                Book book = findAvailable(copies, taken);
+                if (book == null) {
+                    results[i] = Result.failed(inputs.get(i), null, "Not available for checkout");
+                    continue;
+                }
+                picked.put(i, book);
+                taken.add(book);
+                isbns.add(book.getIsbn());
+            }
+
+            pending = repository.atomically(isbns, List.of(user.getUserId()), () -> {
+                List<Integer> changed = new ArrayList<>();
+                List<CirculationJournal.Entry> entries = new ArrayList<>();
+                for (Map.Entry<Integer, Book> item : picked.entrySet()) {
+                    int i = item.getKey();
+                    Book book = item.getValue();
+                    if (!book.isAvailable()) {
+                        changed.add(i); // Lent by another desk since it was picked
+                        continue;
+                    }
+                    if (user.getCheckedOutBooks().size() >= CHECKOUT_LIMIT) {
+                        results[i] = Result.failed(inputs.get(i), null, "Checkout limit of " + CHECKOUT_LIMIT + " reached");
+                        continue;
+                    }
+                    book.setAvailable(false);
+                    book.setBorrowedBy(user.getUserId()); // The repository adds the ISBN to the user's record
+                    book.setDueDate(dueDate);
+                    entries.add(CirculationJournal.Entry.checkout(book.getIsbn(), user.getUserId(), dueDate));
+                    results[i] = new Result(inputs.get(i), book, true, "Checked out, due " + dueDate, null, null);
+                }
+                repository.recordTransactions(entries);
+                return changed;
+            });
+            conflicts.add(pending.size());
+        }
+        for (int i : pending) results[i] = Result.failed(inputs.get(i), null, "Not available for checkout");
+        Metric.CHECKOUT.record(start);
+        if (event.shouldCommit()) {
+            event.userId = user.getUserId();
+            event.items = inputs.size();
+            event.succeeded = countSucceeded(results);
+            event.attempts = attempt;
+            event.commit();
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Checks in one book and journals it.
+     *
+     * @param input The book's ID or title.
+     * @return The outcome.
+     * @throws IOException If the change was applied but could not be journaled.
+     */
+    public Result checkIn(String input) throws IOException {
+        return checkInAll(List.of(input)).get(0);
+    }
+
+    /**
+     * Checks in several books, then journals them all with one write.
+     * Each item succeeds or fails on its own; failures are reported, not thrown.
+     *
+     * @param inputs The books' IDs or titles, in scan order.
+     * @return The outcome of each item, in the same order.
+     * @throws IOException If the changes were applied but could not be journaled.
+     */
+    public List<Result> checkInAll(List<String> inputs) throws IOException {
+        long start = System.nanoTime();
+        LibraryEvents.CheckIn event = new LibraryEvents.CheckIn();
+        event.begin();
+        Result[] results = new Result[inputs.size()];
+        List<Integer> pending = indexesOf(inputs);
+        int attempt = 0;
+        for (; attempt < MAX_ATTEMPTS && !pending.isEmpty(); attempt++) {
+            // Pick each book and note its borrower, whose record changes too; both are checked once locked
+            Map<Integer, Book> picked = new LinkedHashMap<>();
+            Map<Integer, String> borrowers = new HashMap<>();
+            List<String> isbns = new ArrayList<>();
+            for (int i : pending) {
+                Optional<Book> found = findForCheckIn(copiesOf(inputs.get(i)));
+                if (found.isEmpty()) {
+                    results[i] = Result.failed(inputs.get(i), null, notFound(inputs.get(i)));
+                    continue;
+                }
+                picked.put(i, found.get());
+                borrowers.put(i, found.get().getBorrowedBy());
+                isbns.add(found.get().getIsbn());
+            }
+
+            pending = repository.atomically(isbns, borrowers.values(), () -> {
+                List<Integer> changed = new ArrayList<>();
+                List<CirculationJournal.Entry> entries = new ArrayList<>();
+                for (Map.Entry<Integer, Book> item : picked.entrySet()) {
+                    int i = item.getKey();
+                    Book book = item.getValue();
+                    String lastBorrowedBy = borrowers.get(i);
+                    if (!Objects.equals(book.getBorrowedBy(), lastBorrowedBy)) {
+                        changed.add(i); // Checked in or out by another desk since it was picked
+                        continue;
+                    }
+                    LocalDate lastDueDate = book.getDueDate();
+                    book.setAvailable(true); // Also clears the borrower and due date
+                    entries.add(CirculationJournal.Entry.checkIn(book.getIsbn(), lastBorrowedBy));
+                    String message = lastBorrowedBy != null ? "Checked in" : "Checked in (was not checked out)";
+                    results[i] = new Result(inputs.get(i), book, true, message, lastBorrowedBy, lastDueDate);
+                }
+                repository.recordTransactions(entries);
+                return changed;
+            });
+            conflicts.add(pending.size());
+        }
+        for (int i : pending) results[i] = Result.failed(inputs.get(i), null, "Changed by another desk, please try again");
+        Metric.CHECK_IN.record(start);
+        if (event.shouldCommit()) {
+            event.items = inputs.size();
+            event.succeeded = countSucceeded(results);
+            event.attempts = attempt;
+            event.commit();
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Counts the items of a transaction that succeeded.
+     * @param results The outcome of each item.
+     * @return How many succeeded.
+     */
+    private static int countSucceeded(Result[] results) {
+        int succeeded = 0;
+        for (Result result : results) {
+            if (result.success()) succeeded++;
+        }
+        return succeeded;
+    }
+
+    /**
+     * Gets the titles closest to an item that names no book, for the desk to choose from.
+     * A transaction never acts on a close title by itself; it has to be entered exactly.
+     *
+     * @param input The book's ID or title, as entered.
+     * @return Up to a few titles within a typo or two, closest first; empty if there are none.
+     */
+    public List<String> suggestTitles(String input) {
+        List<String> titles = new ArrayList<>();
+        for (FuzzyIndex.Match<Book> match : repository.findTitlesLike(input, MAX_SUGGESTIONS)) {
+            titles.add(match.items().get(0).getTitle());
+        }
+        return titles;
+    }
+
+    /**
+     * Checks whether an item names a book exactly, by ID or by title.
+     * @param input The book's ID or title.
+     * @return True if at least one copy has that ID or title.
+     */
+    public boolean namesBook(String input) {
+        return !copiesOf(input).isEmpty();
+    }
+
+    /**
+     * Finds the copies of the book an item names: by ID, then by exact title (ignoring case).
+     *
+     * @param input The book's ID or title.
+     * @return The copies; empty if none was found.
+     */
+    private List<Book> copiesOf(String input) {
+        List<Book> byIsbn = repository.findBooksByIsbn(input);
+        if (!byIsbn.isEmpty()) return byIsbn;
+        return repository.findBooksByTitle(input);
+    }
+
+    /**
+     * Describes an item that names no book, suggesting the closest titles if there are any.
+     * @param input The book's ID or title.
+     * @return The message for the desk.
+     */
+    private String notFound(String input) {
+        List<String> close = suggestTitles(input);
+        if (close.isEmpty()) return "No book found with that ID or Title";
+        List<String> titles = new ArrayList<>();
+        for (String title : close) titles.add("\"" + title + "\"");
+        return "No book found with that ID or Title; did you mean " + String.join(" or ", titles) + "?";
+    }
+
+    /**
+     * Finds a copy that is on the shelf.
+     *
+     * @param copies The copies of the book.
+     * @param taken  Copies already picked for other items in the batch.
+     * @return The book, or null if no copy is available.
+     */
+    private static Book findAvailable(List<Book> copies, Set<Book> taken) {
+        for (Book book : copies) {
+            if (book.isAvailable() && !taken.contains(book)) return book;
+        }
+        return null;
+    }
+
+    /**
+     * Lists the positions of a batch's items.
+     * @param inputs The items.
+     * @return 0 to size - 1.
+     */
+    private static List<Integer> indexesOf(List<String> inputs) {
+        List<Integer> indexes = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) indexes.add(i);
+        return indexes;
+    }
+
+    /**
+     * Picks the copy to check in, preferring one that is out.
+     * @param copies The copies of the book.
+     * @return The book, if there are any copies.
+     */
+    private static Optional<Book> findForCheckIn(List<Book> copies) {
+        return copies.stream().filter(book -> !book.isAvailable()).findFirst()
+                .or(() -> copies.stream().findFirst());
+    }
+}
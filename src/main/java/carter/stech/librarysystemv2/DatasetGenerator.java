@@ -0,0 +1,510 @@
+package carter.stech.librarysystemv2;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Generates synthetic catalogs and patron bases for scale testing. Records are generated
+ * one at a time as they are written, so tens of millions of books take no more memory than
+ * a few thousand: the author and word tables, and nothing per record.
+ * <p>
+ * The data is shaped like a real library's:
+ * <ul>
+ *     <li>authors are Zipf-distributed, so a few write many books and most write one or two;</li>
+ *     <li>titles are mostly two to five words, drawn from a vocabulary with common and rare words;</li>
+ *     <li>a share of the books is on loan, spread over a share of the patrons, and a share of
+ *     those loans is overdue.</li>
+ * </ul>
+ * Loans agree between the two files, with no patron over the checkout limit. To manage that
+ * without remembering who borrowed what, loan number {@code j} goes to the book and patron
+ * that two fixed shuffles put at position {@code j}, and both shuffles can be run backwards;
+ * each file can then work out the other side of a loan on its own.
+ * <p>
+ * Usage: {@code java -jar LibrarySystemV2.jar --generate [options]}, or this class directly.
+ * Run with {@code --help} for the options. The same options and seed always give the same data.
+ */
+public class DatasetGenerator {
+    private static final String[] FIRST_NAMES = {
+            "Ada", "Alan", "Amara", "Ana", "Ben", "Brandon", "Carmen", "Chen", "Clara", "Daniel",
+            "Dana", "Diego", "Elena", "Emil", "Esther", "Farah", "Felix", "Grace", "Hana", "Hiro",
+            "Ines", "Ivan", "Jamal", "Joan", "Jorn", "Julia", "Kofi", "Lars", "Lena", "Li",
+            "Lucia", "Malik", "Maria", "Mateo", "Mei", "Nadia", "Nora", "Olga", "Omar", "Pablo",
+            "Priya", "Quinn", "Rafael", "Rosa", "Ruth", "Samir", "Sara", "Sven", "Tariq", "Tess",
+            "Tomas", "Uma", "Victor", "Wen", "Yara", "Yusuf", "Zara", "Zoe", "Kai", "Leo"
+    };
+    private static final String[] LAST_NAMES = {
+            "Abbott", "Adeyemi", "Alvarez", "Andersen", "Baker", "Bauer", "Bianchi", "Brooks", "Carter", "Castro",
+            "Chen", "Cohen", "Costa", "Dubois", "Dvorak", "Edwards", "Eriksson", "Fischer", "Flores", "Garcia",
+            "Gupta", "Hall", "Hansen", "Haddad", "Ibrahim", "Ito", "Jansen", "Jones", "Kane", "Kim",
+            "Kowalski", "Kumar", "Larsen", "Lee", "Lopez", "Martin", "Meyer", "Moreau", "Murphy", "Nakamura",
+            "Nguyen", "Novak", "Okafor", "Olsen", "Park", "Patel", "Perez", "Petrov", "Quinn", "Reyes",
+            "Rossi", "Sanderson", "Sato", "Schmidt", "Shorn", "Silva", "Singh", "Smith", "Sokolov", "Suzuki",
+            "Tanaka", "Taylor", "Torres", "Varga", "Wagner", "Walker", "Wang", "Weber", "Wilson", "Wright",
+            "Yamamoto", "Young", "Zhang", "Zimmermann", "Ortiz", "Mendes", "Horvat", "Lindqvist", "Oyelaran", "Brennan"
+    };
+    // Roughly most common first, since words are drawn with Zipf skew as well
+    private static final String[] WORDS = {
+            "the", "of", "and", "a", "in", "night", "house", "war", "love", "last",
+            "book", "world", "life", "time", "city", "king", "river", "dark", "light", "secret",
+            "history", "first", "girl", "man", "story", "dead", "empire", "garden", "shadow", "stone",
+            "winter", "summer", "silver", "golden", "fire", "water", "road", "sea", "star", "moon",
+            "queen", "iron", "glass", "song", "storm", "heart", "mountain", "forest", "island", "bridge",
+            "art", "guide", "science", "cooking", "cheese", "corn", "practical", "complete", "little", "great",
+            "lost", "hidden", "final", "ancient", "modern", "wild", "quiet", "broken", "burning", "distant",
+            "children", "daughter", "brother", "mother", "father", "stranger", "witness", "thief", "keeper", "hunter",
+            "letters", "memory", "promise", "journey", "kingdom", "crown", "harbor", "lantern", "orchard", "tide",
+            "north", "south", "east", "west", "midnight", "morning", "autumn", "spring", "ash", "salt",
+            "introduction", "principles", "essays", "poems", "tales", "chronicles", "handbook", "atlas", "mystery", "murder",
+            "ascension", "ages", "mist", "well", "hero", "alloy", "law", "bands", "mourning", "voyage"
+    };
+    private static final int LOANS_PER_BORROWER = 3;  // Typical loans per patron with any; the rest have none
+    private static final int MAX_OVERDUE_DAYS = 90;
+    private static final int MAX_TITLE_WORDS = 12;
+    private static final int MAX_AUTHORS = 2_000_000; // Keeps the author table to 16 MB
+    private static final long ISBN_SPACE = 1_000_000_000L;
+    private static final long ISBN_MULTIPLIER = 387_420_489L; // 3^18: coprime to the space, so ISBNs are unique
+    private static final int PROGRESS_INTERVAL = 1_000_000;
+
+    /**
+     * The generator's settings.
+     *
+     * @param books        The number of books.
+     * @param users        The number of patrons.
+     * @param authors      The number of distinct authors.
+     * @param authorSkew   The Zipf exponent of books per author; 0 spreads books evenly.
+     * @param titleWords   The mean number of words in a title.
+     * @param loanRatio    The share of books on loan.
+     * @param overdueRatio The share of loans that are overdue.
+     * @param seed         The random seed.
+     */
+    public record Settings(int books, int users, int authors, double authorSkew, double titleWords,
+                           double loanRatio, double overdueRatio, long seed) {
+        /**
+         * Gets the default settings for a catalog size: a patron per five books and an author
+         * per eight, with a fifth of the books on loan and a tenth of loans overdue.
+         * @param books The number of books.
+         * @return The settings.
+         */
+        public static Settings forBooks(int books) {
+            return new Settings(books, Math.max(1, books / 5), Math.max(1, Math.min(MAX_AUTHORS, books / 8)),
+                    1.0, 3.0, 0.2, 0.1, 42);
+        }
+    }
+
+    private final Settings settings;
+    private final LocalDate today = LocalDate.now();
+    private final double[] authorWeights; // Cumulative, for drawing author ranks
+    private final double[] wordWeights;   // Cumulative, for drawing title words
+    private final int loans;
+    private final int borrowers;
+    private final Shuffle bookOrder;      // Loan number <-> book position
+    private final Shuffle userOrder;      // Borrower number <-> patron position
+
+    /**
+     * Sets up a generator.
+     * @param settings The settings; loans beyond what the patrons may borrow are dropped.
+     */
+    public DatasetGenerator(Settings settings) {
+        this.settings = settings;
+        this.authorWeights = zipf(settings.authors(), settings.authorSkew());
+        this.wordWeights = zipf(WORDS.length, 1.0);
+        long wanted = Math.round(settings.books() * settings.loanRatio());
+        this.loans = (int) Math.min(wanted, (long) settings.users() * CirculationService.CHECKOUT_LIMIT);
+        // Enough borrowers that none is over the limit; ceil(loans / borrowers) loans each at most
+        int needed = (loans + LOANS_PER_BORROWER - 1) / LOANS_PER_BORROWER;
+        this.borrowers = Math.min(settings.users(), needed);
+        Random random = new Random(settings.seed());
+        this.bookOrder = Shuffle.of(settings.books(), random);
+        this.userOrder = Shuffle.of(settings.users(), random);
+    }
+
+    /**
+     * Generates data files from the command line.
+     * @param args The options; see {@link #usage()}.
+     */
+    public static void main(String[] args) {
+        Path directory = Path.of("");
+        String format = "json";
+        boolean force = false;
+        int books = 100_000;
+        Integer users = null;
+        Integer authors = null;
+        Double authorSkew = null, titleWords = null, loanRatio = null, overdueRatio = null;
+        Long seed = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (option.equals("--help")) {
+                    System.out.println(usage());
+                    return;
+                }
+                if (option.equals("--force")) {
+                    force = true;
+                    continue;
+                }
+                if (i + 1 == args.length) throw new IllegalArgumentException(option + " needs a value");
+                String value = args[++i];
+                switch (option) {
+                    case "--books" -> books = Integer.parseInt(value);
+                    case "--users" -> users = Integer.parseInt(value);
+                    case "--authors" -> authors = Integer.parseInt(value);
+                    case "--author-skew" -> authorSkew = Double.parseDouble(value);
+                    case "--title-words" -> titleWords = Double.parseDouble(value);
+                    case "--loan-ratio" -> loanRatio = Double.parseDouble(value);
+                    case "--overdue-ratio" -> overdueRatio = Double.parseDouble(value);
+                    case "--seed" -> seed = Long.parseLong(value);
+                    case "--out" -> directory = Path.of(value);
+                    case "--format" -> format = value;
+                    default -> throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+            Settings defaults = Settings.forBooks(books);
+            Settings settings = new Settings(books,
+                    users != null ? users : defaults.users(),
+                    authors != null ? authors : defaults.authors(),
+                    authorSkew != null ? authorSkew : defaults.authorSkew(),
+                    titleWords != null ? titleWords : defaults.titleWords(),
+                    loanRatio != null ? loanRatio : defaults.loanRatio(),
+                    overdueRatio != null ? overdueRatio : defaults.overdueRatio(),
+                    seed != null ? seed : defaults.seed());
+            check(settings);
+            if (!format.equals("json") && !format.equals("bin")) {
+                throw new IllegalArgumentException("--format must be json or bin");
+            }
+
+            Path booksFile = directory.resolve("books." + format);
+            Path usersFile = directory.resolve("users." + format);
+            if (!force && (Files.exists(booksFile) || Files.exists(usersFile))) {
+                System.err.println(booksFile + " or " + usersFile + " already exists; use --force to replace them.");
+                System.exit(2);
+            }
+            Files.createDirectories(directory.toAbsolutePath());
+            new DatasetGenerator(settings).write(booksFile, usersFile, format.equals("bin"));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(usage());
+            System.exit(2);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Gets the command-line help.
+     * @return The usage text.
+     */
+    private static String usage() {
+        return """
+                Usage: DatasetGenerator [options]
+                  --books N            books to generate (default 100000)
+                  --users N            patrons (default: one per 5 books)
+                  --authors N          distinct authors (default: one per 8 books, at most 2000000)
+                  --author-skew S      Zipf exponent of books per author (default 1.0; 0 = even)
+                  --title-words W      mean words per title (default 3.0)
+                  --loan-ratio R       share of books on loan (default 0.2)
+                  --overdue-ratio R    share of loans that are overdue (default 0.1)
+                  --seed N             random seed (default 42)
+                  --out DIR            where to write books and users (default: current folder)
+                  --format json|bin    JSON files or binary snapshots (default json)
+                  --force              replace existing files""";
+    }
+
+    /**
+     * Rejects settings that cannot be generated.
+     * @param settings The settings.
+     * @throws IllegalArgumentException If a setting is out of range.
+     */
+    private static void check(Settings settings) {
+        if (settings.books() < 0 || settings.books() > ISBN_SPACE) throw new IllegalArgumentException("--books must be 0 to " + ISBN_SPACE);
+        if (settings.users() < 1) throw new IllegalArgumentException("--users must be at least 1");
+        if (settings.authors() < 1 || settings.authors() > MAX_AUTHORS) throw new IllegalArgumentException("--authors must be 1 to " + MAX_AUTHORS);
+        if (settings.authorSkew() < 0) throw new IllegalArgumentException("--author-skew must not be negative");
+        if (settings.titleWords() < 1 || settings.titleWords() > MAX_TITLE_WORDS) throw new IllegalArgumentException("--title-words must be 1 to " + MAX_TITLE_WORDS);
+        if (settings.loanRatio() < 0 || settings.loanRatio() > 1) throw new IllegalArgumentException("--loan-ratio must be 0 to 1");
+        if (settings.overdueRatio() < 0 || settings.overdueRatio() > 1) throw new IllegalArgumentException("--overdue-ratio must be 0 to 1");
+    }
+
+    /**
+     * Writes the books and then the users, reporting progress.
+     *
+     * @param booksFile Where to write the books.
+     * @param usersFile Where to write the users.
+     * @param binary    Whether to write binary snapshots instead of JSON.
+     * @throws IOException If a file cannot be written.
+     */
+    public void write(Path booksFile, Path usersFile, boolean binary) throws IOException {
+        if (loans < Math.round(settings.books() * settings.loanRatio())) {
+            System.out.println("Only " + loans + " books can be on loan to " + settings.users()
+                    + " patrons with a limit of " + CirculationService.CHECKOUT_LIMIT + " each.");
+        }
+        long start = System.nanoTime();
+        Collection<Book> books = generated(settings.books(), "books", this::book);
+        Collection<User> users = generated(settings.users(), "patrons", this::user);
+        if (binary) {
+            BinarySnapshot.writeBooks(booksFile, books);
+            BinarySnapshot.writeUsers(usersFile, users);
+        } else {
+            JsonRecords.write(booksFile, books);
+            JsonRecords.write(usersFile, users);
+        }
+        System.out.printf("Wrote %d books (%d on loan to %d patrons) and %d patrons in %.1f s%n",
+                settings.books(), loans, borrowers, settings.users(), (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Wraps a record source as a collection that generates each record as it is iterated.
+     * Iterating it again generates the same records, since each one depends only on its position.
+     *
+     * @param size   The number of records.
+     * @param label  What to call them in progress messages.
+     * @param source Generates the record at a position.
+     * @param <T>    The record type.
+     * @return The collection.
+     */
+    private <T> Collection<T> generated(int size, String label, IntFunction<T> source) {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<T> iterator() {
+                return new Iterator<>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public T next() {
+                        if (next >= size) throw new NoSuchElementException();
+                        if (next > 0 && next % PROGRESS_INTERVAL == 0) {
+                            System.out.println("  " + next + " of " + size + " " + label);
+                        }
+                        return source.apply(next++);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Generates the book at a position.
+     * @param index The book's position.
+     * @return The book.
+     */
+    Book book(int index) {
+        Random random = recordRandom(index, 0x5EED_B00CL);
+        String author = authorName(draw(authorWeights, random));
+        String title = title(random);
+        long loan = bookOrder.apply(index);
+        if (loan >= loans) return new Book(title, author, isbn(index), true, null, null);
+
+        String borrower = userId((int) userOrder.apply(loan % borrowers));
+        LocalDate dueDate = random.nextDouble() < settings.overdueRatio()
+                ? today.minusDays(1 + random.nextInt(MAX_OVERDUE_DAYS))
+                : today.plusDays(random.nextInt(CirculationService.LOAN_WEEKS * 7 + 1));
+        return new Book(title, author, isbn(index), false, borrower, dueDate);
+    }
+
+    /**
+     * Generates the patron at a position, with the books lent to them.
+     * @param index The patron's position.
+     * @return The patron.
+     */
+    User user(int index) {
+        Random random = recordRandom(index, 0x5EED_05E5L);
+        String name = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+        List<String> checkedOut = new ArrayList<>();
+        long borrower = userOrder.invert(index);
+        if (borrower < borrowers) {
+            // Loans borrower, borrower + borrowers, ... are this patron's
+            for (long loan = borrower; loan < loans; loan += borrowers) {
+                checkedOut.add(isbn((int) bookOrder.invert(loan)));
+            }
+        }
+        return new User(userId(index), name, checkedOut);
+    }
+
+    /**
+     * Makes the random source for one record, so records can be generated in any order.
+     *
+     * @param index The record's position.
+     * @param salt  Separates books from users.
+     * @return The random source.
+     */
+    private Random recordRandom(int index, long salt) {
+        long z = settings.seed() ^ salt ^ (index * 0x9E3779B97F4A7C15L);
+        // SplitMix64 finalizer, so neighbouring positions get unrelated seeds
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return new Random(z ^ (z >>> 31));
+    }
+
+    /**
+     * Generates a title: one word, plus a Poisson-distributed number more, so the mean
+     * matches the setting and long titles are rare.
+     *
+     * @param random The record's random source.
+     * @return The title, in title case.
+     */
+    private String title(Random random) {
+        int words = Math.min(MAX_TITLE_WORDS, 1 + poisson(settings.titleWords() - 1, random));
+        StringBuilder title = new StringBuilder();
+        String previous = null;
+        for (int i = 0; i < words; i++) {
+            String word = WORDS[draw(wordWeights, random)];
+            while (word.equals(previous)) word = WORDS[draw(wordWeights, random)]; // No "The The"
+            previous = word;
+            if (i > 0) title.append(' ');
+            title.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+        }
+        return title.toString();
+    }
+
+    /**
+     * Draws from a Poisson distribution.
+     *
+     * @param mean   The mean.
+     * @param random The random source.
+     * @return The count.
+     */
+    private static int poisson(double mean, Random random) {
+        double limit = Math.exp(-mean);
+        int count = 0;
+        for (double product = random.nextDouble(); product > limit; product *= random.nextDouble()) count++;
+        return count;
+    }
+
+    /**
+     * Builds the cumulative weights of a Zipf distribution, where rank {@code k} has weight
+     * {@code 1 / k^skew}.
+     *
+     * @param size The number of ranks.
+     * @param skew The exponent.
+     * @return The cumulative weights, ending at 1.
+     */
+    static double[] zipf(int size, double skew) {
+        double[] weights = new double[size];
+        double total = 0;
+        for (int rank = 0; rank < size; rank++) {
+            total += 1 / Math.pow(rank + 1, skew);
+            weights[rank] = total;
+        }
+        for (int rank = 0; rank < size; rank++) weights[rank] /= total;
+        return weights;
+    }
+
+    /**
+     * Draws a rank from cumulative weights.
+     *
+     * @param weights The cumulative weights.
+     * @param random  The random source.
+     * @return The rank.
+     */
+    static int draw(double[] weights, Random random) {
+        int found = Arrays.binarySearch(weights, random.nextDouble());
+        return Math.min(weights.length - 1, found >= 0 ? found : -found - 1);
+    }
+
+    /**
+     * Names the author of a rank. The first few thousand names are distinct; after that
+     * they repeat with middle initials, and beyond those, as namesakes.
+     *
+     * @param rank The author's rank.
+     * @return The name.
+     */
+    private static String authorName(int rank) {
+        int first = rank % FIRST_NAMES.length;
+        int last = (rank / FIRST_NAMES.length) % LAST_NAMES.length;
+        int round = rank / (FIRST_NAMES.length * LAST_NAMES.length);
+        String middle = round == 0 ? " " : " " + (char) ('A' + (round - 1) % 26) + ". ";
+        return FIRST_NAMES[first] + middle + LAST_NAMES[last];
+    }
+
+    /**
+     * Gets the ISBN-13 of a book, in the catalog's {@code 978-} style. Positions are spread
+     * over the ISBN space so neighbouring books do not get neighbouring numbers.
+     *
+     * @param index The book's position.
+     * @return The ISBN, with a valid check digit.
+     */
+    static String isbn(int index) {
+        long body = (index * ISBN_MULTIPLIER + 123_456_789L) % ISBN_SPACE;
+        String digits = "978" + String.format("%09d", body);
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) sum += (digits.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+        return "978-" + digits.substring(3) + (10 - sum % 10) % 10;
+    }
+
+    /**
+     * Gets the ID of a patron.
+     * @param index The patron's position.
+     * @return The ID.
+     */
+    static String userId(int index) {
+        return "U" + (index + 1);
+    }
+
+    /**
+     * A fixed shuffle of the positions {@code 0..size-1}, as {@code x -> (a * x + c) mod size}
+     * with {@code a} coprime to the size, which can be run backwards with {@code a}'s inverse.
+     *
+     * @param size       The number of positions.
+     * @param multiplier {@code a}.
+     * @param offset     {@code c}.
+     * @param inverse    The inverse of {@code a} modulo the size.
+     */
+    private record Shuffle(long size, long multiplier, long offset, long inverse) {
+        /**
+         * Picks a random shuffle.
+         *
+         * @param size   The number of positions.
+         * @param random The random source.
+         * @return The shuffle.
+         */
+        static Shuffle of(int size, Random random) {
+            if (size <= 1) return new Shuffle(1, 1, 0, 1);
+            long multiplier;
+            do {
+                multiplier = 1 + random.nextInt(size - 1);
+            } while (BigInteger.valueOf(multiplier).gcd(BigInteger.valueOf(size)).intValue() != 1);
+            long inverse = BigInteger.valueOf(multiplier).modInverse(BigInteger.valueOf(size)).longValue();
+            return new Shuffle(size, multiplier, random.nextInt(size), inverse);
+        }
+
+        /**
+         * Shuffles a position.
+         * @param position The position.
+         * @return Where it goes.
+         */
+        long apply(long position) {
+            return (multiplier * position + offset) % size;
+        }
+
+        /**
+         * Finds the position that shuffles to a place.
+         * @param place The place.
+         * @return The position that goes there.
+         */
+        long invert(long place) {
+            return Math.floorMod(inverse * (place - offset), size);
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package carter.stech.librarysystemv2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A load test for the circulation desk. Many simulated clerks share one collection through
+ * {@link CirculationService}, with no windows open, each looping over a mix of patron
+ * lookups, checkouts, check-ins and book searches, pausing to think between them. Popular
+ * books and busy patrons come up more often than the rest, by a Zipf skew.
+ * <p>
+ * At the end it reports, per operation, the throughput and latency percentiles, how many
+ * succeeded, were turned away (a book already lent, a patron at the limit) or failed with an
+ * error, and how many items had to be retried because another desk changed them first.
+ * The collection is then audited with {@link LoanAudit}; the run exits with status 1 if it
+ * found any problem.
+ * <p>
+ * The collection is generated into a new temporary folder, or copied there from an existing
+ * one, so real data is never touched. Run with {@code --help} for the options.
+ */
+public class DeskLoadTest {
+    private static final int FIND_BY_NAME_PERCENT = 20; // The rest of the lookups are by ID
+    private static final int ERRORS_SHOWN = 5;
+    private static final List<String> DATA_FILES = List.of("books.json", "users.json", "books.bin", "users.bin",
+            "books.delta", "users.delta", "circulation.journal");
+
+    /**
+     * The operations a clerk does.
+     */
+    enum Operation {
+        FIND_USER("find"),
+        CHECKOUT("checkout"),
+        CHECK_IN("checkin"),
+        SEARCH("search");
+
+        private final String option;
+
+        /**
+         * Creates an operation.
+         * @param option Its name in {@code --mix}.
+         */
+        Operation(String option) {
+            this.option = option;
+        }
+    }
+
+    /**
+     * The outcome counts and latencies of one operation.
+     */
+    private static final class Tally {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+    }
+
+    private final LibraryRepository repository;
+    private final CirculationService circulation;
+    private final List<Book> books;
+    private final List<User> users;
+    private final double[] bookWeights;   // Cumulative Zipf weights over the books, most popular first
+    private final double[] userWeights;
+    private final Map<Operation, Integer> mix;
+    private final int mixTotal;
+    private final int maxBatch;
+    private final double thinkMillis;
+    private final Queue<String> lent = new ConcurrentLinkedQueue<>(); // ISBNs waiting to come back
+    private final Map<Operation, Tally> tallies = new EnumMap<>(Operation.class);
+    private final LongAdder loansMade = new LongAdder();
+    private final LongAdder loansEnded = new LongAdder();
+    private final AtomicInteger errorsShown = new AtomicInteger();
+    private volatile boolean measuring;
+    private long conflicts; // Items retried during the measured period
+
+    /**
+     * Sets up the clerks' shared state. Run on the application thread once the repository has loaded.
+     *
+     * @param repository  The repository.
+     * @param skew        The Zipf exponent for picking books and patrons; 0 picks evenly.
+     * @param mix         The relative weight of each operation.
+     * @param maxBatch    The most items scanned in one checkout or check-in.
+     * @param thinkMillis The mean pause between a clerk's operations.
+     */
+    private DeskLoadTest(LibraryRepository repository, double skew, Map<Operation, Integer> mix,
+                         int maxBatch, double thinkMillis) {
+        this.repository = repository;
+        this.circulation = new CirculationService(repository);
+        this.mix = mix;
+        this.mixTotal = mix.values().stream().mapToInt(Integer::intValue).sum();
+        this.maxBatch = maxBatch;
+        this.thinkMillis = thinkMillis;
+        for (Operation operation : Operation.values()) tallies.put(operation, new Tally());
+
+        // Shuffle first, so popularity is not tied to the order the files list things in
+        Random random = new Random(7);
+        books = new ArrayList<>(repository.getBooks());
+        users = new ArrayList<>(repository.getUsers());
+        Collections.shuffle(books, random);
+        Collections.shuffle(users, random);
+        bookWeights = DatasetGenerator.zipf(books.size(), skew);
+        userWeights = DatasetGenerator.zipf(users.size(), skew);
+
+        List<String> onLoan = new ArrayList<>();
+        for (Book book : books) {
+            if (!book.isAvailable()) onLoan.add(book.getIsbn());
+        }
+        lent.addAll(onLoan);
+    }
+
+    /**
+     * Runs the load test.
+     * @param args The options; see {@link #usage()}.
+     * @throws Exception If the data cannot be set up or the repository fails to load.
+     */
+    public static void main(String[] args) throws Exception {
+        int desks = 16;
+        int seconds = 30;
+        int warmup = 5;
+        double thinkMillis = 0;
+        double skew = 1.0;
+        int maxBatch = 3;
+        int generateBooks = 100_000;
+        Path from = null;
+        boolean keep = false;
+        Map<Operation, Integer> mix = parseMix("find=20,checkout=30,checkin=30,search=20");
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (option.equals("--help")) {
+                    System.out.println(usage());
+                    return;
+                }
+                if (option.equals("--keep")) {
+                    keep = true;
+                    continue;
+                }
+                if (i + 1 == args.length) throw new IllegalArgumentException(option + " needs a value");
+                String value = args[++i];
+                switch (option) {
+                    case "--desks" -> desks = Integer.parseInt(value);
+                    case "--seconds" -> seconds = Integer.parseInt(value);
+                    case "--warmup" -> warmup = Integer.parseInt(value);
+                    case "--think-ms" -> thinkMillis = Double.parseDouble(value);
+                    case "--skew" -> skew = Double.parseDouble(value);
+                    case "--mix" -> mix = parseMix(value);
+                    case "--batch" -> maxBatch = Integer.parseInt(value);
+                    case "--books" -> generateBooks = Integer.parseInt(value);
+                    case "--from" -> from = Path.of(value);
+                    default -> throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+            if (desks < 1 || seconds < 1 || warmup < 0 || maxBatch < 1 || thinkMillis < 0 || skew < 0 || generateBooks < 1) {
+                throw new IllegalArgumentException("Counts and times must be positive");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(usage());
+            System.exit(2);
+        }
+
+        // The repository reads library.dataDir once, so it must be set before it is first used
+        Path directory = Files.createTempDirectory("desk-load-");
+        if (from != null) {
+            for (String name : DATA_FILES) {
+                if (Files.exists(from.resolve(name))) Files.copy(from.resolve(name), directory.resolve(name), StandardCopyOption.COPY_ATTRIBUTES);
+            }
+            System.out.println("Copied the data in " + from + " to " + directory);
+        } else {
+            System.out.println("Generating " + generateBooks + " books in " + directory);
+            new DatasetGenerator(DatasetGenerator.Settings.forBooks(generateBooks))
+                    .write(directory.resolve("books.bin"), directory.resolve("users.bin"), true);
+        }
+        System.setProperty("library.dataDir", directory.toString());
+        System.setProperty("library.metricsInterval", "0");
+
+        ExecutorService applicationThread = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "library-application");
+            thread.setDaemon(true);
+            return thread;
+        });
+        LibraryRepository.useApplicationThread(applicationThread);
+        LibraryRepository repository = applicationThread.submit(LibraryRepository::getInstance).get();
+        repository.whenLoaded().join();
+        double finalSkew = skew;
+        Map<Operation, Integer> finalMix = mix;
+        int finalBatch = maxBatch;
+        double finalThink = thinkMillis;
+        DeskLoadTest test = applicationThread.submit(() -> new DeskLoadTest(repository, finalSkew, finalMix, finalBatch, finalThink)).get();
+        if (test.books.isEmpty() || test.users.isEmpty()) {
+            System.err.println("The collection needs at least one book and one user.");
+            System.exit(2);
+        }
+        long initialOnLoan = test.lent.size();
+
+        System.out.printf(Locale.ROOT, "%d books, %d users, %d on loan; %d desks, think %.1f ms, skew %.2f, mix %s, batch up to %d%n",
+                test.books.size(), test.users.size(), initialOnLoan, desks, thinkMillis, skew, describeMix(mix), maxBatch);
+        System.out.println("Warming up for " + warmup + " s, then measuring for " + seconds + " s");
+        double elapsed = test.run(desks, warmup, seconds);
+        test.report(elapsed);
+
+        List<String> problems = applicationThread.submit(() -> {
+            long expected = initialOnLoan + test.loansMade.sum() - test.loansEnded.sum();
+            System.out.println(expected + " books on loan after " + test.loansMade.sum() + " checkouts and "
+                    + test.loansEnded.sum() + " returns");
+            return LoanAudit.check(repository, expected);
+        }).get();
+        problems.stream().limit(20).forEach(problem -> System.out.println("  " + problem));
+        System.out.println(problems.isEmpty() ? "PASS: the collection is consistent" : "FAIL: " + problems.size() + " problems");
+
+        if (keep) {
+            System.out.println("Kept the data in " + directory);
+        } else {
+            deleteData(directory);
+        }
+        System.exit(problems.isEmpty() ? 0 : 1);
+    }
+
+    /**
+     * Gets the command-line help.
+     * @return The usage text.
+     */
+    private static String usage() {
+        return """
+                Usage: DeskLoadTest [options]
+                  --desks N         concurrent clerks (default 16)
+                  --seconds S       how long to measure (default 30)
+                  --warmup S        how long to run first without measuring (default 5)
+                  --think-ms M      mean pause between a clerk's operations, exponentially spread (default 0)
+                  --skew S          Zipf exponent for picking books and patrons (default 1.0; 0 = even)
+                  --mix LIST        operation weights (default find=20,checkout=30,checkin=30,search=20)
+                  --batch N         most items per checkout or check-in (default 3)
+                  --books N         books to generate (default 100000)
+                  --from DIR        copy this folder's data files instead of generating
+                  --keep            keep the temporary data folder afterwards""";
+    }
+
+    /**
+     * Parses an operation mix such as {@code find=20,checkout=30,checkin=30,search=20}.
+     * Operations left out are not done.
+     *
+     * @param text The mix.
+     * @return The weight of each operation.
+     * @throws IllegalArgumentException If an operation or weight is not understood.
+     */
+    static Map<Operation, Integer> parseMix(String text) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) mix.put(operation, 0);
+        for (String part : text.split(",")) {
+            String[] pair = part.trim().split("=", 2);
+            Operation operation = null;
+            for (Operation candidate : Operation.values()) {
+                if (candidate.option.equals(pair[0].trim())) operation = candidate;
+            }
+            if (operation == null || pair.length < 2) throw new IllegalArgumentException("Unknown mix entry " + part);
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) throw new IllegalArgumentException("Mix weights must not be negative");
+            mix.put(operation, weight);
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() == 0) throw new IllegalArgumentException("The mix is empty");
+        return mix;
+    }
+
+    /**
+     * Formats a mix the way {@code --mix} takes it.
+     * @param mix The weight of each operation.
+     * @return The text.
+     */
+    private static String describeMix(Map<Operation, Integer> mix) {
+        List<String> parts = new ArrayList<>();
+        mix.forEach((operation, weight) -> {
+            if (weight > 0) parts.add(operation.option + "=" + weight);
+        });
+        return String.join(",", parts);
+    }
+
+    /**
+     * Runs the desks through the warmup and the measured period.
+     *
+     * @param desks         The number of clerks.
+     * @param warmupSeconds How long to run before measuring.
+     * @param seconds       How long to measure.
+     * @return The measured period's actual length in seconds.
+     * @throws InterruptedException If interrupted while waiting for the desks.
+     */
+    private double run(int desks, int warmupSeconds, int seconds) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long deadline = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> threads = new ArrayList<>();
+        for (int d = 0; d < desks; d++) {
+            threads.add(Thread.ofPlatform().name("desk-" + d).start(() -> {
+                while (System.nanoTime() < deadline) {
+                    operate();
+                    think();
+                }
+            }));
+        }
+        Thread.sleep(Math.max(0, TimeUnit.NANOSECONDS.toMillis(measureFrom - System.nanoTime())));
+        long conflictsBefore = circulation.conflictCount();
+        long measuredStart = System.nanoTime();
+        measuring = true;
+        for (Thread thread : threads) thread.join();
+        measuring = false;
+        conflicts = circulation.conflictCount() - conflictsBefore;
+        return (System.nanoTime() - measuredStart) / 1e9;
+    }
+
+    /**
+     * Does one randomly chosen operation and records how it went.
+     */
+    private void operate() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Operation operation = pickOperation(random);
+        Tally tally = tallies.get(operation);
+        long start = System.nanoTime();
+        boolean ok;
+        try {
+            ok = switch (operation) {
+                case FIND_USER -> findUser(random);
+                case CHECKOUT -> checkOut(random);
+                case CHECK_IN -> checkIn(random);
+                case SEARCH -> search(random);
+            };
+        } catch (IOException | RuntimeException e) {
+            if (measuring) {
+                tally.latency.record(System.nanoTime() - start);
+                tally.errors.increment();
+            }
+            if (errorsShown.getAndIncrement() < ERRORS_SHOWN) e.printStackTrace();
+            return;
+        }
+        if (!measuring) return;
+        tally.latency.record(System.nanoTime() - start);
+        (ok ? tally.ok : tally.rejected).increment();
+    }
+
+    /**
+     * Picks an operation by the mix's weights.
+     * @param random The random source.
+     * @return The operation.
+     */
+    private Operation pickOperation(ThreadLocalRandom random) {
+        int roll = random.nextInt(mixTotal);
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            roll -= entry.getValue();
+            if (roll < 0) return entry.getKey();
+        }
+        throw new IllegalStateException("Unreachable");
+    }
+
+    /**
+     * Looks a patron up, usually by ID as a card scan would and sometimes by name.
+     * @param random The random source.
+     * @return Whether the patron was found.
+     */
+    private boolean findUser(ThreadLocalRandom random) {
+        User user = users.get(DatasetGenerator.draw(userWeights, random));
+        String input = random.nextInt(100) < FIND_BY_NAME_PERCENT ? user.getName() : user.getUserId();
+        return circulation.findUser(input).isPresent();
+    }
+
+    /**
+     * Checks a batch of popular books out to a patron.
+     * @param random The random source.
+     * @return Whether any item was lent.
+     * @throws IOException If the journal cannot be written.
+     */
+    private boolean checkOut(ThreadLocalRandom random) throws IOException {
+        User user = users.get(DatasetGenerator.draw(userWeights, random));
+        List<String> items = new ArrayList<>();
+        int count = 1 + random.nextInt(maxBatch);
+        for (int i = 0; i < count; i++) items.add(books.get(DatasetGenerator.draw(bookWeights, random)).getIsbn());
+
+        boolean any = false;
+        for (CirculationService.Result result : circulation.checkOutAll(user, items)) {
+            if (!result.success()) continue;
+            loansMade.increment();
+            lent.add(result.book().getIsbn());
+            any = true;
+        }
+        return any;
+    }
+
+    /**
+     * Checks in a batch of books that are out, as patrons return them. If nothing is out,
+     * scans popular books anyway, which the desk turns away.
+     *
+     * @param random The random source.
+     * @return Whether any item was returned.
+     * @throws IOException If the journal cannot be written.
+     */
+    private boolean checkIn(ThreadLocalRandom random) throws IOException {
+        List<String> items = new ArrayList<>();
+        int count = 1 + random.nextInt(maxBatch);
+        for (int i = 0; i < count; i++) {
+            String isbn = lent.poll();
+            items.add(isbn != null ? isbn : books.get(DatasetGenerator.draw(bookWeights, random)).getIsbn());
+        }
+
+        boolean any = false;
+        for (CirculationService.Result result : circulation.checkInAll(items)) {
+            if (!result.success() || result.lastBorrowedBy() == null) continue;
+            loansEnded.increment();
+            any = true;
+        }
+        return any;
+    }
+
+    /**
+     * Searches for a word from a popular book's title.
+     * @param random The random source.
+     * @return Whether anything matched.
+     */
+    private boolean search(ThreadLocalRandom random) {
+        String[] words = books.get(DatasetGenerator.draw(bookWeights, random)).getTitle().split("\\s+");
+        return !repository.searchBooks(words[random.nextInt(words.length)]).isEmpty();
+    }
+
+    /**
+     * Pauses for an exponentially distributed time around the mean think time, as a clerk
+     * serving a queue of patrons would.
+     */
+    private void think() {
+        if (thinkMillis <= 0) return;
+        double pause = -thinkMillis * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        try {
+            TimeUnit.MICROSECONDS.sleep((long) (pause * 1000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Prints the measured period's figures per operation, then the totals.
+     * @param seconds The measured period's length.
+     */
+    private void report(double seconds) {
+        System.out.printf(Locale.ROOT, "%n%-10s %9s %9s %9s %9s %7s %10s %10s %10s %10s %10s%n", "Operation",
+                "Count", "Per sec", "OK", "Rejected", "Errors", "p50", "p90", "p99", "p99.9", "Max");
+        long total = 0, errors = 0;
+        for (Operation operation : Operation.values()) {
+            if (mix.get(operation) == 0) continue;
+            Tally tally = tallies.get(operation);
+            LatencyHistogram.Snapshot latency = tally.latency.snapshot();
+            total += latency.count();
+            errors += tally.errors.sum();
+            System.out.printf(Locale.ROOT, "%-10s %9d %9.1f %9d %9d %7d %10s %10s %10s %10s %10s%n", operation.option,
+                    latency.count(), latency.count() / seconds, tally.ok.sum(), tally.rejected.sum(), tally.errors.sum(),
+                    LatencyHistogram.format(latency.percentile(50)), LatencyHistogram.format(latency.percentile(90)),
+                    LatencyHistogram.format(latency.percentile(99)), LatencyHistogram.format(latency.percentile(99.9)),
+                    LatencyHistogram.format(latency.maxNanos()));
+        }
+        System.out.printf(Locale.ROOT, "%-10s %9d %9.1f%n%n", "all", total, total / seconds);
+        System.out.println("Errors: " + errors + "; items retried after another desk changed them: " + conflicts);
+    }
+
+    /**
+     * Deletes the temporary data folder.
+     * @param directory The folder.
+     */
+    private static void deleteData(Path directory) {
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            e.printStackTrace(); // Only a temporary folder left behind
+        }
+    }
+}
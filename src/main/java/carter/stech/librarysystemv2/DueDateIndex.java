@@ -0,0 +1,177 @@
+package carter.stech.librarysystemv2;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An index of the books on loan, ordered by due date.
+ * Loans are grouped by due date in a sorted map, so the loans due before or between dates
+ * are found in time proportional to the number of loans returned (plus the number of
+ * distinct due dates), without looking at the rest of the catalog.
+ * The index follows the list as books are added and removed, and is told about due date
+ * edits through {@link #dueDateChanged}. Queries may run on any thread.
+ */
+public class DueDateIndex {
+    private final NavigableMap<LocalDate, Set<Book>> loansByDueDate = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Creates an index and fills it from the list's current contents.
+     * @param books The books to index; those without a due date are not on loan.
+     */
+    public DueDateIndex(ObservableList<Book> books) {
+        books.forEach(book -> update(book, null, book.getDueDate()));
+        books.addListener((ListChangeListener<Book>) change -> {
+            while (change.next()) {
+                if (change.wasRemoved()) change.getRemoved().forEach(book -> update(book, book.getDueDate(), null));
+                if (change.wasAdded()) change.getAddedSubList().forEach(book -> update(book, null, book.getDueDate()));
+            }
+        });
+    }
+
+    /**
+     * Moves a book whose due date was set, changed or cleared.
+     *
+     * @param book       The edited book.
+     * @param oldDueDate The due date it is indexed under, or null.
+     * @param newDueDate The due date it now has, or null.
+     */
+    public void dueDateChanged(Book book, LocalDate oldDueDate, LocalDate newDueDate) {
+        update(book, oldDueDate, newDueDate);
+    }
+
+    /**
+     * Gets the loans due strictly before a date, earliest first.
+     * @param date The first date that is not included, e.g. today for the overdue loans.
+     * @return The matching books.
+     */
+    public List<Book> dueBefore(LocalDate date) {
+        lock.readLock().lock();
+        try {
+            return flatten(loansByDueDate.headMap(date, false));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the loans due from one date to another, inclusive, earliest first.
+     *
+     * @param from The first due date included.
+     * @param to   The last due date included.
+     * @return The matching books.
+     */
+    public List<Book> dueBetween(LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) return new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            return flatten(loansByDueDate.subMap(from, true, to, true));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the loans due strictly before a date.
+     * @param date The first date that is not counted.
+     * @return The number of loans, found from the group sizes without visiting each loan.
+     */
+    public int countDueBefore(LocalDate date) {
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            for (Set<Book> loans : loansByDueDate.headMap(date, false).values()) count += loans.size();
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the loans due from one date to another, inclusive.
+     *
+     * @param from The first due date counted.
+     * @param to   The last due date counted.
+     * @return The number of loans, found from the group sizes without visiting each loan.
+     */
+    public int countDueBetween(LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) return 0;
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            for (Set<Book> loans : loansByDueDate.subMap(from, true, to, true).values()) count += loans.size();
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the loans due strictly before a date for each borrower.
+     * @param date The first date that is not counted.
+     * @return The number of such loans by borrower ID.
+     */
+    public Map<String, Integer> countDueBeforeByBorrower(LocalDate date) {
+        Map<String, Integer> counts = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (Set<Book> loans : loansByDueDate.headMap(date, false).values()) {
+                for (Book book : loans) {
+                    if (book.getBorrowedBy() != null) counts.merge(book.getBorrowedBy(), 1, Integer::sum);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return counts;
+    }
+
+    /**
+     * Copies the loans in a range of due dates into one list.
+     * @param range The due date groups, in order.
+     * @return The books, earliest due first.
+     */
+    private static List<Book> flatten(Map<LocalDate, Set<Book>> range) {
+        int size = 0;
+        for (Set<Book> loans : range.values()) size += loans.size();
+        List<Book> books = new ArrayList<>(size);
+        for (Set<Book> loans : range.values()) books.addAll(loans);
+        return books;
+    }
+
+    /**
+     * Moves a book from one due date group to another.
+     *
+     * @param book       The book.
+     * @param oldDueDate The group it is in, or null for none.
+     * @param newDueDate The group it belongs in, or null for none.
+     */
+    private void update(Book book, LocalDate oldDueDate, LocalDate newDueDate) {
+        if (oldDueDate == null && newDueDate == null) return;
+        lock.writeLock().lock();
+        try {
+            if (oldDueDate != null) {
+                Set<Book> loans = loansByDueDate.get(oldDueDate);
+                if (loans != null && loans.remove(book) && loans.isEmpty()) loansByDueDate.remove(oldDueDate);
+            }
+            if (newDueDate != null) {
+                // Books use identity equality, so each loan is its own entry
+                loansByDueDate.computeIfAbsent(newDueDate, d -> new HashSet<>()).add(book);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
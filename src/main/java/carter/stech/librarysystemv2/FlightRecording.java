@@ -0,0 +1,85 @@
+package carter.stech.librarysystemv2;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * The Master App's flight recording: the JDK's "profile" settings (GC, allocation, file and
+ * socket I/O, thread parks and method samples) plus every {@link LibraryEvents} event. Switch it
+ * on, reproduce the problem, switch it off, and the recording is written beside the data files
+ * as {@code library-<date-time>.jfr}, ready for JDK Mission Control or {@code jfr print}.
+ */
+public final class FlightRecording {
+    private static final Duration MAX_AGE = Duration.ofHours(1); // Older data is dropped from a long recording
+    private static final List<Class<? extends Event>> LIBRARY_EVENTS = List.of(
+            LibraryEvents.Load.class, LibraryEvents.Save.class, LibraryEvents.Search.class,
+            LibraryEvents.FindUser.class, LibraryEvents.Checkout.class, LibraryEvents.CheckIn.class,
+            LibraryEvents.ChangeDelivery.class);
+    private static Recording recording; // Guarded by FlightRecording.class
+
+    /**
+     * Not instantiable; there is one recording at a time.
+     */
+    private FlightRecording() {
+    }
+
+    /**
+     * Starts recording, if not already.
+     * @throws IOException If the recording settings cannot be read.
+     */
+    public static synchronized void start() throws IOException {
+        if (recording != null) return;
+        Configuration profile;
+        try {
+            profile = Configuration.getConfiguration("profile");
+        } catch (ParseException e) {
+            throw new IOException("The JDK's profile recording settings could not be read.", e);
+        }
+        Recording started = new Recording(profile);
+        started.setName("Library");
+        started.setToDisk(true);
+        started.setMaxAge(MAX_AGE);
+        for (Class<? extends Event> event : LIBRARY_EVENTS) {
+            // Every one, however short: a burst of fast searches can freeze a window as well as one slow one
+            started.enable(event).withThreshold(Duration.ZERO).withStackTrace();
+        }
+        started.start();
+        recording = started;
+    }
+
+    /**
+     * Stops recording and writes what was recorded.
+     * @return The recording file.
+     * @throws IOException If nothing is being recorded or the file cannot be written.
+     */
+    public static synchronized Path stop() throws IOException {
+        if (recording == null) throw new IOException("No flight recording is running.");
+        Path file = LibraryRepository.dataFile("library-"
+                + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".jfr");
+        try {
+            recording.stop();
+            recording.dump(file);
+        } finally {
+            recording.close();
+            recording = null;
+        }
+        return file.toAbsolutePath();
+    }
+
+    /**
+     * Tells whether a recording is running.
+     * @return True if recording.
+     */
+    public static synchronized boolean isRecording() {
+        return recording != null;
+    }
+}
@@ -0,0 +1,490 @@
+package carter.stech.librarysystemv2;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * A typo-tolerant index over one string key, such as book titles or authors. Finds the keys
+ * within a few edits (inserting, deleting or replacing a character, or swapping two next to
+ * each other) of a query, closest first, so "Mistbron" still finds "Mistborn".
+ * <p>
+ * Keys are normalized (case, accents, punctuation and spacing folded away), sorted and packed
+ * into one array per key length. Only the lengths within the allowed edits of the query's are
+ * looked at, and each is walked like a trie while a Levenshtein automaton for the query runs
+ * along it: one row of the edit distance table per character of the key. Keys sharing a
+ * prefix share its rows, and as soon as a prefix is too far from the query to end within the
+ * allowed edits at that length, all keys starting with it are skipped with one search. A
+ * lookup therefore only visits the prefixes close to the query, not the whole catalog.
+ * <p>
+ * Adding a key is a hash map insert, so loading a large catalog stays quick. Keys added since
+ * the arrays were packed are checked one by one, and once there are too many of them the next
+ * lookup packs the arrays again.
+ * <p>
+ * The index follows the list as items are added and removed, and is told about key edits
+ * through {@link #keyChanged}. Lookups may run on any thread; the index itself is updated
+ * on the thread that edits the list.
+ *
+ * @param <T> The type of item indexed.
+ */
+public class FuzzyIndex<T> {
+    private static final int MAX_RECENT = 4096; // Keys checked one by one before the arrays are packed again
+
+    private final Function<T, String> key;
+    private final boolean byWord;
+    private final Map<String, Object> entries = new HashMap<>(); // An item, or a Bucket when several share a key
+    private final List<String> recent = new ArrayList<>();       // Keys added since the arrays were packed
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private char[][] packed;   // For each length, its keys sorted and end to end; null until first needed
+    private int removedSincePacking;
+
+    /**
+     * Items that share a normalized key, in the order they were indexed.
+     */
+    private static final class Bucket extends ArrayList<Object> {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A key close to the query, with the items filed under it.
+     *
+     * @param key      The normalized key.
+     * @param distance The number of edits between it and the normalized query.
+     * @param items    The items with that key, in the order they were indexed.
+     * @param <T>      The type of item indexed.
+     */
+    public record Match<T>(String key, int distance, List<T> items) { }
+
+    /**
+     * Creates an index and fills it from the list's current contents.
+     *
+     * @param items  The list to index.
+     * @param key    Gets the key of an item; null keys are not indexed.
+     * @param byWord Whether each word of the key is indexed on its own, to find items by any
+     *               of their words, rather than the key as a whole.
+     */
+    public FuzzyIndex(ObservableList<T> items, Function<T, String> key, boolean byWord) {
+        this.key = key;
+        this.byWord = byWord;
+        items.forEach(this::track);
+        items.addListener((ListChangeListener<T>) change -> {
+            while (change.next()) {
+                if (change.wasRemoved()) change.getRemoved().forEach(this::untrack);
+                if (change.wasAdded()) change.getAddedSubList().forEach(this::track);
+            }
+        });
+    }
+
+    /**
+     * Gets the number of edits a query of this length may be off by and still match:
+     * none for very short queries, where one edit reaches too many keys, one for short
+     * queries and two otherwise.
+     *
+     * @param query The raw query.
+     * @return The edit limit.
+     */
+    public static int maxDistanceFor(String query) {
+        int length = normalize(query).length();
+        if (length <= 3) return 0;
+        return length <= 7 ? 1 : 2;
+    }
+
+    /**
+     * Finds the keys within {@link #maxDistanceFor the usual edit limit} of a query.
+     *
+     * @param query The raw query.
+     * @param limit The most matches to return.
+     * @return The matches, closest first.
+     */
+    public List<Match<T>> search(String query, int limit) {
+        return search(query, maxDistanceFor(query), limit);
+    }
+
+    /**
+     * Finds the keys within a number of edits of a query. Ties are broken by how close
+     * the key's length is to the query's, then alphabetically.
+     *
+     * @param query       The raw query.
+     * @param maxDistance The most edits allowed.
+     * @param limit       The most matches to return.
+     * @return The matches, closest first; empty if the query is blank.
+     */
+    public List<Match<T>> search(String query, int maxDistance, int limit) {
+        String target = normalize(query);
+        List<Match<T>> matches = new ArrayList<>();
+        if (target.isEmpty() || limit <= 0) return matches;
+        packIfStale();
+        lock.readLock().lock();
+        try {
+            Set<String> seen = new HashSet<>();
+            int shortest = Math.max(1, target.length() - maxDistance);
+            int longest = Math.min(packed.length - 1, target.length() + maxDistance);
+            for (int length = shortest; length <= longest; length++) {
+                walk(packed[length], length, target, maxDistance, seen, matches);
+            }
+            for (String candidate : recent) {
+                if (Math.abs(candidate.length() - target.length()) > maxDistance) continue;
+                int distance = distance(candidate, target);
+                if (distance <= maxDistance) collect(candidate, distance, seen, matches);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        matches.sort(Comparator.<Match<T>>comparingInt(Match::distance)
+                .thenComparingInt(match -> Math.abs(match.key().length() - target.length()))
+                .thenComparing(Match::key));
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    /**
+     * Walks the sorted keys of one length with the query's automaton, collecting those within
+     * reach. Runs under the read lock.
+     *
+     * @param keys        The packed keys of that length.
+     * @param length      The length.
+     * @param target      The normalized query.
+     * @param maxDistance The most edits allowed.
+     * @param seen        The keys matched so far.
+     * @param matches     Collects the matches.
+     */
+    private void walk(char[] keys, int length, String target, int maxDistance, Set<String> seen, List<Match<T>> matches) {
+        int width = target.length() + 1;
+        int[][] rows = new int[length + 1][width];
+        for (int j = 0; j < width; j++) rows[0][j] = j; // The empty prefix is j insertions from the query's first j characters
+
+        int count = keys.length / length;
+        int valid = 0; // Rows 1..valid hold the prefixes of the previous key
+        int i = 0;
+        while (i < count) {
+            int start = i * length;
+            int depth = i == 0 ? 0 : Math.min(valid, commonPrefix(keys, start - length, start, length));
+            int pruneAt = -1;
+            while (depth < length) {
+                depth++;
+                if (advance(rows, depth, keys, start, length, target) > maxDistance) {
+                    pruneAt = depth;
+                    break;
+                }
+            }
+            valid = depth;
+
+            if (pruneAt > 0) {
+                // No key of this length starting with this prefix can come within reach; skip them all
+                i = skipPrefix(keys, i, length, pruneAt);
+                continue;
+            }
+            int distance = rows[length][target.length()];
+            if (distance <= maxDistance) collect(new String(keys, start, length), distance, seen, matches);
+            i++;
+        }
+    }
+
+    /**
+     * Adds a key within reach to the matches, unless it was removed or already matched.
+     * Runs under the read lock.
+     *
+     * @param candidate The key.
+     * @param distance  Its edits from the query.
+     * @param seen      The keys matched so far.
+     * @param matches   Collects the matches.
+     */
+    private void collect(String candidate, int distance, Set<String> seen, List<Match<T>> matches) {
+        Object entry = entries.get(candidate);
+        if (entry != null && seen.add(candidate)) matches.add(new Match<>(candidate, distance, itemsOf(entry)));
+    }
+
+    /**
+     * Sorts and packs the keys again if they never have been, or if enough keys have been
+     * added or removed since that checking them costs more than packing.
+     */
+    private void packIfStale() {
+        lock.readLock().lock();
+        try {
+            if (packed != null && recent.size() + removedSincePacking <= MAX_RECENT) return;
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            if (packed != null && recent.size() + removedSincePacking <= MAX_RECENT) return;
+            String[] keys = entries.keySet().toArray(new String[0]);
+            Arrays.sort(keys);
+            int[] counts = new int[1];
+            for (String k : keys) {
+                if (k.length() >= counts.length) counts = Arrays.copyOf(counts, Math.max(k.length() + 1, counts.length * 2));
+                counts[k.length()]++;
+            }
+            char[][] packing = new char[counts.length][];
+            for (int length = 0; length < counts.length; length++) packing[length] = new char[counts[length] * length];
+            int[] filled = new int[counts.length];
+            for (String k : keys) {
+                k.getChars(0, k.length(), packing[k.length()], filled[k.length()]++ * k.length());
+            }
+            packed = packing;
+            recent.clear();
+            removedSincePacking = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Computes the next row of the edit distance table for one more character of the key,
+     * counting a swap of two neighbouring characters as one edit.
+     *
+     * @param rows   The rows so far, one per character of the key's prefix; row {@code depth} is filled in.
+     * @param depth  The length of the prefix the new row is for.
+     * @param keys   The packed keys.
+     * @param start  Where the key starts in them.
+     * @param length The key's length.
+     * @param target The normalized query.
+     * @return The fewest edits any alignment through the new row can end with, since the rest
+     * of the key and the rest of the query still differ in length; once above the limit, no
+     * key of this length with this prefix can match.
+     */
+    private static int advance(int[][] rows, int depth, char[] keys, int start, int length, String target) {
+        int[] above = rows[depth - 1];
+        int[] twoAbove = depth >= 2 ? rows[depth - 2] : null;
+        int[] row = rows[depth];
+        char character = keys[start + depth - 1];
+        char before = depth >= 2 ? keys[start + depth - 2] : 0;
+        int keyLeft = length - depth;
+        row[0] = above[0] + 1;
+        int bound = row[0] + Math.abs(keyLeft - target.length());
+        for (int j = 1; j < row.length; j++) {
+            int value = above[j - 1] + (target.charAt(j - 1) == character ? 0 : 1);
+            value = Math.min(value, Math.min(above[j] + 1, row[j - 1] + 1));
+            if (twoAbove != null && j >= 2 && character == target.charAt(j - 2) && before == target.charAt(j - 1)) {
+                value = Math.min(value, twoAbove[j - 2] + 1);
+            }
+            row[j] = value;
+            bound = Math.min(bound, value + Math.abs(keyLeft - (target.length() - j)));
+        }
+        return bound;
+    }
+
+    /**
+     * Finds the first key after a position that does not share its first characters.
+     * Keys with the same prefix are next to each other, so this gallops forward and then bisects.
+     *
+     * @param keys   The packed keys of one length, sorted.
+     * @param from   The position of a key with the prefix.
+     * @param length The length of every key.
+     * @param prefix The length of the prefix.
+     * @return The position of the first key without it, or the number of keys.
+     */
+    private static int skipPrefix(char[] keys, int from, int length, int prefix) {
+        int count = keys.length / length;
+        int low = from;          // Known to have the prefix
+        int step = 1;
+        int high = from + step;  // Probed until it lacks the prefix
+        while (high < count && commonPrefix(keys, from * length, high * length, prefix) == prefix) {
+            low = high;
+            step <<= 1;
+            high = from + step;
+        }
+        high = Math.min(high, count);
+        while (high - low > 1) {
+            int middle = (low + high) >>> 1;
+            if (commonPrefix(keys, from * length, middle * length, prefix) == prefix) low = middle; else high = middle;
+        }
+        return high;
+    }
+
+    /**
+     * Counts the leading characters two packed keys share.
+     *
+     * @param keys   The packed keys.
+     * @param a      Where one key starts.
+     * @param b      Where the other starts.
+     * @param length The most characters to compare.
+     * @return The length of their common prefix, up to {@code length}.
+     */
+    private static int commonPrefix(char[] keys, int a, int b, int length) {
+        int i = 0;
+        while (i < length && keys[a + i] == keys[b + i]) i++;
+        return i;
+    }
+
+    /**
+     * Counts the edits between two normalized strings, a swap of neighbouring characters
+     * counting as one, as the index does.
+     *
+     * @param a One string.
+     * @param b The other.
+     * @return The number of edits.
+     */
+    static int distance(String a, String b) {
+        int[][] rows = new int[a.length() + 1][b.length() + 1];
+        char[] characters = a.toCharArray();
+        for (int j = 0; j <= b.length(); j++) rows[0][j] = j;
+        for (int depth = 1; depth <= a.length(); depth++) advance(rows, depth, characters, 0, a.length(), b);
+        return rows[a.length()][b.length()];
+    }
+
+    /**
+     * Folds a key or query to the form it is compared in: lower case, without accents, with
+     * each run of punctuation and spaces as a single space.
+     *
+     * @param text The raw text; may be null.
+     * @return The normalized text; empty for null.
+     */
+    static String normalize(String text) {
+        if (text == null) return "";
+        boolean ascii = true;
+        for (int i = 0; i < text.length() && ascii; i++) ascii = text.charAt(i) < 0x80;
+        // Split accented letters into letter and accent, so the accent can be dropped
+        String decomposed = ascii ? text : Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder folded = new StringBuilder(decomposed.length());
+        boolean space = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && !folded.isEmpty()) folded.append(' ');
+                folded.append(Character.toLowerCase(c));
+                space = false;
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                space = true;
+            }
+        }
+        return folded.toString();
+    }
+
+    /**
+     * Moves an item whose key was edited.
+     *
+     * @param item   The edited item.
+     * @param oldKey The key it is indexed under.
+     * @param newKey The key it now has.
+     */
+    public void keyChanged(T item, String oldKey, String newKey) {
+        lock.writeLock().lock();
+        try {
+            remove(oldKey, item);
+            put(newKey, item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes an item added to the list.
+     * @param item The item added to the list.
+     */
+    private void track(T item) {
+        lock.writeLock().lock();
+        try {
+            put(key.apply(item), item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an item from the index.
+     * @param item The item removed from the list.
+     */
+    private void untrack(T item) {
+        lock.writeLock().lock();
+        try {
+            remove(key.apply(item), item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds an item under a key, or under each of its words.
+     *
+     * @param key  The raw key.
+     * @param item The item.
+     */
+    private void put(String key, T item) {
+        for (String normalized : keysOf(key)) addUnder(normalized, item);
+    }
+
+    /**
+     * Removes an item from under a key, or from under each of its words.
+     *
+     * @param key  The raw key.
+     * @param item The item.
+     */
+    private void remove(String key, T item) {
+        for (String normalized : keysOf(key)) removeFrom(normalized, item);
+    }
+
+    /**
+     * Gets the normalized keys an item is filed under.
+     * @param key The raw key; may be null.
+     * @return The whole key, or its distinct words; empty if there is nothing to index.
+     */
+    private List<String> keysOf(String key) {
+        String normalized = normalize(key);
+        if (normalized.isEmpty()) return List.of();
+        if (!byWord) return List.of(normalized);
+        return Arrays.stream(normalized.split(" ")).distinct().toList();
+    }
+
+    /**
+     * Adds an item under a normalized key.
+     *
+     * @param normalized The key.
+     * @param item       The item.
+     */
+    private void addUnder(String normalized, T item) {
+        Object existing = entries.putIfAbsent(normalized, item);
+        if (existing == null) {
+            if (packed != null) recent.add(normalized); // Not in the packed arrays yet
+            return;
+        }
+        Bucket bucket;
+        if (existing instanceof Bucket b) {
+            bucket = b;
+        } else {
+            bucket = new Bucket();
+            bucket.add(existing);
+            entries.put(normalized, bucket);
+        }
+        bucket.add(item);
+    }
+
+    /**
+     * Removes an item from under a normalized key. A key left with no items stays in the
+     * packed arrays until they are next packed, and is skipped when it matches.
+     *
+     * @param normalized The key.
+     * @param item       The item.
+     */
+    private void removeFrom(String normalized, T item) {
+        Object remaining = entries.computeIfPresent(normalized, (k, existing) -> {
+            if (!(existing instanceof Bucket bucket)) return existing == item ? null : existing;
+            bucket.removeIf(candidate -> candidate == item);
+            if (bucket.size() == 1) return bucket.get(0);
+            return bucket.isEmpty() ? null : bucket;
+        });
+        if (remaining == null) removedSincePacking++;
+    }
+
+    /**
+     * Copies the items of an entry.
+     * @param entry An item, or a Bucket.
+     * @return The items.
+     */
+    @SuppressWarnings("unchecked")
+    private List<T> itemsOf(Object entry) {
+        if (entry instanceof Bucket bucket) return (List<T>) List.copyOf(bucket);
+        return List.of((T) entry);
+    }
+}
@@ -0,0 +1,112 @@
+package carter.stech.librarysystemv2;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Streams the JSON record files (books.json and users.json) one record at a time.
+ * Reading never builds the whole array or a JSON tree, and writing never builds the whole
+ * document, so the extra memory needed is one chunk of records rather than several copies
+ * of the file. The format is the same pretty-printed array of objects as before.
+ */
+public class JsonRecords {
+    private static final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private static final JsonFactory jsonFactory = objectMapper.getFactory();
+    // Flushing after every record would turn each one into a separate write to the file
+    private static final ObjectWriter recordWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    /**
+     * Reads a JSON array of records and hands them over in chunks as they are parsed.
+     *
+     * @param path      The JSON file to read.
+     * @param type      The record class.
+     * @param chunkSize The most records per chunk.
+     * @param sink      Receives each chunk; a chunk is not reused after it is handed over.
+     * @param <T>       The record type.
+     * @return The number of records read.
+     * @throws IOException If the file cannot be read or is not an array of records.
+     */
+    public static <T> int read(Path path, Class<T> type, int chunkSize, Consumer<List<T>> sink) throws IOException {
+        int count = 0;
+        try (JsonParser parser = jsonFactory.createParser(path.toFile())) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException(path + " does not contain a JSON array.");
+            }
+            List<T> chunk = new ArrayList<>(chunkSize);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                // Binds just this object; the parser is left on its closing brace
+                chunk.add(objectMapper.readValue(parser, type));
+                count++;
+                if (chunk.size() == chunkSize) {
+                    sink.accept(chunk);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (parser.currentToken() != JsonToken.END_ARRAY) {
+                throw new IOException(path + " has an unexpected " + parser.currentToken() + " in its array.");
+            }
+            if (!chunk.isEmpty()) sink.accept(chunk);
+        }
+        return count;
+    }
+
+    /**
+     * Reads a whole JSON array of records into a list.
+     *
+     * @param path The JSON file to read.
+     * @param type The record class.
+     * @param <T>  The record type.
+     * @return The records, in file order.
+     * @throws IOException If the file cannot be read or is not an array of records.
+     */
+    public static <T> List<T> readAll(Path path, Class<T> type) throws IOException {
+        List<T> records = new ArrayList<>();
+        read(path, type, 1024, records::addAll);
+        return records;
+    }
+
+    /**
+     * Writes records as a pretty-printed JSON array, serializing one record at a time.
+     * The array is written to a temporary file beside the target and moved into place once
+     * it is on disk, so a crash mid-write leaves the previous file intact.
+     *
+     * @param path    The JSON file to write.
+     * @param records The records to write; iterated once.
+     * @throws IOException If the file could not be written.
+     */
+    public static void write(Path path, Iterable<?> records) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            JsonGenerator generator = jsonFactory.createGenerator(Channels.newOutputStream(channel), JsonEncoding.UTF8);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET); // The channel is still needed to force it
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartArray();
+            for (Object record : records) {
+                recordWriter.writeValue(generator, record);
+            }
+            generator.writeEndArray();
+            generator.close();
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
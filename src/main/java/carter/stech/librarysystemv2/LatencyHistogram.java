@@ -0,0 +1,138 @@
+package carter.stech.librarysystemv2;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations that many threads can record into at once, without locking or
+ * allocating. Buckets are log-linear: each power of two is split into 16 equal buckets, so a
+ * percentile read back is within about 6% of the true value, from nanoseconds up to years,
+ * in under 8 KB.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records one duration.
+     * @param nanos The duration in nanoseconds; negative values count as zero.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucketOf(nanos));
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * Copies the current counts. Recording may carry on meanwhile, so a snapshot taken
+     * under load can be a few records out between its buckets and totals.
+     * @return The snapshot.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, totalNanos.sum(), maxNanos.get());
+    }
+
+    /**
+     * Formats a duration in the unit that suits it.
+     * @param nanos The duration in nanoseconds.
+     * @return The text, such as "850 ns", "12.5 µs", "3.2 ms" or "1.40 s".
+     */
+    public static String format(long nanos) {
+        if (nanos < 1_000) return nanos + " ns";
+        if (nanos < 1_000_000) return String.format(Locale.ROOT, "%.1f µs", nanos / 1e3);
+        if (nanos < 1_000_000_000) return String.format(Locale.ROOT, "%.1f ms", nanos / 1e6);
+        return String.format(Locale.ROOT, "%.2f s", nanos / 1e9);
+    }
+
+    /**
+     * Finds the bucket a duration falls in.
+     * @param nanos The duration, not negative.
+     * @return The bucket index.
+     */
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) nanos; // Exact below 16 ns
+        int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((magnitude - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | sub;
+    }
+
+    /**
+     * Gets the smallest duration in a bucket.
+     * @param bucket The bucket index.
+     * @return The duration in nanoseconds.
+     */
+    static long lowestIn(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int magnitude = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        long sub = bucket & (SUB_BUCKETS - 1);
+        return (SUB_BUCKETS | sub) << (magnitude - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * The counts of a histogram at one moment.
+     *
+     * @param counts     Records per bucket.
+     * @param count      The number of records.
+     * @param totalNanos The sum of the recorded durations.
+     * @param maxNanos   The longest duration recorded.
+     */
+    public record Snapshot(long[] counts, long count, long totalNanos, long maxNanos) {
+        /**
+         * Gets a duration that the given share of records did not exceed.
+         * @param percentile The percentile, from 0 to 100.
+         * @return The duration in nanoseconds (the middle of its bucket); 0 if nothing was recorded.
+         */
+        public long percentile(double percentile) {
+            if (count == 0) return 0;
+            if (percentile >= 100) return maxNanos;
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    long low = lowestIn(i);
+                    long high = i + 1 < BUCKETS ? lowestIn(i + 1) - 1 : Long.MAX_VALUE;
+                    return Math.min(maxNanos, low + (high - low) / 2);
+                }
+            }
+            return maxNanos;
+        }
+
+        /**
+         * Gets the mean duration.
+         * @return The mean in nanoseconds; 0 if nothing was recorded.
+         */
+        public double meanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * Gets what was recorded between an earlier snapshot and this one.
+         * @param earlier The earlier snapshot of the same histogram.
+         * @return The difference; its maximum is the top of the highest bucket used in between.
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] difference = new long[counts.length];
+            long max = 0;
+            for (int i = 0; i < counts.length; i++) {
+                difference[i] = counts[i] - earlier.counts[i];
+                if (difference[i] > 0) max = i + 1 < BUCKETS ? lowestIn(i + 1) - 1 : Long.MAX_VALUE;
+            }
+            return new Snapshot(difference, count - earlier.count, totalNanos - earlier.totalNanos, Math.min(max, maxNanos));
+        }
+    }
+}
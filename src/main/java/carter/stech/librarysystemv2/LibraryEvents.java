@@ -0,0 +1,148 @@
+package carter.stech.librarysystemv2;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder events for the library's own work, so a recording of a stall shows
+ * which load, save, search or desk transaction it was, next to the JDK's own GC, I/O and
+ * thread events. They cost next to nothing unless a recording is running; start one from
+ * the Master App or with {@code -XX:StartFlightRecording}.
+ * <p>
+ * Each event is used as:
+ * <pre>{@code
+ * LibraryEvents.Search event = new LibraryEvents.Search();
+ * event.begin();
+ * ... the work ...
+ * if (event.shouldCommit()) {
+ *     event.query = query;
+ *     event.commit();
+ * }
+ * }</pre>
+ */
+public final class LibraryEvents {
+    private static final String CATEGORY = "Library";
+
+    /**
+     * Not instantiable; the events are nested.
+     */
+    private LibraryEvents() {
+    }
+
+    /**
+     * Reading one list's snapshot and delta at startup.
+     */
+    @Name("carter.library.Load")
+    @Label("Load")
+    @Category({CATEGORY, "Persistence"})
+    @Description("Reading books or users from their data files")
+    public static final class Load extends Event {
+        @Label("List")
+        public String list;
+        @Label("Format")
+        public String format;
+        @Label("Records")
+        public int records;
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    /**
+     * Writing one list's changes, as a delta append or a full snapshot.
+     */
+    @Name("carter.library.Save")
+    @Label("Save")
+    @Category({CATEGORY, "Persistence"})
+    @Description("Writing changed books or users to their data files")
+    public static final class Save extends Event {
+        @Label("List")
+        public String list;
+        @Label("Kind")
+        @Description("delta or snapshot")
+        public String kind;
+        @Label("Records")
+        public int records;
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    /**
+     * One book search.
+     */
+    @Name("carter.library.Search")
+    @Label("Search Books")
+    @Category({CATEGORY, "Search"})
+    public static final class Search extends Event {
+        @Label("Query")
+        public String query;
+        @Label("Matches")
+        public int matches;
+    }
+
+    /**
+     * One patron lookup at the desk, by ID or name.
+     */
+    @Name("carter.library.FindUser")
+    @Label("Find User")
+    @Category({CATEGORY, "Search"})
+    public static final class FindUser extends Event {
+        @Label("Input")
+        public String input;
+        @Label("Found")
+        public boolean found;
+    }
+
+    /**
+     * One checkout: a single scan or a scanner batch, including its journal write.
+     */
+    @Name("carter.library.Checkout")
+    @Label("Checkout")
+    @Category({CATEGORY, "Circulation"})
+    public static final class Checkout extends Event {
+        @Label("User ID")
+        public String userId;
+        @Label("Items")
+        public int items;
+        @Label("Succeeded")
+        public int succeeded;
+        @Label("Attempts")
+        @Description("Rounds needed because other desks changed the same books")
+        public int attempts;
+    }
+
+    /**
+     * One check-in: a single scan or a scanner batch, including its journal write.
+     */
+    @Name("carter.library.CheckIn")
+    @Label("Check In")
+    @Category({CATEGORY, "Circulation"})
+    public static final class CheckIn extends Event {
+        @Label("Items")
+        public int items;
+        @Label("Succeeded")
+        public int succeeded;
+        @Label("Attempts")
+        @Description("Rounds needed because other desks changed the same books")
+        public int attempts;
+    }
+
+    /**
+     * Handing a batch of changes to the open windows, on the JavaFX application thread.
+     */
+    @Name("carter.library.ChangeDelivery")
+    @Label("Change Delivery")
+    @Category({CATEGORY, "User Interface"})
+    @Description("Open windows patching themselves for other windows' changes")
+    public static final class ChangeDelivery extends Event {
+        @Label("Changes")
+        public int changes;
+        @Label("Listeners")
+        public int listeners;
+    }
+}
@@ -0,0 +1,1049 @@
+package carter.stech.librarysystemv2;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * The single in-process owner of the library's books and users.
+ * The data files are loaded once, and every window works on the same live lists,
+ * so changes made in one window are visible in the others and no window can
+ * overwrite another's saves with a stale copy.
+ * <p>
+ * Data is kept in books.json and users.json, or in the binary snapshots books.bin and
+ * users.bin if they exist (see {@link BinarySnapshot}). Saves normally only append the
+ * records that changed to books.delta and users.delta (see {@link RecordStore}).
+ * The files are streamed in on a background thread and added to the lists in chunks on the
+ * JavaFX application thread, so windows fill in while a large catalog is still loading.
+ * <p>
+ * Only one process may own a data folder at a time: the repository holds an exclusive lock
+ * on library.lock in the folder for as long as it runs, so a second copy of the application
+ * or a circulation server on the same folder cannot load the files and save over its changes.
+ */
+public class LibraryRepository {
+    //The data files live in the working directory unless -Dlibrary.dataDir says otherwise
+    private static final Path DATA_DIR = Path.of(System.getProperty("library.dataDir", ""));
+    private static final Path BOOKS_FILE = DATA_DIR.resolve("books.json");
+    private static final Path USERS_FILE = DATA_DIR.resolve("users.json");
+    private static final Path BOOKS_SNAPSHOT = DATA_DIR.resolve("books.bin");  //Binary alternatives to the JSON files,
+    private static final Path USERS_SNAPSHOT = DATA_DIR.resolve("users.bin");  //used whenever they exist
+    private static final Path BOOKS_DELTA = DATA_DIR.resolve("books.delta");
+    private static final Path USERS_DELTA = DATA_DIR.resolve("users.delta");
+    private static final Path JOURNAL_FILE = DATA_DIR.resolve("circulation.journal");
+    private static final Path METRICS_FILE = DATA_DIR.resolve("performance.csv");
+    private static final Path LOCK_FILE = DATA_DIR.resolve("library.lock");
+    //Seconds between rows of performance.csv; -Dlibrary.metricsInterval=0 turns it off
+    private static final long METRICS_INTERVAL_SECONDS = Long.getLong("library.metricsInterval", 60);
+    private static final long COMPACTION_INTERVAL_MINUTES = 5;
+    private static final int COMPACTION_THRESHOLD = 10_000; //Journal records before an early compaction
+    private static final int LOAD_CHUNK_SIZE = 1000;
+    private static final int LOAD_CHUNKS_IN_FLIGHT = 4; //Chunks parsed but not yet added to the lists
+    private static final long SAVE_DELAY_MS = 250; //Saves requested within this window are written once
+    private static final long SHUTDOWN_WRITE_TIMEOUT_SECONDS = 10;
+    private static final int LOCK_STRIPES = 1024; //Locks shared by all books and users for circulation
+    private static final int SCAN_DIVISOR = 2; //A query whose index would fetch over 1/this of the books checks every book instead
+
+    private static LibraryRepository instance;
+    private static Executor applicationThread = Platform::runLater; //Where the lists are edited
+
+    private final FileLock dataLock; // Kept reachable so the data folder stays locked until the process exits
+    private final ObservableList<Book> books;
+    private final ObservableList<User> users;
+    private final LookupIndex<Book> booksByIsbn;
+    private final LookupIndex<Book> booksByTitle;
+    private final LookupIndex<User> usersById;
+    private final LookupIndex<User> usersByName;
+    private final LookupIndex<Book> loansByBorrower;
+    private final DueDateIndex loansByDueDate;
+    private final TrigramIndex bookText;
+    private final FuzzyIndex<Book> titlesLike;
+    private final FuzzyIndex<Book> wordsLike;   // Each word of every title and author
+    private final RecordStore<Book> bookStore;
+    private final RecordStore<User> userStore;
+    private final WriteBehind<Book> bookSaves;
+    private final WriteBehind<User> userSaves;
+    private final ScheduledThreadPoolExecutor writer; // Every data file write happens here, one at a time
+    private final ChangeFeed changes;
+    private final StripedLocks recordLocks = new StripedLocks(LOCK_STRIPES);
+    // Held shared by circulation changes, and exclusively while a save or compaction captures records
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private CirculationJournal journal;
+    private volatile boolean compactionPending;
+    private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+
+    /**
+     * Gets the shared repository, loading the data files on first use.
+     * @return The repository.
+     * @throws IllegalStateException If another process already has the data folder open.
+     */
+    public static synchronized LibraryRepository getInstance() {
+        if (instance == null) {
+            instance = new LibraryRepository();
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the path of a file kept beside the data files, such as a diagnostic dump.
+     * @param name The file name.
+     * @return The path in the data folder.
+     */
+    static Path dataFile(String name) {
+        return DATA_DIR.resolve(name);
+    }
+
+    /**
+     * Sets the thread that owns the lists, for running without the JavaFX toolkit
+     * (e.g. from a command-line tool). Must be called before the first {@link #getInstance()}.
+     * @param executor Runs list edits, one at a time, on the owning thread.
+     */
+    public static synchronized void useApplicationThread(Executor executor) {
+        if (instance != null) {
+            throw new IllegalStateException("The repository has already been created.");
+        }
+        applicationThread = executor;
+    }
+
+    /**
+     * Sets up the empty lists and their indexes and starts loading books and users into them.
+     * @throws IllegalStateException If another process already has the data folder open.
+     */
+    private LibraryRepository() {
+        dataLock = lockDataFolder();
+        books = FXCollections.observableArrayList();
+        users = FXCollections.observableArrayList();
+        booksByIsbn = new LookupIndex<>(books, Book::getIsbn, true);
+        booksByTitle = new LookupIndex<>(books, Book::getTitle, true);
+        usersById = new LookupIndex<>(users, User::getUserId, false);
+        usersByName = new LookupIndex<>(users, User::getName, true);
+        loansByBorrower = new LookupIndex<>(books, Book::getBorrowedBy, false);
+        loansByDueDate = new DueDateIndex(books);
+        bookText = new TrigramIndex(books);
+        titlesLike = new FuzzyIndex<>(books, Book::getTitle, false);
+        wordsLike = new FuzzyIndex<>(books, book -> book.getTitle() + " " + book.getAuthor(), true);
+        changes = new ChangeFeed(applicationThread);
+        writer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "library-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // At shutdown, pending saves are written directly by close() instead
+        writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        bookStore = new RecordStore<>(Book.class, BOOKS_FILE, BOOKS_SNAPSHOT, BOOKS_DELTA, Book::getSlot, Book::setSlot);
+        userStore = new RecordStore<>(User.class, USERS_FILE, USERS_SNAPSHOT, USERS_DELTA, User::getSlot, User::setSlot);
+        bookSaves = new WriteBehind<>(books, bookStore);
+        userSaves = new WriteBehind<>(users, userStore);
+        observeRecords();
+        startLoading();
+        Metric.startLogging(METRICS_FILE, METRICS_INTERVAL_SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "library-repository-shutdown"));
+    }
+
+    /**
+     * Takes the exclusive lock on the data folder, creating the folder and its lock file if needed.
+     * The lock is held until the process exits.
+     *
+     * @return The lock.
+     * @throws IllegalStateException If another process holds the lock, or it cannot be taken.
+     */
+    private static FileLock lockDataFolder() {
+        Path folder = DATA_DIR.toAbsolutePath();
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(folder);
+            channel = FileChannel.open(LOCK_FILE, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock != null) return lock;
+        } catch (IOException | OverlappingFileLockException e) {
+            closeQuietly(channel);
+            throw new IllegalStateException("Could not lock the library data in " + folder + ": " + e.getMessage(), e);
+        }
+        closeQuietly(channel);
+        throw new IllegalStateException("The library data in " + folder + " is already open in another copy of the "
+                + "application or a circulation server.  Close that one first, so neither saves over the other.");
+    }
+
+    /**
+     * Closes a channel, ignoring any error, on the way to reporting another.
+     * @param channel The channel, or null.
+     */
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Already failing
+        }
+    }
+
+    /**
+     * Gets a future that completes once every book and user has been loaded and the
+     * circulation journal replayed, or fails if the data files could not be read.
+     * @return The loading future.
+     */
+    public CompletableFuture<Void> whenLoaded() {
+        return loaded.copy();
+    }
+
+    /**
+     * Gets the live list of books shared by every window.
+     * @return The observable book list.
+     */
+    public ObservableList<Book> getBooks() {
+        return books;
+    }
+
+    /**
+     * Gets the live list of users shared by every window.
+     * @return The observable user list.
+     */
+    public ObservableList<User> getUsers() {
+        return users;
+    }
+
+    /**
+     * Gets the feed of changes to the books and users, for windows that want to update what
+     * they show as other windows (or the circulation server) make changes.
+     * @return The change feed.
+     */
+    public ChangeFeed getChangeFeed() {
+        return changes;
+    }
+
+    /**
+     * Finds the books with an ISBN (or custom book ID), ignoring case.
+     *
+     * @param isbn The ISBN to look up.
+     * @return The matching books; empty if there are none.
+     */
+    public List<Book> findBooksByIsbn(String isbn) {
+        return booksByIsbn.all(isbn);
+    }
+
+    /**
+     * Finds the books with an exact title, ignoring case.
+     *
+     * @param title The title to look up.
+     * @return The matching books; empty if there are none.
+     */
+    public List<Book> findBooksByTitle(String title) {
+        return booksByTitle.all(title);
+    }
+
+    /**
+     * Searches for books whose title or author contains the query, or whose ISBN equals it,
+     * ignoring case.
+     *
+     * @param query The search text.
+     * @return The matching books; ISBN matches that are not also text matches come last.
+     */
+    public List<Book> searchBooks(String query) {
+        long start = System.nanoTime();
+        LibraryEvents.Search event = new LibraryEvents.Search();
+        event.begin();
+        List<Book> matches = bookText.search(query);
+        for (Book book : booksByIsbn.all(query)) {
+            if (!TrigramIndex.matches(book, query)) matches.add(book);
+        }
+        Metric.SEARCH.record(start);
+        if (event.shouldCommit()) {
+            event.query = query;
+            event.matches = matches.size();
+            event.commit();
+        }
+        return matches;
+    }
+
+    /**
+     * Finds the books matching a structured query. Of the conditions every match must meet,
+     * the planner picks the one whose index expects the fewest books, fetches those, and
+     * checks each against the whole compiled query. A query none of whose required
+     * conditions has an index, or whose best index would fetch much of the catalog anyway,
+     * checks every book, which is then quicker.
+     *
+     * @param query The parsed query.
+     * @return The matching books.
+     */
+    public List<Book> findBooks(BookQuery query) {
+        long start = System.nanoTime();
+        LibraryEvents.Search event = new LibraryEvents.Search();
+        event.begin();
+        List<Book> matches;
+        Access access = accessFor(query.root());
+        if (access == null || access.estimate() > books.size() / SCAN_DIVISOR) {
+            matches = bookText.scan(query::matches);
+        } else {
+            matches = new ArrayList<>();
+            Thread thread = Thread.currentThread();
+            for (Book book : access.books().get()) {
+                if (thread.isInterrupted()) break;
+                if (query.matches(book)) matches.add(book);
+            }
+        }
+        Metric.SEARCH.record(start);
+        if (event.shouldCommit()) {
+            event.query = query.toString();
+            event.matches = matches.size();
+            event.commit();
+        }
+        return matches;
+    }
+
+    /**
+     * A way to fetch the books that might meet a condition from an index.
+     *
+     * @param estimate The most books it is expected to fetch.
+     * @param books    Fetches them; every book meeting the condition is among them.
+     */
+    private record Access(int estimate, Supplier<Collection<Book>> books) { }
+
+    /**
+     * Plans how to find the books meeting a condition.
+     *
+     * @param node The condition.
+     * @return The cheapest index access, or null if only checking every book will do.
+     */
+    private Access accessFor(BookQuery.Node node) {
+        return switch (node) {
+            case BookQuery.Text text -> {
+                String value = text.value();
+                yield switch (text.field()) {
+                    case ANY -> {
+                        List<Book> byIsbn = booksByIsbn.all(value);
+                        yield new Access(bookText.estimate(value) + byIsbn.size(), () -> {
+                            Collection<Book> books = new LinkedHashSet<>(bookText.search(value));
+                            books.addAll(byIsbn);
+                            return books;
+                        });
+                    }
+                    // The trigrams cover titles and authors together, so this fetches a few extra
+                    case TITLE, AUTHOR -> new Access(bookText.estimate(value), () -> bookText.search(value));
+                    case ISBN -> {
+                        List<Book> books = booksByIsbn.all(value);
+                        yield new Access(books.size(), () -> books);
+                    }
+                    case BORROWER -> {
+                        List<Book> books = loansByBorrower.all(value);
+                        yield new Access(books.size(), () -> books);
+                    }
+                };
+            }
+            case BookQuery.DueRange due -> new Access(loansByDueDate.countDueBetween(due.from(), due.to()),
+                    () -> loansByDueDate.dueBetween(due.from(), due.to()));
+            case BookQuery.And and -> {
+                // Any one condition narrows the whole group; take the most selective
+                Access best = null;
+                for (BookQuery.Node part : and.parts()) {
+                    Access access = accessFor(part);
+                    if (access != null && (best == null || access.estimate() < best.estimate())) best = access;
+                }
+                yield best;
+            }
+            case BookQuery.Or or -> {
+                // Every alternative needs an index, and the books are those of them all
+                List<Access> accesses = new ArrayList<>();
+                long estimate = 0;
+                for (BookQuery.Node part : or.parts()) {
+                    Access access = accessFor(part);
+                    if (access == null) yield null;
+                    accesses.add(access);
+                    estimate += access.estimate();
+                }
+                yield new Access((int) Math.min(estimate, Integer.MAX_VALUE), () -> {
+                    Collection<Book> books = new LinkedHashSet<>();
+                    for (Access access : accesses) books.addAll(access.books().get());
+                    return books;
+                });
+            }
+            // A checked-out book need not have a due date, and exclusions match almost everything
+            case BookQuery.Available available -> null;
+            case BookQuery.Not not -> null;
+        };
+    }
+
+    /**
+     * Finds the titles within a few typos of the given one, closest first.
+     *
+     * @param title The title as entered.
+     * @param limit The most titles to return.
+     * @return Each close title with its copies.
+     */
+    public List<FuzzyIndex.Match<Book>> findTitlesLike(String title, int limit) {
+        return titlesLike.search(title, limit);
+    }
+
+    /**
+     * Searches for books with every word of the query, or a word a typo or two away from it,
+     * somewhere in their title or author; for when {@link #searchBooks} finds nothing.
+     *
+     * @param query The search text.
+     * @param limit The most books to return.
+     * @return The matching books, fewest typos first.
+     */
+    public List<Book> searchBooksLike(String query, int limit) {
+        long start = System.nanoTime();
+        List<String> words = new ArrayList<>(List.of(FuzzyIndex.normalize(query).split(" ")));
+        words.removeIf(String::isEmpty);
+        if (words.isEmpty()) return List.of();
+        // Look up the longest word, which is likely the rarest, and check the others on its books
+        words.sort(Comparator.comparingInt(String::length).reversed());
+        Map<Book, Integer> typos = new HashMap<>();
+        for (FuzzyIndex.Match<Book> match : wordsLike.search(words.get(0), Integer.MAX_VALUE)) {
+            for (Book book : match.items()) {
+                int total = match.distance() + typosInOtherWords(book, words);
+                if (total < Integer.MAX_VALUE / 2) typos.merge(book, total, Math::min);
+            }
+        }
+        List<Book> matches = new ArrayList<>(typos.keySet());
+        matches.sort(Comparator.comparingInt(typos::get));
+        Metric.SEARCH.record(start);
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    /**
+     * Counts the typos between the query's other words and the closest words of a book.
+     *
+     * @param book  The book.
+     * @param words The query's normalized words, the one already matched first.
+     * @return The total typos, or a huge number if some word is not close to any of the book's.
+     */
+    private static int typosInOtherWords(Book book, List<String> words) {
+        if (words.size() == 1) return 0;
+        String[] bookWords = FuzzyIndex.normalize(book.getTitle() + " " + book.getAuthor()).split(" ");
+        int total = 0;
+        for (String word : words.subList(1, words.size())) {
+            int allowed = FuzzyIndex.maxDistanceFor(word);
+            int best = Integer.MAX_VALUE / 2;
+            for (String bookWord : bookWords) {
+                if (Math.abs(bookWord.length() - word.length()) <= allowed) best = Math.min(best, FuzzyIndex.distance(bookWord, word));
+            }
+            if (best > allowed) return Integer.MAX_VALUE / 2;
+            total += best;
+        }
+        return total;
+    }
+
+    /**
+     * Suggests user IDs and names starting with what has been typed, IDs first.
+     *
+     * @param prefix The text typed so far; IDs are matched exactly, names ignoring case.
+     * @param limit  The most suggestions.
+     * @return The IDs and names, each in order.
+     */
+    public List<String> suggestUsers(String prefix, int limit) {
+        long start = System.nanoTime();
+        List<String> suggestions = usersById.keysStartingWith(prefix, limit);
+        suggestions.addAll(usersByName.keysStartingWith(prefix, limit - suggestions.size()));
+        Metric.SUGGEST.record(start);
+        return suggestions;
+    }
+
+    /**
+     * Suggests ISBNs (or custom book IDs) and titles starting with what has been typed,
+     * ignoring case, ISBNs first.
+     *
+     * @param prefix The text typed so far.
+     * @param limit  The most suggestions.
+     * @return The ISBNs and titles, each in order.
+     */
+    public List<String> suggestBooks(String prefix, int limit) {
+        long start = System.nanoTime();
+        List<String> suggestions = booksByIsbn.keysStartingWith(prefix, limit);
+        suggestions.addAll(booksByTitle.keysStartingWith(prefix, limit - suggestions.size()));
+        Metric.SUGGEST.record(start);
+        return suggestions;
+    }
+
+    /**
+     * Finds a user by their exact ID.
+     *
+     * @param userId The user ID to look up.
+     * @return The user, if one is registered with that ID.
+     */
+    public Optional<User> findUserById(String userId) {
+        return Optional.ofNullable(usersById.first(userId));
+    }
+
+    /**
+     * Finds the first user with a name, ignoring case.
+     *
+     * @param name The name to look up.
+     * @return The user, if one is registered with that name.
+     */
+    public Optional<User> findUserByName(String name) {
+        return Optional.ofNullable(usersByName.first(name));
+    }
+
+    /**
+     * Finds the books a user has on loan, according to the books' borrowers.
+     * Takes time proportional to the user's loans, not to the size of the catalog.
+     *
+     * @param userId The borrower's ID.
+     * @return The books lent to that user; empty if there are none.
+     */
+    public List<Book> findLoans(String userId) {
+        return loansByBorrower.all(userId);
+    }
+
+    /**
+     * Finds the loans that are overdue, from the due date index.
+     * @param today The current date; loans due before it are overdue.
+     * @return The overdue books, longest overdue first.
+     */
+    public List<Book> findOverdueLoans(LocalDate today) {
+        return loansByDueDate.dueBefore(today);
+    }
+
+    /**
+     * Finds the loans falling due soon, from the due date index.
+     *
+     * @param today The current date.
+     * @param days  How many days ahead to look; 0 means due today.
+     * @return The books due from today to that many days ahead, soonest first.
+     */
+    public List<Book> findLoansDueWithin(LocalDate today, int days) {
+        return loansByDueDate.dueBetween(today, today.plusDays(days));
+    }
+
+    /**
+     * Counts the overdue loans without listing them.
+     * @param today The current date; loans due before it are overdue.
+     * @return The number of overdue loans.
+     */
+    public int countOverdueLoans(LocalDate today) {
+        return loansByDueDate.countDueBefore(today);
+    }
+
+    /**
+     * Counts each borrower's overdue loans.
+     * @param today The current date; loans due before it are overdue.
+     * @return The number of overdue loans by user ID, for users with at least one.
+     */
+    public Map<String, Integer> countOverdueByBorrower(LocalDate today) {
+        return loansByDueDate.countDueBeforeByBorrower(today);
+    }
+
+    /**
+     * Applies a circulation change atomically: the work runs holding the locks for the given
+     * books and users, so no other change to them can interleave, and no save or compaction
+     * can capture them half-changed. Changes to unrelated books and users run in parallel.
+     * May be called from any thread; the work should edit only the locked records, and
+     * journal its change with {@link #recordTransactions} before returning.
+     *
+     * @param isbns   The ISBNs of the books the work reads or edits.
+     * @param userIds The IDs of the users it reads or edits.
+     * @param work    The change.
+     * @param <T>     The result type.
+     * @return The work's result.
+     * @throws IOException If the work fails.
+     */
+    public <T> T atomically(Collection<String> isbns, Collection<String> userIds, StripedLocks.Work<T> work) throws IOException {
+        List<String> keys = new ArrayList<>(isbns.size() + userIds.size());
+        for (String isbn : isbns) if (isbn != null) keys.add("book:" + isbn);
+        for (String userId : userIds) if (userId != null) keys.add("user:" + userId);
+        checkpointLock.readLock().lock();
+        try {
+            return recordLocks.withLocks(keys, work);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records a circulation transaction in the journal, compacting early if it has grown large.
+     * The book and user changes must already have been applied in memory.
+     *
+     * @param entry The journal record to append.
+     * @throws IOException If the journal is unavailable or the record could not be written.
+     */
+    public void recordTransaction(CirculationJournal.Entry entry) throws IOException {
+        recordTransactions(List.of(entry));
+    }
+
+    /**
+     * Records a batch of circulation transactions in the journal with a single write.
+     * The book and user changes must already have been applied in memory.
+     *
+     * @param entries The journal records to append, in order.
+     * @throws IOException If the journal is unavailable or the records could not be written.
+     */
+    public void recordTransactions(List<CirculationJournal.Entry> entries) throws IOException {
+        if (entries.isEmpty()) return;
+        if (journal == null) {
+            throw new IOException("The circulation journal is not open.");
+        }
+        journal.appendAll(entries);
+        if (journal.size() >= COMPACTION_THRESHOLD && !compactionPending) {
+            // May be inside a transaction, which must not wait for the compaction's snapshot
+            applicationThread.execute(this::compactJournal);
+        }
+    }
+
+    /**
+     * Asks for the changes to the book list to be saved. The write happens in the background
+     * shortly afterwards, and requests made in the meantime are folded into the same write.
+     * Must be called on the JavaFX application thread.
+     * @return A future completed on the JavaFX application thread once the books are on disk,
+     *         or failed with the IOException if they could not be written.
+     */
+    public CompletableFuture<Void> saveBooks() {
+        return bookSaves.request();
+    }
+
+    /**
+     * Asks for the changes to the user list to be saved. The write happens in the background
+     * shortly afterwards, and requests made in the meantime are folded into the same write.
+     * Must be called on the JavaFX application thread.
+     * @return A future completed on the JavaFX application thread once the users are on disk,
+     *         or failed with the IOException if they could not be written.
+     */
+    public CompletableFuture<Void> saveUsers() {
+        return userSaves.request();
+    }
+
+    /**
+     * Adds a batch of new books on the JavaFX application thread and asks for them to be saved.
+     * Books whose ISBN is in the catalog by then are left out, so a batch checked for duplicates
+     * on another thread stays correct if someone adds the same book in the meantime.
+     * May be called from any thread.
+     * @param batch The books to add.
+     * @return A future completed on the JavaFX application thread with the books left out,
+     *         or failed if the library has not loaded.
+     */
+    public CompletableFuture<List<Book>> addBooksLater(List<Book> batch) {
+        CompletableFuture<List<Book>> done = new CompletableFuture<>();
+        applicationThread.execute(() -> {
+            try {
+                requireLoaded();
+            } catch (IOException e) {
+                done.completeExceptionally(e);
+                return;
+            }
+            List<Book> added = new ArrayList<>(batch.size());
+            List<Book> skipped = new ArrayList<>();
+            for (Book book : batch) {
+                (booksByIsbn.all(book.getIsbn()).isEmpty() ? added : skipped).add(book);
+            }
+            books.addAll(added); // One change event for the whole batch
+            if (!added.isEmpty()) saveBooks();
+            done.complete(skipped);
+        });
+        return done;
+    }
+
+    /**
+     * Refuses to save over the data files with lists that are only partly loaded.
+     * @throws IOException If loading has not finished or has failed.
+     */
+    private void requireLoaded() throws IOException {
+        if (!loaded.isDone()) {
+            throw new IOException("The library is still loading.");
+        }
+        if (loaded.isCompletedExceptionally()) {
+            throw new IOException("The library data could not be loaded, so it will not be overwritten.");
+        }
+    }
+
+    /**
+     * Starts the loader thread. Books and then users are streamed from their files, and once
+     * both are in, the journal is replayed and opened on the JavaFX application thread.
+     */
+    private void startLoading() {
+        Thread loader = new Thread(() -> {
+            // Bounds how far parsing may run ahead of the lists it is feeding
+            Semaphore inFlight = new Semaphore(LOAD_CHUNKS_IN_FLIGHT);
+            try {
+                bookStore.load(LOAD_CHUNK_SIZE, chunk -> addLater(chunk, books, inFlight));
+                userStore.load(LOAD_CHUNK_SIZE, chunk -> addLater(chunk, users, inFlight));
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                applicationThread.execute(() -> loaded.completeExceptionally(e));
+                return;
+            }
+            applicationThread.execute(() -> {
+                openJournal();
+                loaded.complete(null);
+            });
+            // Sort the keys suggestions come from now, rather than on the first keystroke at the desk
+            loaded.join();
+            usersById.sortIfStale();
+            usersByName.sortIfStale();
+            booksByIsbn.sortIfStale();
+            booksByTitle.sortIfStale();
+        }, "library-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Hands a loaded chunk to the JavaFX application thread to be added to a list,
+     * waiting first if too many chunks are already queued.
+     *
+     * @param chunk    The records to add.
+     * @param target   The list to add them to.
+     * @param inFlight Permits for queued chunks.
+     * @param <T>      The record type.
+     */
+    private <T> void addLater(List<T> chunk, List<T> target, Semaphore inFlight) {
+        inFlight.acquireUninterruptibly();
+        applicationThread.execute(() -> {
+            target.addAll(chunk);
+            inFlight.release();
+        });
+    }
+
+    /**
+     * Attaches the record observer to every book and user in the lists, now and as they are
+     * added, so that field edits keep the indexes current, mark the records dirty for the
+     * next save and reach the change feed without a listener per record.
+     */
+    private void observeRecords() {
+        RecordObserver observer = new RecordObserver() {
+            @Override
+            public void bookChanged(Book book, String field, Object oldValue, Object newValue) {
+                bookStore.changed(book);
+                boolean loanField = field.equals("available") || field.equals("borrowedBy") || field.equals("dueDate");
+                changes.publish(loanField ? ChangeFeed.Kind.AVAILABILITY_CHANGED : ChangeFeed.Kind.BOOK_EDITED, book);
+                switch (field) {
+                    case "isbn" -> {
+                        booksByIsbn.keyChanged(book, (String) oldValue, (String) newValue);
+                        if (book.getBorrowedBy() != null) {
+                            moveLoan(book.getBorrowedBy(), (String) oldValue, book.getBorrowedBy(), (String) newValue);
+                        }
+                    }
+                    case "dueDate" -> loansByDueDate.dueDateChanged(book, (LocalDate) oldValue, (LocalDate) newValue);
+                    case "borrowedBy" -> {
+                        loansByBorrower.keyChanged(book, (String) oldValue, (String) newValue);
+                        moveLoan((String) oldValue, book.getIsbn(), (String) newValue, book.getIsbn());
+                    }
+                    case "title" -> {
+                        booksByTitle.keyChanged(book, (String) oldValue, (String) newValue);
+                        bookText.textChanged(book, (String) oldValue, book.getAuthor());
+                        titlesLike.keyChanged(book, (String) oldValue, (String) newValue);
+                        wordsLike.keyChanged(book, oldValue + " " + book.getAuthor(), newValue + " " + book.getAuthor());
+                    }
+                    case "author" -> {
+                        bookText.textChanged(book, book.getTitle(), (String) oldValue);
+                        wordsLike.keyChanged(book, book.getTitle() + " " + oldValue, book.getTitle() + " " + newValue);
+                    }
+                    default -> { }
+                }
+            }
+
+            @Override
+            public void userChanged(User user, String field, Object oldValue, Object newValue) {
+                userStore.changed(user);
+                changes.publish(ChangeFeed.Kind.USER_EDITED, user);
+                switch (field) {
+                    case "userId" -> usersById.keyChanged(user, (String) oldValue, (String) newValue);
+                    case "name" -> usersByName.keyChanged(user, (String) oldValue, (String) newValue);
+                    default -> { }
+                }
+            }
+        };
+
+        books.forEach(book -> book.attach(observer));
+        books.addListener((ListChangeListener<Book>) change -> {
+            while (change.next()) {
+                if (change.wasRemoved()) change.getRemoved().forEach(book -> {
+                    book.attach(null);
+                    bookStore.removed(book);
+                    changes.publish(ChangeFeed.Kind.BOOK_REMOVED, book);
+                });
+                if (change.wasAdded()) change.getAddedSubList().forEach(book -> {
+                    book.attach(observer);
+                    bookStore.added(book);
+                    changes.publish(ChangeFeed.Kind.BOOK_ADDED, book);
+                });
+            }
+        });
+        users.forEach(user -> user.attach(observer));
+        users.addListener((ListChangeListener<User>) change -> {
+            while (change.next()) {
+                if (change.wasRemoved()) change.getRemoved().forEach(user -> {
+                    user.attach(null);
+                    userStore.removed(user);
+                    changes.publish(ChangeFeed.Kind.USER_REMOVED, user);
+                });
+                if (change.wasAdded()) change.getAddedSubList().forEach(user -> {
+                    user.attach(observer);
+                    userStore.added(user);
+                    changes.publish(ChangeFeed.Kind.USER_ADDED, user);
+                });
+            }
+        });
+    }
+
+    /**
+     * Keeps the borrowers' checked-out lists in step with a change to a book's loan.
+     * Book.borrowedBy is the record of a loan; User.checkedOutBooks follows it from here.
+     *
+     * @param oldBorrower The ID of the user the book was lent to, or null.
+     * @param oldIsbn     The ISBN listed for that loan.
+     * @param newBorrower The ID of the user the book is now lent to, or null.
+     * @param newIsbn     The ISBN to list for the new loan.
+     */
+    private void moveLoan(String oldBorrower, String oldIsbn, String newBorrower, String newIsbn) {
+        if (oldBorrower != null) findUserById(oldBorrower).ifPresent(user -> user.returnBook(oldIsbn));
+        if (newBorrower != null) findUserById(newBorrower).ifPresent(user -> user.addCheckedOutBook(newIsbn));
+    }
+
+    /**
+     * Corrects any user whose checked-out list disagrees with the books lent to them,
+     * for instance ISBNs left behind by a book that was deleted or by an older version.
+     * @return The number of users corrected.
+     */
+    private int reconcileLoans() {
+        int corrected = 0;
+        for (User user : users) {
+            List<String> listed = new ArrayList<>(user.getCheckedOutBooks());
+            List<String> lent = new ArrayList<>();
+            for (Book book : findLoans(user.getUserId())) lent.add(book.getIsbn());
+            listed.sort(null);
+            lent.sort(null);
+            if (listed.equals(lent)) continue;
+
+            listed.forEach(user::returnBook);
+            lent.forEach(user::addCheckedOutBook);
+            corrected++;
+        }
+        return corrected;
+    }
+
+    /**
+     * Replays the circulation journal over the loaded snapshot, reconciles the users' loan
+     * lists, opens the journal for appending and schedules background compaction.
+     */
+    private void openJournal() {
+        CirculationJournal.replay(JOURNAL_FILE, books);
+        int corrected = reconcileLoans();
+        if (corrected > 0) {
+            System.err.println("Corrected the checked-out books of " + corrected + " users to match the catalog.");
+        }
+        try {
+            journal = new CirculationJournal(JOURNAL_FILE);
+        } catch (IOException e) {
+            System.err.println("Could not open the circulation journal: " + e.getMessage());
+            return;
+        }
+        writer.scheduleWithFixedDelay(() -> applicationThread.execute(this::compactJournal),
+                COMPACTION_INTERVAL_MINUTES, COMPACTION_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Folds the journal back into the data files.
+     * The changed records are captured and the journal marked on the JavaFX application thread;
+     * the files are written and the journal trimmed on the writer thread, so the desk never
+     * waits on the write. Only records changed since the last save are written.
+     */
+    private void compactJournal() {
+        if (journal.size() == 0 || compactionPending) return;
+
+        RecordStore.SaveTask saveBooks;
+        RecordStore.SaveTask saveUsers;
+        long journalMark;
+        checkpointLock.writeLock().lock();
+        try {
+            saveBooks = bookStore.prepareSave(books);
+            saveUsers = userStore.prepareSave(users);
+            journalMark = journal.mark();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+
+        compactionPending = true;
+        writer.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                saveBooks.run();
+                saveUsers.run();
+                journal.discardThrough(journalMark);
+                Metric.COMPACTION.record(start);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                compactionPending = false;
+            }
+        });
+    }
+
+    /**
+     * Finishes any write in progress, writes saves that are still waiting, and flushes the
+     * journal. Called once at JVM shutdown, when the lists are no longer being edited.
+     */
+    private void close() {
+        writer.shutdown();
+        boolean idle = false;
+        try {
+            idle = writer.awaitTermination(SHUTDOWN_WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (idle) {
+            bookSaves.flushNow();
+            userSaves.flushNow();
+        } else {
+            System.err.println("A data file write did not finish; unsaved catalog and user changes are lost.");
+        }
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write-behind saving for one list. A save request only marks the list dirty; a single
+     * write is scheduled, and every request made before it starts shares its result.
+     *
+     * @param <T> The record type.
+     */
+    private final class WriteBehind<T> {
+        private final List<T> list;
+        private final RecordStore<T> store;
+        private CompletableFuture<Void> pending; // The write not yet started; guarded by this
+
+        /**
+         * Creates the saver for a list.
+         *
+         * @param list  The live list.
+         * @param store Writes its changes to its files.
+         */
+        WriteBehind(List<T> list, RecordStore<T> store) {
+            this.list = list;
+            this.store = store;
+        }
+
+        /**
+         * Marks the list dirty, scheduling a write if none is waiting. Called on the application thread.
+         * @return The future of the write that will include the current contents.
+         */
+        synchronized CompletableFuture<Void> request() {
+            try {
+                requireLoaded();
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            if (pending == null) {
+                try {
+                    writer.schedule(() -> applicationThread.execute(this::startWrite), SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    return CompletableFuture.failedFuture(new IOException("The library is shutting down."));
+                }
+                pending = new CompletableFuture<>();
+            }
+            return pending;
+        }
+
+        /**
+         * Captures the changes on the application thread and hands the write to the writer thread.
+         */
+        private void startWrite() {
+            CompletableFuture<Void> done;
+            synchronized (this) {
+                done = pending;
+                pending = null;
+            }
+            if (done == null) return; // Already written by close()
+            RecordStore.SaveTask save;
+            try {
+                save = prepareSave();
+            } catch (IOException e) {
+                done.completeExceptionally(e);
+                return;
+            }
+            try {
+                writer.execute(() -> {
+                    try {
+                        save.run();
+                        applicationThread.execute(() -> done.complete(null));
+                    } catch (IOException | RuntimeException e) {
+                        applicationThread.execute(() -> done.completeExceptionally(e));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down after the changes were captured, so write them here
+                runNow(save, done);
+            }
+        }
+
+        /**
+         * Writes the list's changes now if a save is still waiting. Called from close().
+         */
+        void flushNow() {
+            CompletableFuture<Void> done;
+            synchronized (this) {
+                done = pending;
+                pending = null;
+            }
+            if (done == null) return;
+            try {
+                runNow(prepareSave(), done);
+            } catch (IOException e) {
+                e.printStackTrace();
+                done.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Captures the list's changes while no circulation change is half-applied.
+         * @return The write of those changes.
+         * @throws IOException If the changes cannot be captured.
+         */
+        private RecordStore.SaveTask prepareSave() throws IOException {
+            checkpointLock.writeLock().lock();
+            try {
+                return store.prepareSave(list);
+            } finally {
+                checkpointLock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Runs a captured write on the calling thread.
+         *
+         * @param save The write.
+         * @param done Completed with its outcome.
+         */
+        private void runNow(RecordStore.SaveTask save, CompletableFuture<Void> done) {
+            try {
+                save.run();
+                done.complete(null);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                done.completeExceptionally(e);
+            }
+        }
+    }
+}
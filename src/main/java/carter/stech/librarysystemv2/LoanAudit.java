@@ -0,0 +1,65 @@
+package carter.stech.librarysystemv2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Checks that the books and users agree about every loan:
+ * <ul>
+ *     <li>a book is on loan exactly when it has a borrower and a due date;</li>
+ *     <li>every user's checked-out list matches the books lent to them;</li>
+ *     <li>no user is over the checkout limit;</li>
+ *     <li>optionally, the number of books on loan is what the caller expects.</li>
+ * </ul>
+ * Used by the stress check and the load test once their desks have stopped.
+ */
+public final class LoanAudit {
+    /**
+     * Not instantiable.
+     */
+    private LoanAudit() {
+    }
+
+    /**
+     * Audits the repository's loans. Run on the application thread.
+     *
+     * @param repository     The repository.
+     * @param expectedOnLoan The number of books that should be on loan, or -1 not to check.
+     * @return A description of each problem found; empty if none.
+     */
+    public static List<String> check(LibraryRepository repository, long expectedOnLoan) {
+        List<String> problems = new ArrayList<>();
+        Map<String, List<String>> lent = new HashMap<>();
+        long onLoan = 0;
+        for (Book book : repository.getBooks()) {
+            boolean hasBorrower = book.getBorrowedBy() != null;
+            if (book.isAvailable() == hasBorrower || hasBorrower != (book.getDueDate() != null)) {
+                problems.add("Book " + book.getIsbn() + " is half lent: available=" + book.isAvailable()
+                        + ", borrowedBy=" + book.getBorrowedBy() + ", dueDate=" + book.getDueDate());
+            }
+            if (hasBorrower) {
+                onLoan++;
+                lent.computeIfAbsent(book.getBorrowedBy(), id -> new ArrayList<>()).add(book.getIsbn());
+            }
+        }
+        for (User user : repository.getUsers()) {
+            List<String> listed = new ArrayList<>(user.getCheckedOutBooks());
+            List<String> actual = lent.getOrDefault(user.getUserId(), new ArrayList<>());
+            listed.sort(null);
+            actual.sort(null);
+            if (!Objects.equals(listed, actual)) {
+                problems.add("User " + user.getUserId() + " lists " + listed + " but has " + actual);
+            }
+            if (actual.size() > CirculationService.CHECKOUT_LIMIT) {
+                problems.add("User " + user.getUserId() + " has " + actual.size() + " books, over the limit");
+            }
+        }
+        if (expectedOnLoan >= 0 && onLoan != expectedOnLoan) {
+            problems.add(onLoan + " books are on loan, but " + expectedOnLoan + " should be");
+        }
+        return problems;
+    }
+}
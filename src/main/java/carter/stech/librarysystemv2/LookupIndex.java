@@ -0,0 +1,280 @@
+package carter.stech.librarysystemv2;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * A hash index over one string key of the items in an observable list.
+ * The index follows the list as items are added and removed, and is told about key edits
+ * through {@link #keyChanged}, so lookups stay constant-time without rescanning.
+ * Lookups may run on any thread; the index itself is updated on the thread that edits the list.
+ * <p>
+ * It can also list the keys starting with some text, for suggestions as the text is typed.
+ * For that the keys are copied into a sorted array the first time they are asked for, where
+ * the keys with a prefix are next to each other and found with a binary search. Keys added
+ * after that go into a small sorted set beside the array, and once enough keys have come
+ * and gone the array is sorted again on the next lookup.
+ *
+ * @param <T> The type of item indexed.
+ */
+public class LookupIndex<T> {
+    private static final int MAX_UNSORTED = 1 << 16; // Keys added or removed since sorting before sorting again
+
+    private final Function<T, String> key;
+    private final boolean caseInsensitive;
+    private final Map<String, Object> entries = new HashMap<>(); // An item, or a Bucket when several share a key
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private String[] sorted;                                 // Every key, sorted; null until prefixes are first looked up
+    private final TreeSet<String> recent = new TreeSet<>();  // Keys added since sorting
+    private int removedSinceSorting;
+
+    /**
+     * Items that share a key, in the order they were indexed.
+     */
+    private static final class Bucket extends ArrayList<Object> {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Creates an index and fills it from the list's current contents.
+     *
+     * @param items           The list to index.
+     * @param key             Gets the key of an item.
+     * @param caseInsensitive Whether keys are compared ignoring case.
+     */
+    public LookupIndex(ObservableList<T> items, Function<T, String> key, boolean caseInsensitive) {
+        this.key = key;
+        this.caseInsensitive = caseInsensitive;
+        items.forEach(this::track);
+        items.addListener((ListChangeListener<T>) change -> {
+            while (change.next()) {
+                if (change.wasRemoved()) change.getRemoved().forEach(this::untrack);
+                if (change.wasAdded()) change.getAddedSubList().forEach(this::track);
+            }
+        });
+    }
+
+    /**
+     * Gets the first item indexed under a key.
+     *
+     * @param key The key to look up.
+     * @return The first matching item, or null if there is none.
+     */
+    public T first(String key) {
+        lock.readLock().lock();
+        try {
+            Object entry = entries.get(normalize(key));
+            return entry == null ? null : firstOf(entry);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets every item indexed under a key.
+     *
+     * @param key The key to look up.
+     * @return The matching items, in the order they were indexed; empty if there are none.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> all(String key) {
+        lock.readLock().lock();
+        try {
+            Object entry = entries.get(normalize(key));
+            if (entry == null) return List.of();
+            if (entry instanceof Bucket bucket) return (List<T>) List.copyOf(bucket);
+            return List.of((T) entry);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lists the keys that start with some text, in order, as the first item under each has it.
+     * Takes time proportional to the keys listed, not to the number of keys.
+     *
+     * @param prefix The start of the key, compared as keys are.
+     * @param limit  The most keys to list.
+     * @return The keys; empty if the prefix is empty.
+     */
+    public List<String> keysStartingWith(String prefix, int limit) {
+        List<String> keys = new ArrayList<>();
+        if (prefix == null || prefix.isEmpty() || limit <= 0) return keys;
+        String start = normalize(prefix);
+        sortIfStale();
+        lock.readLock().lock();
+        try {
+            // Walk the sorted array and the recent keys together, like the two halves of a merge
+            int position = Arrays.binarySearch(sorted, start);
+            if (position < 0) position = -position - 1;
+            Iterator<String> added = recent.tailSet(start).iterator();
+            String next = added.hasNext() ? added.next() : null;
+            String last = null;
+            while (keys.size() < limit) {
+                String fromArray = position < sorted.length && sorted[position].startsWith(start) ? sorted[position] : null;
+                String fromRecent = next != null && next.startsWith(start) ? next : null;
+                if (fromArray == null && fromRecent == null) break;
+                String candidate;
+                if (fromRecent == null || (fromArray != null && fromArray.compareTo(fromRecent) <= 0)) {
+                    candidate = fromArray;
+                    position++;
+                } else {
+                    candidate = fromRecent;
+                    next = added.hasNext() ? added.next() : null;
+                }
+                // A key removed since sorting is still in the array; one removed and added again is in both
+                if (candidate.equals(last)) continue;
+                last = candidate;
+                Object entry = entries.get(candidate);
+                if (entry != null) keys.add(key.apply(firstOf(entry)));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return keys;
+    }
+
+    /**
+     * Sorts the keys again if they never have been, or if enough have been added or removed
+     * since that the recent set or the stale keys in the array grow too large. Runs on the
+     * first {@link #keysStartingWith}, or earlier to spare that lookup the wait.
+     */
+    void sortIfStale() {
+        lock.readLock().lock();
+        try {
+            if (sorted != null && recent.size() + removedSinceSorting <= MAX_UNSORTED) return;
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            if (sorted != null && recent.size() + removedSinceSorting <= MAX_UNSORTED) return;
+            String[] keys = entries.keySet().toArray(new String[0]);
+            Arrays.sort(keys);
+            sorted = keys;
+            recent.clear();
+            removedSinceSorting = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves an item whose key was edited.
+     *
+     * @param item   The edited item.
+     * @param oldKey The key it is indexed under.
+     * @param newKey The key it now has.
+     */
+    public void keyChanged(T item, String oldKey, String newKey) {
+        lock.writeLock().lock();
+        try {
+            remove(oldKey, item);
+            put(newKey, item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes an item added to the list.
+     * @param item The item added to the list.
+     */
+    private void track(T item) {
+        lock.writeLock().lock();
+        try {
+            put(key.apply(item), item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an item from the index.
+     * @param item The item removed from the list.
+     */
+    private void untrack(T item) {
+        lock.writeLock().lock();
+        try {
+            remove(key.apply(item), item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds an item under a key.
+     *
+     * @param key  The raw key.
+     * @param item The item.
+     */
+    private void put(String key, T item) {
+        if (key == null) return;
+        String normalized = normalize(key);
+        Object entry = entries.merge(normalized, item, (existing, added) -> {
+            Bucket bucket;
+            if (existing instanceof Bucket b) {
+                bucket = b;
+            } else {
+                bucket = new Bucket();
+                bucket.add(existing);
+            }
+            bucket.add(added);
+            return bucket;
+        });
+        if (entry == item && sorted != null) recent.add(normalized); // A new key, not in the sorted array yet
+    }
+
+    /**
+     * Removes an item from under a key.
+     *
+     * @param key  The raw key.
+     * @param item The item.
+     */
+    private void remove(String key, T item) {
+        if (key == null) return;
+        String normalized = normalize(key);
+        if (!entries.containsKey(normalized)) return;
+        Object remaining = entries.computeIfPresent(normalized, (k, existing) -> {
+            if (!(existing instanceof Bucket bucket)) return existing == item ? null : existing;
+            bucket.removeIf(candidate -> candidate == item);
+            if (bucket.size() == 1) return bucket.get(0);
+            return bucket.isEmpty() ? null : bucket;
+        });
+        if (remaining == null && sorted != null && !recent.remove(normalized)) removedSinceSorting++;
+    }
+
+    /**
+     * Gets the first item of an entry.
+     * @param entry An item, or a Bucket.
+     * @return The item indexed first.
+     */
+    @SuppressWarnings("unchecked")
+    private T firstOf(Object entry) {
+        if (entry instanceof Bucket bucket) return (T) bucket.get(0);
+        return (T) entry;
+    }
+
+    /**
+     * Folds a key to the form it is stored under.
+     *
+     * @param key The raw key.
+     * @return The stored key.
+     */
+    private String normalize(String key) {
+        if (key == null) return null;
+        return caseInsensitive ? key.toLowerCase(Locale.ROOT) : key;
+    }
+}
@@ -1,8 +1,12 @@
 package carter.stech.librarysystemv2;
 
+import java.util.Arrays;
+
 /**
  * The main entry point for the standalone JAR application.
- * This class is responsible for launching the MasterApp.
+ * This class is responsible for launching the MasterApp, or with {@code --server [port] [address]}
+ * the headless circulation server instead, or with {@code --generate [options]} the
+ * dataset generator.
  */
 public class Main {
     /**
@@ -11,6 +15,14 @@ public class Main {
      * @param args Command-line arguments.
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--server")) {
+            CirculationServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--generate")) {
+            DatasetGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         MasterApp.main(args);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,12 +1,18 @@
 package carter.stech.librarysystemv2;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
+import javafx.scene.control.ToggleButton;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 /**
  * The Master Application that serves as the main menu for launching different
  * components of the Library System.
@@ -20,6 +26,16 @@ public class MasterApp extends Application {
      */
     @Override
     public void start(Stage primaryStage) {
+        // Open the library up front, so a data folder already in use is reported before anything else
+        try {
+            LibraryRepository.getInstance();
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+            showAlert(Alert.AlertType.ERROR, "Library Already Open", e.getMessage());
+            Platform.exit();
+            return;
+        }
+
         VBox root = new VBox(15);
         root.setAlignment(Pos.CENTER);
 
@@ -35,8 +51,15 @@ public class MasterApp extends Application {
         Button catalogingButton = new Button("Open Cataloging System");
         catalogingButton.setOnAction(e -> launchApp("CatalogingApp"));
 
-        root.getChildren().addAll(circulationButton, bookBrowserButton,  userRegistrationButton, catalogingButton);
-        Scene scene = new Scene(root, 300, 200);
+        Button performanceButton = new Button("Open Performance Monitor");
+        performanceButton.setOnAction(e -> launchApp("PerformanceApp"));
+
+        ToggleButton recordingButton = new ToggleButton("Start Flight Recording");
+        recordingButton.setOnAction(e -> toggleRecording(recordingButton));
+
+        root.getChildren().addAll(circulationButton, bookBrowserButton,  userRegistrationButton, catalogingButton,
+                performanceButton, recordingButton);
+        Scene scene = new Scene(root, 300, 290);
         scene.getStylesheets().add(getClass().getResource("/styles.css").toExternalForm());
 
         primaryStage.setTitle("Library System - Master Control");
@@ -63,6 +86,46 @@ public class MasterApp extends Application {
         }
     }
 
+    /**
+     * Starts or stops the flight recording, to capture what the system is doing while a
+     * problem is reproduced. When it stops, the file it was saved to is shown.
+     *
+     * @param button The toggle, selected while recording.
+     */
+    private void toggleRecording(ToggleButton button) {
+        try {
+            if (button.isSelected()) {
+                FlightRecording.start();
+                button.setText("Stop Flight Recording");
+            } else {
+                Path file = FlightRecording.stop();
+                button.setText("Start Flight Recording");
+                showAlert(Alert.AlertType.INFORMATION, "Flight Recording Saved",
+                        "The recording was saved to " + file + ". Open it in JDK Mission Control, or send it with your report.");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            button.setSelected(FlightRecording.isRecording());
+            button.setText(FlightRecording.isRecording() ? "Stop Flight Recording" : "Start Flight Recording");
+            showAlert(Alert.AlertType.ERROR, "Flight Recording Failed", e.getMessage());
+        }
+    }
+
+    /**
+     * Displays an alert dialog with a given message.
+     *
+     * @param type    The type of alert.
+     * @param title   The title of the alert.
+     * @param message The message to display.
+     */
+    private void showAlert(Alert.AlertType type, String title, String message) {
+        Alert alert = new Alert(type);
+        alert.setTitle(title);
+        alert.setHeaderText(null);
+        alert.setContentText(message);
+        alert.showAndWait();
+    }
+
     /**
      * The main method to launch the JavaFX application.
      *
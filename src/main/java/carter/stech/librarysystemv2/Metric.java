@@ -0,0 +1,150 @@
+package carter.stech.librarysystemv2;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The timed operations, each with a latency histogram and a count of the bytes it read or
+ * wrote. Recording is a clock read, a few atomic adds and nothing allocated:
+ * <pre>{@code
+ * long start = System.nanoTime();
+ * ... the operation ...
+ * Metric.SEARCH.record(start);
+ * }</pre>
+ * The Performance window shows them live, and {@link #startLogging} appends each interval's
+ * figures to a CSV file.
+ */
+public enum Metric {
+    SEARCH("Search"),
+    SUGGEST("Suggestions"),             // One keystroke's autocomplete lookup
+    CHECKOUT("Checkout"),               // One scan or batch, including its journal write
+    CHECK_IN("Check-in"),
+    JOURNAL_APPEND("Journal append"),
+    JOURNAL_SYNC("Journal sync"),       // The group fsync
+    SAVE("Save"),                       // One list's delta or snapshot write
+    LOAD("Load"),                       // One list's snapshot and delta read at startup
+    COMPACTION("Journal compaction"),
+    SERVER_REQUEST("Server request");
+
+    private static final String LOG_HEADER =
+            "time,operation,count,per_second,p50_us,p90_us,p99_us,p999_us,max_us,mean_us,bytes";
+    private static ScheduledExecutorService logger; // Guarded by Metric.class
+
+    private final String label;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder bytes = new LongAdder();
+
+    /**
+     * Creates a metric.
+     * @param label Its name in the Performance window and the log.
+     */
+    Metric(String label) {
+        this.label = label;
+    }
+
+    /**
+     * Gets the metric's display name.
+     * @return The label.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Records an operation that has just finished.
+     * @param startNanos Its {@link System#nanoTime()} when it started.
+     */
+    public void record(long startNanos) {
+        latency.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records an operation that has just finished, with the bytes it read or wrote.
+     *
+     * @param startNanos Its {@link System#nanoTime()} when it started.
+     * @param byteCount  The bytes it moved.
+     */
+    public void record(long startNanos, long byteCount) {
+        latency.record(System.nanoTime() - startNanos);
+        bytes.add(byteCount);
+    }
+
+    /**
+     * Copies the latencies recorded so far.
+     * @return The snapshot.
+     */
+    public LatencyHistogram.Snapshot latency() {
+        return latency.snapshot();
+    }
+
+    /**
+     * Gets the bytes read or written so far.
+     * @return The byte count.
+     */
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Starts appending every metric used in each interval to a CSV file, one row per metric,
+     * with that interval's count, rate, percentiles and bytes. Does nothing if already started.
+     *
+     * @param file            The log file; a header is written if it is new.
+     * @param intervalSeconds How often to write; 0 or less turns logging off.
+     */
+    public static synchronized void startLogging(Path file, long intervalSeconds) {
+        if (logger != null || intervalSeconds <= 0) return;
+        logger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "library-metrics-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<Metric, LatencyHistogram.Snapshot> lastLatency = new EnumMap<>(Metric.class);
+        Map<Metric, Long> lastBytes = new EnumMap<>(Metric.class);
+        for (Metric metric : values()) {
+            lastLatency.put(metric, metric.latency());
+            lastBytes.put(metric, metric.bytes());
+        }
+        logger.scheduleAtFixedRate(() -> {
+            StringBuilder rows = new StringBuilder();
+            String time = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+            for (Metric metric : values()) {
+                LatencyHistogram.Snapshot now = metric.latency();
+                long byteCount = metric.bytes();
+                LatencyHistogram.Snapshot interval = now.since(lastLatency.put(metric, now));
+                long intervalBytes = byteCount - lastBytes.put(metric, byteCount);
+                if (interval.count() == 0) continue;
+                rows.append(String.format(Locale.ROOT, "%s,%s,%d,%.2f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%d%n", time, metric.label,
+                        interval.count(), interval.count() / (double) intervalSeconds,
+                        interval.percentile(50) / 1e3, interval.percentile(90) / 1e3,
+                        interval.percentile(99) / 1e3, interval.percentile(99.9) / 1e3,
+                        interval.maxNanos() / 1e3, interval.meanNanos() / 1e3, intervalBytes));
+            }
+            if (rows.isEmpty()) return;
+            try {
+                boolean fresh = !Files.exists(file);
+                try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    if (fresh) out.write(LOG_HEADER + System.lineSeparator());
+                    out.write(rows.toString());
+                }
+            } catch (IOException e) {
+                e.printStackTrace(); // This interval's rows are lost; the next are still written
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+}
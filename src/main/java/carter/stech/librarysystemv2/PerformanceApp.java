@@ -0,0 +1,175 @@
+package carter.stech.librarysystemv2;
+
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Application;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A JavaFX window showing how long the library's operations take: for each kind of operation,
+ * how many have run, how many per second right now, latency percentiles and the bytes read or
+ * written. It refreshes every second; Reset starts the figures again from zero.
+ */
+public class PerformanceApp extends Application {
+    private static final Duration REFRESH_INTERVAL = Duration.seconds(1);
+
+    private TableView<Row> tableView;
+    private Timeline refresher;
+    private final Map<Metric, LatencyHistogram.Snapshot> baseline = new EnumMap<>(Metric.class);
+    private final Map<Metric, Long> baselineBytes = new EnumMap<>(Metric.class);
+    private final Map<Metric, Long> lastCount = new EnumMap<>(Metric.class);
+    private long lastRefresh;
+
+    /**
+     * One operation's figures, formatted for the table.
+     *
+     * @param operation The operation.
+     * @param count     How many have run.
+     * @param rate      How many per second since the last refresh.
+     * @param p50       The median latency.
+     * @param p90       The 90th percentile latency.
+     * @param p99       The 99th percentile latency.
+     * @param p999      The 99.9th percentile latency.
+     * @param max       The longest.
+     * @param mean      The mean latency.
+     * @param bytes     The bytes read or written.
+     */
+    private record Row(String operation, String count, String rate, String p50, String p90, String p99,
+                       String p999, String max, String mean, String bytes) { }
+
+    /**
+     * Starts the JavaFX application and initializes the UI.
+     *
+     * @param primaryStage The primary stage for this application.
+     */
+    @Override
+    public void start(Stage primaryStage) {
+        tableView = new TableView<>();
+        tableView.getColumns().addAll(List.of(
+                column("Operation", Row::operation, 150),
+                column("Count", Row::count, 80),
+                column("Per sec", Row::rate, 70),
+                column("p50", Row::p50, 80),
+                column("p90", Row::p90, 80),
+                column("p99", Row::p99, 80),
+                column("p99.9", Row::p999, 80),
+                column("Max", Row::max, 80),
+                column("Mean", Row::mean, 80),
+                column("Bytes", Row::bytes, 90)));
+        tableView.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
+
+        Button resetButton = new Button("Reset");
+        resetButton.setOnAction(e -> reset());
+        Label note = new Label("Each interval's figures are also appended to performance.csv beside the data files.");
+        HBox bottomBox = new HBox(10, resetButton, note);
+        bottomBox.setAlignment(Pos.CENTER_LEFT);
+        bottomBox.setPadding(new Insets(10));
+
+        BorderPane root = new BorderPane();
+        root.setCenter(tableView);
+        root.setBottom(bottomBox);
+
+        refresher = new Timeline(new KeyFrame(REFRESH_INTERVAL, e -> refresh()));
+        refresher.setCycleCount(Timeline.INDEFINITE);
+        primaryStage.setOnHidden(e -> refresher.stop());
+        refresh();
+        refresher.play();
+
+        Scene scene = new Scene(root, 900, 360);
+        scene.getStylesheets().add(getClass().getResource("/styles.css").toExternalForm());
+        primaryStage.setTitle("Library Performance");
+        primaryStage.setScene(scene);
+        primaryStage.show();
+    }
+
+    /**
+     * Makes a text column.
+     *
+     * @param title The header.
+     * @param value Gets the cell text from a row.
+     * @param width The preferred width.
+     * @return The column.
+     */
+    private static TableColumn<Row, String> column(String title, Function<Row, String> value, double width) {
+        TableColumn<Row, String> column = new TableColumn<>(title);
+        column.setCellValueFactory(data -> new SimpleStringProperty(value.apply(data.getValue())));
+        column.setPrefWidth(width);
+        column.setSortable(false);
+        return column;
+    }
+
+    /**
+     * Starts every figure again from now.
+     */
+    private void reset() {
+        for (Metric metric : Metric.values()) {
+            baseline.put(metric, metric.latency());
+            baselineBytes.put(metric, metric.bytes());
+        }
+        lastCount.clear();
+        refresh();
+    }
+
+    /**
+     * Reads every metric and redraws the table.
+     */
+    private void refresh() {
+        long now = System.nanoTime();
+        double seconds = lastRefresh == 0 ? 0 : (now - lastRefresh) / 1e9;
+        lastRefresh = now;
+
+        List<Row> rows = new ArrayList<>();
+        for (Metric metric : Metric.values()) {
+            LatencyHistogram.Snapshot latency = metric.latency();
+            if (baseline.containsKey(metric)) latency = latency.since(baseline.get(metric));
+            long bytes = metric.bytes() - baselineBytes.getOrDefault(metric, 0L);
+            Long previous = lastCount.put(metric, latency.count());
+            String rate = previous == null || seconds == 0 ? "" : String.format(Locale.ROOT, "%.1f", (latency.count() - previous) / seconds);
+            if (latency.count() == 0) {
+                rows.add(new Row(metric.getLabel(), "0", rate, "", "", "", "", "", "", ""));
+                continue;
+            }
+            rows.add(new Row(metric.getLabel(), String.valueOf(latency.count()), rate,
+                    LatencyHistogram.format(latency.percentile(50)), LatencyHistogram.format(latency.percentile(90)),
+                    LatencyHistogram.format(latency.percentile(99)), LatencyHistogram.format(latency.percentile(99.9)),
+                    LatencyHistogram.format(latency.maxNanos()), LatencyHistogram.format((long) latency.meanNanos()),
+                    bytes == 0 ? "" : formatBytes(bytes)));
+        }
+        tableView.getItems().setAll(rows);
+    }
+
+    /**
+     * Formats a byte count in the unit that suits it.
+     * @param bytes The byte count.
+     * @return The text, such as "512 B", "48.0 KB" or "1.2 GB".
+     */
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        String units = "KMGT";
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length() - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format(Locale.ROOT, "%.1f %cB", value, units.charAt(unit));
+    }
+}
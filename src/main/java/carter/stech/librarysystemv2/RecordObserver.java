@@ -0,0 +1,29 @@
+package carter.stech.librarysystemv2;
+
+/**
+ * Receives every field change made to the books and users a repository owns.
+ * Book and User report changes from their setters and from their lazily created
+ * properties alike, so observers never need a property listener on each record.
+ */
+interface RecordObserver {
+    /**
+     * Called after a book field changes.
+     *
+     * @param book     The book that changed.
+     * @param field    The property name of the field, e.g. "isbn" or "available".
+     * @param oldValue The previous value.
+     * @param newValue The new value.
+     */
+    void bookChanged(Book book, String field, Object oldValue, Object newValue);
+
+    /**
+     * Called after a user field changes.
+     *
+     * @param user     The user that changed.
+     * @param field    The property name of the field, e.g. "userId" or "name". For "checkedOutBooks",
+     *                 a checkout has the new ISBN as newValue and a return has the ISBN as oldValue.
+     * @param oldValue The previous value.
+     * @param newValue The new value.
+     */
+    void userChanged(User user, String field, Object oldValue, Object newValue);
+}
@@ -0,0 +1,488 @@
+package carter.stech.librarysystemv2;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Incremental persistence for one record list (books or users).
+ * <p>
+ * The list is stored as a full snapshot (JSON, or a {@link BinarySnapshot} if one exists)
+ * plus a delta file of JSON lines. Every stored record has a slot: its position in the
+ * snapshot, or a number past the end for records added since. A save appends one line per
+ * record that changed, was added or was removed, so its cost follows the number of changes
+ * rather than the size of the catalog. Once the delta grows large relative to the list,
+ * the next save writes a fresh snapshot instead and starts an empty delta.
+ * <p>
+ * The first line of the delta records the size and modification time of the snapshot it
+ * applies to. A delta that does not match the snapshot (for instance when a crash came
+ * between writing a new snapshot and resetting the delta, whose changes the snapshot then
+ * already holds) is ignored.
+ * <p>
+ * Dirty tracking and save preparation are synchronized, since circulation changes may mark
+ * records dirty from any thread; saves are still prepared on the application thread.
+ * Loading happens on the loader thread and the prepared writes run on the writer thread,
+ * one at a time. A save captures everything it writes when it is prepared, a snapshot
+ * included, so the writer thread never reads the live records.
+ * <p>
+ * Preparing a save renumbers and clears the bookkeeping ahead of the write, so that saves
+ * prepared behind it carry on from there. If a write fails, the files may no longer match
+ * that bookkeeping: the writes prepared behind it are dropped, and the next save writes a
+ * full snapshot, which numbers every record afresh.
+ *
+ * @param <T> The record type.
+ */
+public class RecordStore<T> {
+    private static final int MIN_DELTA_BEFORE_SNAPSHOT = 1000;
+    private static final int SNAPSHOT_DELTA_DIVISOR = 4; // Snapshot once the delta exceeds a quarter of the list
+    private static final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    private final Class<T> type;
+    private final Path jsonFile;
+    private final Path binaryFile;
+    private final Path deltaFile;
+    private final ToIntFunction<T> slotOf;
+    private final ObjIntConsumer<T> setSlot;
+
+    // Guarded by this
+    private final Set<T> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<Integer> removedSlots = new ArrayList<>();
+    private int nextSlot;
+    private int deltaEntries;
+    private boolean deltaNeedsHeader = true; // The delta is missing or stale and must be restarted
+    private boolean snapshotDue;             // A write failed, so the next save rewrites the files in full
+    private int failedWrites;                // Writes prepared before a failure do not run after it
+
+    /**
+     * A write prepared on the application thread, to be run on the writer thread.
+     */
+    @FunctionalInterface
+    public interface SaveTask {
+        /**
+         * Performs the write.
+         * @throws IOException If the file could not be written.
+         */
+        void run() throws IOException;
+    }
+
+    /**
+     * Creates the store for one kind of record.
+     *
+     * @param type       The record class.
+     * @param jsonFile   The JSON snapshot.
+     * @param binaryFile The binary snapshot, used instead of the JSON one when it exists.
+     * @param deltaFile  The file of changes since the snapshot.
+     * @param slotOf     Gets a record's slot.
+     * @param setSlot    Sets a record's slot.
+     */
+    public RecordStore(Class<T> type, Path jsonFile, Path binaryFile, Path deltaFile,
+                       ToIntFunction<T> slotOf, ObjIntConsumer<T> setSlot) {
+        this.type = type;
+        this.jsonFile = jsonFile;
+        this.binaryFile = binaryFile;
+        this.deltaFile = deltaFile;
+        this.slotOf = slotOf;
+        this.setSlot = setSlot;
+    }
+
+    /**
+     * Streams the stored records, with the delta applied, in slot order.
+     * Records are handed over with their slots set, so adding them to the list does not mark them dirty.
+     * Called once, on the loader thread, before any other method.
+     *
+     * @param chunkSize The most records per chunk.
+     * @param sink      Receives the records in chunks.
+     * @throws IOException If a file exists but cannot be read.
+     */
+    public void load(int chunkSize, Consumer<List<T>> sink) throws IOException {
+        long loadStart = System.nanoTime();
+        LibraryEvents.Load event = new LibraryEvents.Load();
+        event.begin();
+        Map<Integer, T> delta = readDelta(); // Slot to record, or to null for a removal
+        int[] slot = {0};
+        int[] loaded = {0};
+        Consumer<List<T>> patched = chunk -> {
+            List<T> out = new ArrayList<>(chunk.size());
+            for (T record : chunk) {
+                int current = slot[0]++;
+                if (delta.containsKey(current)) record = delta.remove(current);
+                if (record == null) continue;
+                setSlot.accept(record, current);
+                out.add(record);
+            }
+            loaded[0] += out.size();
+            if (!out.isEmpty()) sink.accept(out);
+        };
+
+        boolean binary = Files.exists(binaryFile);
+        if (binary) {
+            List<T> records = readBinary();
+            for (int start = 0; start < records.size(); start += chunkSize) {
+                patched.accept(new ArrayList<>(records.subList(start, Math.min(start + chunkSize, records.size()))));
+            }
+        } else if (Files.exists(jsonFile)) {
+            JsonRecords.read(jsonFile, type, chunkSize, patched);
+        }
+
+        // What is left in the delta was added after the snapshot, in slot order
+        nextSlot = slot[0];
+        List<T> added = new ArrayList<>();
+        for (Map.Entry<Integer, T> entry : delta.entrySet()) {
+            nextSlot = Math.max(nextSlot, entry.getKey() + 1);
+            if (entry.getValue() == null) continue;
+            setSlot.accept(entry.getValue(), entry.getKey());
+            added.add(entry.getValue());
+        }
+        if (!added.isEmpty()) sink.accept(added);
+
+        long bytes = storedBytes();
+        Metric.LOAD.record(loadStart, bytes);
+        if (event.shouldCommit()) {
+            event.list = listName();
+            event.format = binary ? "binary" : "json";
+            event.records = loaded[0] + added.size();
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    /**
+     * Notes a record added to the list. Records without a slot are new and are saved next time.
+     * @param record The added record.
+     */
+    public synchronized void added(T record) {
+        if (slotOf.applyAsInt(record) < 0) {
+            setSlot.accept(record, nextSlot++);
+            dirty.add(record);
+        }
+    }
+
+    /**
+     * Notes a record removed from the list.
+     * @param record The removed record.
+     */
+    public synchronized void removed(T record) {
+        int slot = slotOf.applyAsInt(record);
+        if (slot < 0) return;
+        dirty.remove(record);
+        removedSlots.add(slot);
+        setSlot.accept(record, -1);
+    }
+
+    /**
+     * Notes that a field of a record changed.
+     * @param record The edited record.
+     */
+    public synchronized void changed(T record) {
+        if (slotOf.applyAsInt(record) >= 0) dirty.add(record);
+    }
+
+    /**
+     * Gets the number of records changed since the last save was prepared.
+     * @return The number of dirty records, counting removals.
+     */
+    public synchronized int dirtyCount() {
+        return dirty.size() + removedSlots.size();
+    }
+
+    /**
+     * Captures everything that changed since the last save. The changed records are encoded
+     * here, on the application thread, so the returned write sees them as they are now.
+     *
+     * @param list The live list, in case a full snapshot is due.
+     * @return The write to run on the writer thread; does nothing if there are no changes.
+     * @throws IOException If a record cannot be encoded.
+     */
+    public synchronized SaveTask prepareSave(List<T> list) throws IOException {
+        if (snapshotDue) return prepareSnapshot(list);
+        if (dirty.isEmpty() && removedSlots.isEmpty()) return () -> { };
+
+        int pending = deltaEntries + dirtyCount();
+        if (pending > Math.max(MIN_DELTA_BEFORE_SNAPSHOT, list.size() / SNAPSHOT_DELTA_DIVISOR)) {
+            return prepareSnapshot(list);
+        }
+
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        for (int slot : removedSlots) {
+            lines.write(("{\"slot\":" + slot + ",\"record\":null}\n").getBytes(StandardCharsets.UTF_8));
+        }
+        for (T record : dirty) {
+            lines.write(("{\"slot\":" + slotOf.applyAsInt(record) + ",\"record\":").getBytes(StandardCharsets.UTF_8));
+            objectMapper.writeValue(lines, record);
+            lines.write("}\n".getBytes(StandardCharsets.UTF_8));
+        }
+        int records = dirtyCount();
+        deltaEntries += records;
+        dirty.clear();
+        removedSlots.clear();
+
+        byte[] bytes = lines.toByteArray();
+        if (deltaNeedsHeader) {
+            deltaNeedsHeader = false;
+            return guarded(() -> {
+                long start = System.nanoTime();
+                LibraryEvents.Save event = new LibraryEvents.Save();
+                event.begin();
+                restartDelta(bytes);
+                recordSave(start, event, "delta", records, bytes.length);
+            });
+        }
+        return guarded(() -> {
+            long start = System.nanoTime();
+            LibraryEvents.Save event = new LibraryEvents.Save();
+            event.begin();
+            appendDelta(bytes);
+            recordSave(start, event, "delta", records, bytes.length);
+        });
+    }
+
+    /**
+     * Renumbers every record to its list position and captures a full snapshot.
+     * The records are copied here, so the write does not race with later edits.
+     *
+     * @param list The live list.
+     * @return The write of the snapshot and a fresh delta.
+     */
+    private SaveTask prepareSnapshot(List<T> list) {
+        List<T> snapshot = new ArrayList<>(list.size());
+        for (T record : list) {
+            setSlot.accept(record, snapshot.size());
+            snapshot.add(detach(record));
+        }
+        nextSlot = snapshot.size();
+        deltaEntries = 0;
+        deltaNeedsHeader = false;
+        snapshotDue = false;
+        dirty.clear();
+        removedSlots.clear();
+        return guarded(() -> {
+            long start = System.nanoTime();
+            LibraryEvents.Save event = new LibraryEvents.Save();
+            event.begin();
+            if (Files.exists(binaryFile)) {
+                writeBinary(snapshot);
+            } else {
+                JsonRecords.write(jsonFile, snapshot);
+            }
+            restartDelta(new byte[0]);
+            recordSave(start, event, "snapshot", snapshot.size(), storedBytes());
+        });
+    }
+
+    /**
+     * Wraps a prepared write so that a failure schedules a full snapshot, and so that it does
+     * not run at all if a write before it failed, since it was prepared from bookkeeping the
+     * files no longer match.
+     *
+     * @param write The write.
+     * @return The guarded write.
+     */
+    private SaveTask guarded(SaveTask write) {
+        int failuresSeen = failedWrites;
+        return () -> {
+            synchronized (this) {
+                if (failedWrites != failuresSeen) {
+                    throw new IOException("Not saving " + listName() + " after an earlier save failed; the next save rewrites them in full.");
+                }
+            }
+            try {
+                write.run();
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    failedWrites++;
+                    snapshotDue = true;
+                }
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Copies a record, so a snapshot can be written while the original is edited.
+     * @param record The live record.
+     * @return A copy of its stored fields.
+     */
+    @SuppressWarnings("unchecked")
+    private T detach(T record) {
+        if (record instanceof Book book) {
+            return (T) new Book(book.getTitle(), book.getAuthor(), book.getIsbn(),
+                    book.isAvailable(), book.getBorrowedBy(), book.getDueDate());
+        }
+        User user = (User) record;
+        return (T) new User(user.getUserId(), user.getName(), new ArrayList<>(user.getCheckedOutBooks()));
+    }
+
+    /**
+     * Replaces the delta with a header for the current snapshot followed by some changes.
+     * @param lines The changes, as JSON lines.
+     * @throws IOException If the delta could not be written.
+     */
+    private void restartDelta(byte[] lines) throws IOException {
+        Path temp = deltaFile.resolveSibling(deltaFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, (snapshotHeader() + "\n").getBytes(StandardCharsets.UTF_8));
+            writeFully(channel, lines);
+            channel.force(true);
+        }
+        Files.move(temp, deltaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Appends changes to the delta and forces them to disk.
+     * @param lines The changes, as JSON lines.
+     * @throws IOException If the delta could not be written.
+     */
+    private void appendDelta(byte[] lines) throws IOException {
+        try (FileChannel channel = FileChannel.open(deltaFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            writeFully(channel, lines);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Reads the delta if it belongs to the current snapshot.
+     * A torn final line (from a crash mid-append) ends the delta.
+     *
+     * @return The latest state of each slot in the delta, in slot order; null values are removals.
+     * @throws IOException If the delta cannot be read.
+     */
+    private Map<Integer, T> readDelta() throws IOException {
+        Map<Integer, T> delta = new TreeMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(deltaFile, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null || !header.equals(snapshotHeader())) {
+                System.err.println("Ignoring " + deltaFile + ", which does not match the current snapshot.");
+                return delta;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    JsonNode node = objectMapper.readTree(line);
+                    JsonNode record = node.get("record");
+                    delta.put(node.get("slot").asInt(), record.isNull() ? null : objectMapper.treeToValue(record, type));
+                    deltaEntries++;
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Stopping delta replay at damaged record: " + line);
+                    break;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return delta;
+        }
+        deltaNeedsHeader = false;
+        return delta;
+    }
+
+    /**
+     * Records a finished save in the metrics and, if a recording wants it, the flight recorder.
+     *
+     * @param start   The {@link System#nanoTime()} the save started.
+     * @param event   The save's flight recorder event, begun when the save started.
+     * @param kind    "delta" or "snapshot".
+     * @param records The records written.
+     * @param bytes   The bytes written.
+     */
+    private void recordSave(long start, LibraryEvents.Save event, String kind, int records, long bytes) {
+        Metric.SAVE.record(start, bytes);
+        if (event.shouldCommit()) {
+            event.list = listName();
+            event.kind = kind;
+            event.records = records;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    /**
+     * Names the list this store keeps, for the flight recorder.
+     * @return "books" or "users".
+     */
+    private String listName() {
+        return type == Book.class ? "books" : "users";
+    }
+
+    /**
+     * Gets the size of the files the records are stored in: the snapshot in use and the delta.
+     * @return The total size in bytes; 0 for files that do not exist.
+     * @throws IOException If a file's size cannot be read.
+     */
+    public long storedBytes() throws IOException {
+        Path snapshot = Files.exists(binaryFile) ? binaryFile : jsonFile;
+        long size = Files.exists(snapshot) ? Files.size(snapshot) : 0;
+        return size + (Files.exists(deltaFile) ? Files.size(deltaFile) : 0);
+    }
+
+    /**
+     * Describes the current snapshot file, to tie a delta to it.
+     * @return The header line.
+     * @throws IOException If the snapshot's attributes cannot be read.
+     */
+    private String snapshotHeader() throws IOException {
+        Path snapshot = Files.exists(binaryFile) ? binaryFile : jsonFile;
+        if (!Files.exists(snapshot)) return "{\"snapshot\":null}";
+        return "{\"snapshot\":\"" + snapshot.getFileName() + "\",\"size\":" + Files.size(snapshot)
+                + ",\"modified\":\"" + Files.getLastModifiedTime(snapshot).toInstant() + "\"}";
+    }
+
+    /**
+     * Reads the binary snapshot as books or users.
+     * @return The lazily decoded records.
+     * @throws IOException If the snapshot cannot be read.
+     */
+    @SuppressWarnings("unchecked")
+    private List<T> readBinary() throws IOException {
+        return (List<T>) (type == Book.class ? BinarySnapshot.readBooks(binaryFile) : BinarySnapshot.readUsers(binaryFile));
+    }
+
+    /**
+     * Writes the binary snapshot as books or users.
+     * @param snapshot The records to write.
+     * @throws IOException If the snapshot could not be written.
+     */
+    @SuppressWarnings("unchecked")
+    private void writeBinary(List<T> snapshot) throws IOException {
+        if (type == Book.class) {
+            BinarySnapshot.writeBooks(binaryFile, (List<Book>) snapshot);
+        } else {
+            BinarySnapshot.writeUsers(binaryFile, (List<User>) snapshot);
+        }
+    }
+
+    /**
+     * Writes all of a byte array to a channel.
+     *
+     * @param channel The channel.
+     * @param bytes   The bytes to write.
+     * @throws IOException If the write fails.
+     */
+    private static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
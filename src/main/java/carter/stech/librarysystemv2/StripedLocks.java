@@ -0,0 +1,87 @@
+package carter.stech.librarysystemv2;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks shared out by key, so that work on unrelated items never waits on
+ * one lock while memory stays bounded however many items there are. Two keys share a lock
+ * only when they hash to the same stripe, so with enough stripes independent items almost
+ * never contend.
+ * <p>
+ * Several keys are locked together in stripe order, so two threads locking overlapping sets
+ * cannot deadlock, and the same stripe is never locked twice.
+ */
+public class StripedLocks {
+    private final ReentrantLock[] stripes;
+
+    /**
+     * A piece of work run while holding some stripes.
+     *
+     * @param <T> The result type.
+     */
+    public interface Work<T> {
+        /**
+         * Runs the work.
+         * @return Its result.
+         * @throws IOException If the work fails.
+         */
+        T run() throws IOException;
+    }
+
+    /**
+     * Creates the locks.
+     * @param count The number of stripes; rounded up to a power of two.
+     */
+    public StripedLocks(int count) {
+        int size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) stripes[i] = new ReentrantLock();
+    }
+
+    /**
+     * Runs work while holding the stripes for a set of keys. Keys are compared ignoring case,
+     * as ISBNs and user IDs are elsewhere; null keys are ignored.
+     *
+     * @param keys The keys to lock, in any order and possibly repeated.
+     * @param work The work.
+     * @param <T>  The result type.
+     * @return The work's result.
+     * @throws IOException If the work fails.
+     */
+    public <T> T withLocks(Collection<String> keys, Work<T> work) throws IOException {
+        int[] held = stripesOf(keys);
+        for (int stripe : held) stripes[stripe].lock();
+        try {
+            return work.run();
+        } finally {
+            for (int i = held.length - 1; i >= 0; i--) stripes[held[i]].unlock();
+        }
+    }
+
+    /**
+     * Gets the distinct stripes for some keys, in ascending order.
+     * @param keys The keys.
+     * @return The stripe indexes.
+     */
+    private int[] stripesOf(Collection<String> keys) {
+        int[] indexes = new int[keys.size()];
+        int count = 0;
+        for (String key : keys) {
+            if (key == null) continue;
+            int hash = key.toLowerCase(Locale.ROOT).hashCode();
+            indexes[count++] = (hash ^ (hash >>> 16)) & (stripes.length - 1);
+        }
+        indexes = Arrays.copyOf(indexes, count);
+        Arrays.sort(indexes);
+
+        int distinct = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            if (i == 0 || indexes[i] != indexes[i - 1]) indexes[distinct++] = indexes[i];
+        }
+        return Arrays.copyOf(indexes, distinct);
+    }
+}
@@ -0,0 +1,398 @@
+package carter.stech.librarysystemv2;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * An inverted trigram index over book titles and authors for substring search.
+ * Every run of three case-folded characters in a title or author maps to the sorted IDs
+ * of the books containing it. A query is answered by intersecting the posting lists of
+ * its own trigrams and then verifying the few remaining candidates, which gives the
+ * same matches as a case-insensitive "contains" over every book without scanning them.
+ * <p>
+ * Removing a book only empties its slot, so its ID is not reused and results stay in the
+ * order books were indexed. Once the empty slots outnumber the books, the books are
+ * renumbered in order and the posting lists remapped, so churn does not leave searches
+ * walking an ever longer array of dead slots.
+ * Searches may run on any thread; the index itself is updated on the thread that edits the list.
+ */
+public class TrigramIndex {
+    private static final int GRAM_LENGTH = 3;
+    private static final int MIN_DOCUMENTS = 1024; // Removed slots below this are never worth compacting
+
+    private final Map<Long, PostingList> postings = new HashMap<>();
+    private final Map<Book, Integer> ids = new IdentityHashMap<>();
+    private Book[] documents = new Book[MIN_DOCUMENTS];
+    private int nextId;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * A sorted, growable list of book IDs.
+     */
+    private static final class PostingList {
+        private int[] ids = new int[4];
+        private int size;
+
+        /**
+         * Adds an ID, keeping the list sorted and free of duplicates.
+         * @param id The book ID.
+         */
+        void add(int id) {
+            // New books get the highest ID so far, so this is almost always an append
+            if (size > 0 && ids[size - 1] >= id) {
+                int position = Arrays.binarySearch(ids, 0, size, id);
+                if (position >= 0) return;
+                insertAt(-position - 1, id);
+                return;
+            }
+            insertAt(size, id);
+        }
+
+        /**
+         * Inserts an ID at a position.
+         *
+         * @param position The index to insert at.
+         * @param id       The book ID.
+         */
+        private void insertAt(int position, int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        /**
+         * Removes an ID if present.
+         * @param id The book ID.
+         */
+        void remove(int id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position < 0) return;
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            size--;
+        }
+
+        /**
+         * Checks whether an ID is present.
+         *
+         * @param id The book ID.
+         * @return True if the list contains the ID.
+         */
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+    }
+
+    /**
+     * Creates an index and fills it from the list's current contents.
+     * The index follows the list as books are added and removed; title and author edits
+     * are reported through {@link #textChanged}.
+     *
+     * @param books The books to index.
+     */
+    public TrigramIndex(ObservableList<Book> books) {
+        books.forEach(this::add);
+        books.addListener((ListChangeListener<Book>) change -> {
+            while (change.next()) {
+                if (change.wasRemoved()) change.getRemoved().forEach(this::remove);
+                if (change.wasAdded()) change.getAddedSubList().forEach(this::add);
+            }
+        });
+    }
+
+    /**
+     * Finds the books whose title or author contains the query, ignoring case.
+     * An interrupted search stops early and returns the matches found so far.
+     *
+     * @param query The text to search for.
+     * @return The matching books, in the order they were indexed.
+     */
+    public List<Book> search(String query) {
+        List<Book> matches = new ArrayList<>();
+        if (query.isEmpty()) return matches;
+        lock.readLock().lock();
+        try {
+            return search(query, matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets an upper bound on the books a search for the query could find, without searching:
+     * the size of the shortest posting list among its trigrams.
+     *
+     * @param query The text to search for.
+     * @return The bound; every book if the query is too short to have a trigram.
+     */
+    public int estimate(String query) {
+        lock.readLock().lock();
+        try {
+            if (query.length() < GRAM_LENGTH) return ids.size();
+            int smallest = ids.size();
+            for (long gram : grams(query)) {
+                PostingList list = postings.get(gram);
+                if (list == null) return 0;
+                smallest = Math.min(smallest, list.size);
+            }
+            return smallest;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the books that pass a filter by checking every book, for queries no index can
+     * narrow. An interrupted scan stops early and returns the matches found so far.
+     *
+     * @param filter The test each book must pass.
+     * @return The matching books, in the order they were indexed.
+     */
+    public List<Book> scan(Predicate<Book> filter) {
+        List<Book> matches = new ArrayList<>();
+        Thread thread = Thread.currentThread();
+        lock.readLock().lock();
+        try {
+            for (int id = 0; id < nextId; id++) {
+                if ((id & 0xFFF) == 0 && thread.isInterrupted()) break;
+                Book book = documents[id];
+                if (book != null && filter.test(book)) matches.add(book);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return matches;
+    }
+
+    /**
+     * Performs a search while holding the read lock.
+     *
+     * @param query   The text to search for.
+     * @param matches Collects the matching books.
+     * @return The matches.
+     */
+    private List<Book> search(String query, List<Book> matches) {
+        Thread thread = Thread.currentThread();
+
+        if (query.length() < GRAM_LENGTH) {
+            // Too short to have a trigram, so every book is a candidate
+            for (int id = 0; id < nextId; id++) {
+                if ((id & 0xFFF) == 0 && thread.isInterrupted()) break;
+                Book book = documents[id];
+                if (book != null && matches(book, query)) matches.add(book);
+            }
+            return matches;
+        }
+
+        List<PostingList> lists = new ArrayList<>();
+        for (long gram : grams(query)) {
+            PostingList list = postings.get(gram);
+            if (list == null) return matches; // Some trigram appears in no book at all
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.size));
+
+        PostingList smallest = lists.get(0);
+        candidates:
+        for (int i = 0; i < smallest.size; i++) {
+            if ((i & 0xFFF) == 0 && thread.isInterrupted()) break;
+            int id = smallest.ids[i];
+            for (int j = 1; j < lists.size(); j++) {
+                if (!lists.get(j).contains(id)) continue candidates;
+            }
+            // All trigrams present; confirm they occur together in the right order
+            Book book = documents[id];
+            if (matches(book, query)) matches.add(book);
+        }
+        return matches;
+    }
+
+    /**
+     * Re-indexes a book whose title or author was edited.
+     *
+     * @param book      The edited book.
+     * @param oldTitle  The title it is indexed under.
+     * @param oldAuthor The author it is indexed under.
+     */
+    public void textChanged(Book book, String oldTitle, String oldAuthor) {
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.get(book);
+            if (id == null) return;
+            removeGrams(id, oldTitle);
+            removeGrams(id, oldAuthor);
+            addGrams(id, book.getTitle());
+            addGrams(id, book.getAuthor());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes a book added to the list.
+     * @param book The book added to the list.
+     */
+    private void add(Book book) {
+        lock.writeLock().lock();
+        try {
+            if (ids.containsKey(book)) return;
+            int id = nextId++;
+            if (id == documents.length) documents = Arrays.copyOf(documents, id * 2);
+            documents[id] = book;
+            ids.put(book, id);
+            addGrams(id, book.getTitle());
+            addGrams(id, book.getAuthor());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a book from the index.
+     * @param book The book removed from the list.
+     */
+    private void remove(Book book) {
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.remove(book);
+            if (id == null) return;
+            removeGrams(id, book.getTitle());
+            removeGrams(id, book.getAuthor());
+            documents[id] = null;
+            if (nextId - ids.size() > Math.max(MIN_DOCUMENTS, ids.size())) compact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Renumbers the books without the empty slots left by removals, keeping their order,
+     * and remaps every posting list to match. Runs under the write lock.
+     */
+    private void compact() {
+        int[] renumbered = new int[nextId];
+        Book[] compacted = new Book[Math.max(MIN_DOCUMENTS, ids.size() * 2)];
+        int live = 0;
+        for (int id = 0; id < nextId; id++) {
+            Book book = documents[id];
+            if (book == null) continue;
+            renumbered[id] = live;
+            compacted[live] = book;
+            ids.put(book, live++);
+        }
+        // Renumbering keeps the order, so every posting list stays sorted
+        for (PostingList list : postings.values()) {
+            for (int i = 0; i < list.size; i++) list.ids[i] = renumbered[list.ids[i]];
+        }
+        documents = compacted;
+        nextId = live;
+    }
+
+    /**
+     * Adds a book ID to the posting list of every trigram in a text.
+     *
+     * @param id   The book ID.
+     * @param text A title or author.
+     */
+    private void addGrams(int id, String text) {
+        if (text == null) return;
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            postings.computeIfAbsent(gramAt(text, i), g -> new PostingList()).add(id);
+        }
+    }
+
+    /**
+     * Removes a book ID from the posting list of every trigram in a text.
+     *
+     * @param id   The book ID.
+     * @param text A title or author.
+     */
+    private void removeGrams(int id, String text) {
+        if (text == null) return;
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            long gram = gramAt(text, i);
+            PostingList list = postings.get(gram);
+            if (list == null) continue;
+            list.remove(id);
+            if (list.size == 0) postings.remove(gram);
+        }
+    }
+
+    /**
+     * Gets the distinct case-folded trigrams of a text, each packed into a long.
+     *
+     * @param text The query text.
+     * @return The trigram keys.
+     */
+    private static Set<Long> grams(String text) {
+        Set<Long> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            grams.add(gramAt(text, i));
+        }
+        return grams;
+    }
+
+    /**
+     * Packs the case-folded trigram starting at a position into a long.
+     *
+     * @param text     The text.
+     * @param position The index of the first character.
+     * @return The trigram key.
+     */
+    private static long gramAt(String text, int position) {
+        return ((long) fold(text.charAt(position)) << 32)
+                | ((long) fold(text.charAt(position + 1)) << 16)
+                | fold(text.charAt(position + 2));
+    }
+
+    /**
+     * Folds a character's case the way {@link String#regionMatches(boolean, int, String, int, int)}
+     * compares it, so two characters fold alike exactly when a search treats them as equal.
+     * Lower-casing alone would not do: the dotless i and the long s upper-case to plain I and S.
+     *
+     * @param c The character.
+     * @return Its folded form.
+     */
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * Checks whether a book's title or author contains the query, ignoring case.
+     *
+     * @param book  The candidate book.
+     * @param query The query text.
+     * @return True if the book matches.
+     */
+    static boolean matches(Book book, String query) {
+        return containsIgnoreCase(book.getTitle(), query) || containsIgnoreCase(book.getAuthor(), query);
+    }
+
+    /**
+     * Case-insensitive substring test that does not allocate lower-cased copies.
+     *
+     * @param text  The text to search in; may be null.
+     * @param query The text to search for.
+     * @return True if the text contains the query.
+     */
+    static boolean containsIgnoreCase(String text, String query) {
+        if (text == null) return false;
+        for (int i = 0; i + query.length() <= text.length(); i++) {
+            if (text.regionMatches(true, i, query, 0, query.length())) return true;
+        }
+        return false;
+    }
+}
@@ -1,6 +1,7 @@
 package carter.stech.librarysystemv2;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
@@ -8,22 +9,31 @@ import javafx.beans.property.StringProperty;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Represents a user in the library system.
  * Users have a unique ID, a name, and a list of checked-out books.
+ * As with {@link Book}, the JavaFX properties are only created when first asked for.
  */
 public class User implements Serializable {
-    private final StringProperty userId;
-    private final StringProperty name;
+    private String userId;
+    private String name;
     private List<String> checkedOutBooks; // List of ISBNs
 
+    // Created on demand by the xxxProperty() methods
+    private transient StringProperty userIdProperty;
+    private transient StringProperty nameProperty;
+
+    private transient RecordObserver observer; // Set while the user belongs to a repository
+    private transient int slot = -1; // Position in the data files, assigned by a RecordStore
+
     /**
      * Default constructor for creating an empty user.
      */
     public User() {
-        this.userId = new SimpleStringProperty("");
-        this.name = new SimpleStringProperty("");
+        this.userId = "";
+        this.name = "";
         this.checkedOutBooks = new ArrayList<>();
     }
 
@@ -38,8 +48,8 @@ public class User implements Serializable {
     public User(@JsonProperty("userId") String userId,
                 @JsonProperty("name") String name,
                 @JsonProperty("checkedOutBooks") List<String> checkedOutBooks) {
-        this.userId = new SimpleStringProperty(userId);
-        this.name = new SimpleStringProperty(name);
+        this.userId = userId;
+        this.name = name;
         this.checkedOutBooks = (checkedOutBooks != null) ? checkedOutBooks : new ArrayList<>();
     }
 
@@ -49,7 +59,7 @@ public class User implements Serializable {
      */
     @JsonProperty("userId")
     public String getUserId() {
-        return userId.get();
+        return userId;
     }
 
     /**
@@ -57,7 +67,13 @@ public class User implements Serializable {
      * @param userId The new user ID.
      */
     public void setUserId(String userId) {
-        this.userId.set(userId);
+        if (userIdProperty != null) {
+            userIdProperty.set(userId);
+        } else {
+            String old = this.userId;
+            this.userId = userId;
+            changed("userId", old, userId);
+        }
     }
 
     /**
@@ -65,7 +81,17 @@ public class User implements Serializable {
      * @return The StringProperty of the user ID.
      */
     public StringProperty userIdProperty() {
-        return userId;
+        if (userIdProperty == null) {
+            userIdProperty = new SimpleStringProperty(this, "userId", userId) {
+                @Override
+                protected void invalidated() {
+                    String old = userId;
+                    userId = get();
+                    changed("userId", old, userId);
+                }
+            };
+        }
+        return userIdProperty;
     }
 
     /**
@@ -74,7 +100,7 @@ public class User implements Serializable {
      */
     @JsonProperty("name")
     public String getName() {
-        return name.get();
+        return name;
     }
 
     /**
@@ -82,7 +108,13 @@ public class User implements Serializable {
      * @param name The new name.
      */
     public void setName(String name) {
-        this.name.set(name);
+        if (nameProperty != null) {
+            nameProperty.set(name);
+        } else {
+            String old = this.name;
+            this.name = name;
+            changed("name", old, name);
+        }
     }
 
     /**
@@ -90,7 +122,17 @@ public class User implements Serializable {
      * @return The StringProperty of the name.
      */
     public StringProperty nameProperty() {
-        return name;
+        if (nameProperty == null) {
+            nameProperty = new SimpleStringProperty(this, "name", name) {
+                @Override
+                protected void invalidated() {
+                    String old = name;
+                    name = get();
+                    changed("name", old, name);
+                }
+            };
+        }
+        return nameProperty;
     }
 
     /**
@@ -109,6 +151,7 @@ public class User implements Serializable {
     @JsonProperty("checkedOutBooks")
     public void addCheckedOutBook(String isbn) {
         checkedOutBooks.add(isbn);
+        changed("checkedOutBooks", null, isbn);
     }
 
     /**
@@ -116,7 +159,47 @@ public class User implements Serializable {
      * @param isbn The ISBN of the book to remove.
      */
     public void returnBook(String isbn) {
-        checkedOutBooks.remove(isbn);
+        if (checkedOutBooks.remove(isbn)) {
+            changed("checkedOutBooks", isbn, null);
+        }
+    }
+
+    /**
+     * Gets the position of this user in the data files.
+     * @return The slot, or -1 if the user has not been saved yet.
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Sets the position of this user in the data files.
+     * @param slot The slot, or -1 if the user is no longer stored.
+     */
+    @JsonIgnore
+    void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    /**
+     * Attaches the observer that is told about every field change, or detaches it.
+     * @param observer The repository's observer, or null.
+     */
+    void attach(RecordObserver observer) {
+        this.observer = observer;
+    }
+
+    /**
+     * Reports a field change to the observer, if the value actually changed.
+     *
+     * @param field    The property name of the field.
+     * @param oldValue The previous value.
+     * @param newValue The new value.
+     */
+    private void changed(String field, Object oldValue, Object newValue) {
+        if (observer != null && !Objects.equals(oldValue, newValue)) {
+            observer.userChanged(this, field, oldValue, newValue);
+        }
     }
 
     /**
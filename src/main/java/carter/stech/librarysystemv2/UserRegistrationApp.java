@@ -1,8 +1,6 @@
 package carter.stech.librarysystemv2;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import javafx.application.Application;
-import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
@@ -10,10 +8,7 @@ import javafx.scene.control.*;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.stage.Stage;
-import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.List;
 import java.util.Optional;
 
 /**
@@ -21,8 +16,7 @@ import java.util.Optional;
  * Users can be registered and removed, with validation for unique user IDs.
  */
 public class UserRegistrationApp extends Application {
-    private static final String USERS_FILE = "users.json";
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private LibraryRepository repository;
     private ObservableList<User> userList;
     private TableView<User> tableView;
 
@@ -33,7 +27,8 @@ public class UserRegistrationApp extends Application {
      */
     @Override
     public void start(Stage primaryStage) {
-        userList = FXCollections.observableArrayList(loadUsers()); // Ensure ObservableList is updated
+        repository = LibraryRepository.getInstance();
+        userList = repository.getUsers(); // Shared with the other windows
         tableView = new TableView<>();
 
         /*
@@ -95,9 +90,7 @@ public class UserRegistrationApp extends Application {
         }
 
         //Preventing users with duplicate IDs
-        Optional<User> existingUser = userList.stream()
-                .filter(user -> user.getUserId().equals(userId))
-                .findFirst();
+        Optional<User> existingUser = repository.findUserById(userId);
         if (existingUser.isPresent()) {
             showAlert(Alert.AlertType.ERROR, "Duplicate User ID", "User ID already exists!  Please enter an unused ID.");
             return;
@@ -105,7 +98,7 @@ public class UserRegistrationApp extends Application {
 
         User newUser = new User(userId, name, new ArrayList<>());
         userList.add(newUser);
-        saveUsers(userList);
+        saveUsers();
 
         idField.clear();
         nameField.clear();
@@ -126,42 +119,20 @@ public class UserRegistrationApp extends Application {
             }
 
             userList.remove(user);
-            saveUsers(userList);
+            saveUsers();
         }, () -> showAlert(Alert.AlertType.ERROR, "No Selection", "Please select a user to delete."));
     }
 
     /**
-     * Loads users from the stored JSON file.
-     *
-     * @return A list of users.
-     */
-    private List<User> loadUsers() {
-        try {
-            File file = new File(USERS_FILE);
-            if (!file.exists()) {
-                System.out.println("users.json not found. Creating an empty file...");
-                objectMapper.writeValue(file, new User[0]);
-                return new ArrayList<>();
-            }
-            return List.of(objectMapper.readValue(file, User[].class));
-        } catch (IOException e) {
-            System.err.println("Error loading users.json: " + e.getMessage());
-            e.printStackTrace();
-            return new ArrayList<>();
-        }
-    }
-
-    /**
-     * Saves the current list of users to a JSON file.
-     *
-     * @param users The list of users to save.
+     * Saves the current list of users to a JSON file in the background.
+     * The window is told if the save fails.
      */
-    private void saveUsers(List<User> users) {
-        try {
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(USERS_FILE), users);
-        } catch (IOException e) {
+    private void saveUsers() {
+        repository.saveUsers().whenComplete((ignored, e) -> {
+            if (e == null) return;
             e.printStackTrace();
-        }
+            showAlert(Alert.AlertType.ERROR, "Save Failed", "The user list could not be saved: " + e.getMessage());
+        });
     }
 
     /**
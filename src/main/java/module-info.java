@@ -5,6 +5,8 @@ module carter.stech.librarysystemv2 {
     requires org.controlsfx.controls;
     requires com.fasterxml.jackson.databind;
     requires com.fasterxml.jackson.datatype.jsr310;
+    requires jdk.httpserver;
+    requires jdk.jfr;
 
     opens carter.stech.librarysystemv2 to javafx.fxml;
     exports carter.stech.librarysystemv2;
@@ -0,0 +1,297 @@
+package carter.stech.librarysystemv2;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the Book Browser's query syntax: how text is split and parsed, the compiled filter
+ * against a direct reading of the parsed conditions, and the repository's planned searches
+ * against checking every book.
+ */
+class BookQueryTest {
+    private static final LocalDate TODAY = LocalDate.now();
+    private static final String[] WORDS = {"way", "kings", "words", "radiance", "oathbringer", "war", "peace", "rhythm",
+            "mistborn", "empire", "well", "ascension", "hero", "ages", "alloy", "law"};
+    private static final String[] AUTHORS = {"Brandon Sanderson", "Leo Tolstoy", "Victor Hugo", "Ursula Le Guin", "Jane Austen"};
+    private static final int BOOKS = 3000;
+    private static final int USERS = 300;
+    private static final int MAX_LOANS = 3;   // Per user, well under the checkout limit
+
+    // Queries covering each index, the fallback scan and the ways conditions combine
+    private static final List<String> QUERIES = List.of(
+            "way", "WAR", "sanderson", "isbn:PLAN-17", "isbn:plan-17", "isbn:PLAN-17 isbn:PLAN-18",
+            "borrower:PLAN-U5", "borrower:PLAN-U5 OR borrower:PLAN-U6", "available:true", "available:false",
+            "available:false author:hugo", "due<today", "due>=today", "due:today", "due:" + TODAY.minusDays(5) + ".." + TODAY.plusDays(5),
+            "due:.." + TODAY.minusDays(10), "due>" + TODAY.plusDays(3) + " due<" + TODAY.plusDays(8), "due>" + TODAY + " due<" + TODAY,
+            "title:kings", "title:\"way kings\"", "author:tolstoy title:war", "\"le guin\"", "-sanderson", "NOT available:true",
+            "kings -available:true", "(war OR peace) available:false", "war AND peace", "war OR peace OR hero",
+            "NOT (sanderson OR hugo)", "borrower:PLAN-U5 -title:way", "isbn:PLAN-40 OR title:rhythm", "-isbn:PLAN-3 isbn:PLAN-3",
+            "radiance (NOT due<today)", "zzz", "title:zzz OR available:true");
+
+    private static LibraryRepository repository;
+    private static List<Book> planned;
+
+    /**
+     * Adds a generated catalog with loans to the shared test repository.
+     * @throws Exception If the repository cannot be set up.
+     */
+    @BeforeAll
+    static void addCatalog() throws Exception {
+        repository = TestLibrary.repository();
+        planned = books(new Random(25));
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) users.add(new User("PLAN-U" + i, "Planner User " + i, null));
+        Random random = new Random(26);
+        for (Book book : planned) {
+            User user = users.get(random.nextInt(USERS));
+            if (random.nextInt(3) != 0 || user.getCheckedOutBooks().size() == MAX_LOANS) continue;
+            book.setAvailable(false);
+            book.setBorrowedBy(user.getUserId());
+            book.setDueDate(TODAY.plusDays(random.nextInt(41) - 20));
+            user.getCheckedOutBooks().add(book.getIsbn());
+        }
+        TestLibrary.onApplicationThread(() -> {
+            repository.getUsers().addAll(users);
+            repository.getBooks().addAll(planned);
+            return null;
+        });
+    }
+
+    /**
+     * Plain words are text terms, and "and" in lower case is a word, not an operator.
+     */
+    @Test
+    void plainTextIsNotStructured() {
+        BookQuery query = BookQuery.parse("war and peace");
+        assertFalse(query.isStructured());
+        assertEquals(new BookQuery.And(List.of(any("war"), any("and"), any("peace"))), query.root());
+        assertEquals(any("12"), BookQuery.parse("12").root());
+        assertEquals(new BookQuery.And(List.of()), BookQuery.parse("   ").root());
+    }
+
+    /**
+     * Quoted phrases are one term, including a quoted value straight after a field.
+     */
+    @Test
+    void phrasesAndQuotedValuesAreOneToken() {
+        assertEquals(new BookQuery.Text(BookQuery.Field.TITLE, "way of kings"), BookQuery.parse("title:\"way of kings\"").root());
+        BookQuery phrase = BookQuery.parse("\"way of kings\"");
+        assertTrue(phrase.isStructured());
+        assertEquals(any("way of kings"), phrase.root());
+        assertEquals(new BookQuery.And(List.of(any("a"), any("b c"), any("d"))), BookQuery.parse("a\"b c\"d").root());
+        assertEquals(any("x"), BookQuery.parse("\"\" x").root());
+    }
+
+    /**
+     * Fields, availability and each form of due date parse to their conditions.
+     */
+    @Test
+    void fieldsAndDatesParse() {
+        LocalDate date = LocalDate.of(2025, 4, 1);
+        assertEquals(new BookQuery.And(List.of(new BookQuery.Text(BookQuery.Field.AUTHOR, "sanderson"),
+                        new BookQuery.Available(true), new BookQuery.DueRange(LocalDate.MIN, date.minusDays(1)))),
+                BookQuery.parse("author:sanderson available:true due<2025-04-01").root());
+        assertEquals(new BookQuery.Text(BookQuery.Field.ISBN, "123"), BookQuery.parse("ISBN=123").root());
+        assertEquals(new BookQuery.Text(BookQuery.Field.BORROWER, "U7"), BookQuery.parse("borrower:U7").root());
+        assertEquals(new BookQuery.Available(false), BookQuery.parse("available:no").root());
+        assertEquals(new BookQuery.DueRange(LocalDate.MIN, date), BookQuery.parse("due<=2025-04-01").root());
+        assertEquals(new BookQuery.DueRange(date.plusDays(1), LocalDate.MAX), BookQuery.parse("due>2025-04-01").root());
+        assertEquals(new BookQuery.DueRange(date, LocalDate.MAX), BookQuery.parse("due>=2025-04-01").root());
+        assertEquals(new BookQuery.DueRange(date, date), BookQuery.parse("due:2025-04-01").root());
+        assertEquals(new BookQuery.DueRange(TODAY, TODAY), BookQuery.parse("due:today").root());
+        assertEquals(new BookQuery.DueRange(date, date.plusDays(9)), BookQuery.parse("due:2025-04-01..2025-04-10").root());
+        assertEquals(new BookQuery.DueRange(LocalDate.MIN, date), BookQuery.parse("due:..2025-04-01").root());
+        assertEquals(new BookQuery.DueRange(date, LocalDate.MAX), BookQuery.parse("due:2025-04-01..").root());
+    }
+
+    /**
+     * OR binds looser than terms side by side, and NOT, a leading minus and parentheses nest.
+     */
+    @Test
+    void operatorsNest() {
+        assertEquals(new BookQuery.Or(List.of(any("a"), new BookQuery.And(List.of(any("b"), any("c"))))),
+                BookQuery.parse("a OR b c").root());
+        assertEquals(new BookQuery.And(List.of(new BookQuery.Or(List.of(any("a"), any("b"))), any("c"))),
+                BookQuery.parse("(a OR b) c").root());
+        assertEquals(new BookQuery.And(List.of(any("a"), any("b"))), BookQuery.parse("a AND b").root());
+        assertEquals(new BookQuery.Not(any("a")), BookQuery.parse("NOT a").root());
+        assertEquals(new BookQuery.Not(any("a")), BookQuery.parse("-a").root());
+        assertEquals(new BookQuery.Not(new BookQuery.Available(true)), BookQuery.parse("-available:true").root());
+        assertEquals(new BookQuery.Not(new BookQuery.Not(any("a"))), BookQuery.parse("NOT NOT a").root());
+        assertEquals(any("-"), BookQuery.parse("-").root());
+    }
+
+    /**
+     * Text that is not a valid query is rejected with a reason, so the browser can search for it as typed.
+     */
+    @Test
+    void invalidQueriesAreRejected() {
+        for (String text : List.of("12\" Vinyl", "Book (Vol", "NOT", "a OR", "OR a", "a AND", ")", "a ) b", "()",
+                "due<tomorrow", "due:2025-13-01", "available:maybe", "title<x", "title:", "due:2025-01-01..x")) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> BookQuery.parse(text), text);
+            assertFalse(e.getMessage().isBlank(), text);
+        }
+    }
+
+    /**
+     * The compiled filter agrees with reading the parsed conditions directly, for every book and query.
+     */
+    @Test
+    void compiledFilterMatchesConditions() {
+        List<Book> books = books(new Random(7));
+        Random random = new Random(8);
+        for (Book book : books) {
+            if (random.nextBoolean()) continue;
+            book.setAvailable(false);
+            book.setBorrowedBy("PLAN-U" + random.nextInt(10));
+            book.setDueDate(TODAY.plusDays(random.nextInt(41) - 20));
+        }
+        for (String text : QUERIES) {
+            BookQuery query = BookQuery.parse(text);
+            for (Book book : books) {
+                assertEquals(holds(query.root(), book), query.matches(book), text + " on " + book.getIsbn());
+            }
+        }
+    }
+
+    /**
+     * The repository's planned searches find exactly the books that checking every book finds,
+     * before and after books are lent, returned, retitled, added and removed.
+     * @throws Exception If the repository cannot be edited.
+     */
+    @Test
+    void plannedSearchesMatchScan() throws Exception {
+        assertPlannedMatchesScan();
+
+        Random random = new Random(9);
+        TestLibrary.onApplicationThread(() -> {
+            for (int i = 0; i < 200; i++) {
+                Book book = planned.get(random.nextInt(planned.size()));
+                if (book.isAvailable()) {
+                    book.setTitle(book.getTitle() + " " + WORDS[random.nextInt(WORDS.length)]);
+                } else {
+                    // Returned without a borrower's list to keep in step, so only for the user it was lent to
+                    User user = repository.findUserById(book.getBorrowedBy()).orElseThrow();
+                    user.getCheckedOutBooks().remove(book.getIsbn());
+                    book.setAvailable(true);
+                }
+            }
+            Book removed = planned.remove(planned.size() - 1);
+            if (!removed.isAvailable()) {
+                repository.findUserById(removed.getBorrowedBy()).orElseThrow().getCheckedOutBooks().remove(removed.getIsbn());
+            }
+            repository.getBooks().remove(removed);
+            Book added = new Book("Way of Peace", "Leo Tolstoy", "PLAN-17", true, null, null);
+            planned.add(added);
+            repository.getBooks().add(added);
+            return null;
+        });
+
+        assertPlannedMatchesScan();
+    }
+
+    /**
+     * Checks every query's planned search against a scan of the whole repository.
+     * @throws Exception If the books cannot be read on the application thread.
+     */
+    private static void assertPlannedMatchesScan() throws Exception {
+        for (String text : QUERIES) {
+            BookQuery query = BookQuery.parse(text);
+            Set<Book> scanned = TestLibrary.onApplicationThread(() -> {
+                Set<Book> matches = identitySet();
+                for (Book book : repository.getBooks()) {
+                    if (query.matches(book)) matches.add(book);
+                }
+                return matches;
+            });
+            List<Book> found = repository.findBooks(query);
+            Set<Book> foundSet = identitySet();
+            foundSet.addAll(found);
+            assertEquals(found.size(), foundSet.size(), text + " found a book twice");
+            assertEquals(scanned, foundSet, text);
+        }
+    }
+
+    /**
+     * Reads a parsed condition directly, as the query syntax describes it.
+     *
+     * @param node The condition.
+     * @param book The book.
+     * @return True if the book meets it.
+     */
+    private static boolean holds(BookQuery.Node node, Book book) {
+        return switch (node) {
+            case BookQuery.Text text -> switch (text.field()) {
+                case ANY -> contains(book.getTitle(), text.value()) || contains(book.getAuthor(), text.value())
+                        || text.value().equalsIgnoreCase(book.getIsbn());
+                case TITLE -> contains(book.getTitle(), text.value());
+                case AUTHOR -> contains(book.getAuthor(), text.value());
+                case ISBN -> text.value().equalsIgnoreCase(book.getIsbn());
+                case BORROWER -> text.value().equals(book.getBorrowedBy());
+            };
+            case BookQuery.Available available -> book.isAvailable() == available.available();
+            case BookQuery.DueRange due -> book.getDueDate() != null
+                    && !book.getDueDate().isBefore(due.from()) && !book.getDueDate().isAfter(due.to());
+            case BookQuery.And and -> and.parts().stream().allMatch(part -> holds(part, book));
+            case BookQuery.Or or -> or.parts().stream().anyMatch(part -> holds(part, book));
+            case BookQuery.Not not -> !holds(not.part(), book);
+        };
+    }
+
+    /**
+     * Case-insensitive substring test, written plainly.
+     *
+     * @param text  The text to search in.
+     * @param value The text to look for.
+     * @return True if the text contains the value.
+     */
+    private static boolean contains(String text, String value) {
+        return text.toLowerCase(Locale.ROOT).contains(value.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Generates available books with titles from a few words, some copies sharing an ISBN.
+     * @param random The random source.
+     * @return The books.
+     */
+    private static List<Book> books(Random random) {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < BOOKS; i++) {
+            String title = WORDS[random.nextInt(WORDS.length)] + " of " + WORDS[random.nextInt(WORDS.length)];
+            int isbn = i % 10 == 9 ? i - 1 : i; // Every tenth book is a second copy
+            books.add(new Book(title, AUTHORS[random.nextInt(AUTHORS.length)], "PLAN-" + isbn, true, null, null));
+        }
+        return books;
+    }
+
+    /**
+     * Creates a plain text term.
+     * @param value The text.
+     * @return The term.
+     */
+    private static BookQuery.Text any(String value) {
+        return new BookQuery.Text(BookQuery.Field.ANY, value);
+    }
+
+    /**
+     * Creates a set of books compared by identity, since copies may be equal.
+     * @return The empty set.
+     */
+    private static Set<Book> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+}
@@ -0,0 +1,91 @@
+package carter.stech.librarysystemv2;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that bulk imports read each file format, including a books.json array, and skip
+ * duplicates and incomplete records.
+ */
+class CatalogImporterTest {
+    private static LibraryRepository repository;
+
+    @TempDir
+    Path folder;
+
+    /**
+     * Adds a book whose ISBN the imports repeat.
+     * @throws Exception If the repository cannot be set up.
+     */
+    @BeforeAll
+    static void addExisting() throws Exception {
+        repository = TestLibrary.repository();
+        TestLibrary.onApplicationThread(() -> repository.getBooks().add(new Book("Elantris", "Brandon Sanderson", "IMPORT-0", true, null, null)));
+    }
+
+    /**
+     * A pretty-printed array in the books.json format is streamed in, with loans dropped,
+     * duplicates and incomplete books skipped, and problems numbered by position.
+     * @throws Exception If the file cannot be written or imported.
+     */
+    @Test
+    void jsonArrayIsImported() throws Exception {
+        List<Book> books = new ArrayList<>();
+        for (int i = 1; i <= 25_000; i++) books.add(new Book("Array Title " + i, "Author " + i, "IMPORT-A" + i, true, null, null));
+        books.add(new Book("On Loan", "Author", "IMPORT-LOANED", false, "U1", LocalDate.now()));
+        books.add(new Book("Elantris", "Brandon Sanderson", "IMPORT-0", true, null, null));
+        books.add(new Book("", "No Title", "IMPORT-BLANK", true, null, null));
+        books.add(new Book("Repeat", "Author", "IMPORT-A1", true, null, null));
+        Path file = folder.resolve("books.json");
+        JsonRecords.write(file, books);
+        assertTrue(Files.readString(file).startsWith("["));
+
+        List<Double> progress = new ArrayList<>();
+        CatalogImporter.Summary summary = new CatalogImporter(repository).importFile(file, progress::add);
+
+        assertEquals(25_001, summary.imported());
+        assertEquals(2, summary.duplicates());
+        assertEquals(1, summary.invalid());
+        assertEquals(List.of(
+                new CatalogImporter.Problem(0, "Book 25002: Duplicate ISBN IMPORT-0"),
+                new CatalogImporter.Problem(0, "Book 25003: Title, author and ISBN are all required"),
+                new CatalogImporter.Problem(0, "Book 25004: Duplicate ISBN IMPORT-A1")), summary.problems());
+        assertEquals(1.0, progress.get(progress.size() - 1));
+
+        Book loaned = TestLibrary.onApplicationThread(() -> repository.findBooksByIsbn("IMPORT-LOANED").get(0));
+        assertTrue(loaned.isAvailable());
+        assertEquals(null, loaned.getBorrowedBy());
+        assertEquals(25_000, (long) TestLibrary.onApplicationThread(() -> repository.getBooks().stream()
+                .filter(book -> book.getIsbn().startsWith("IMPORT-A")).count()));
+    }
+
+    /**
+     * A .json file of one object per line is still read as JSON lines, with problems numbered by line.
+     * @throws Exception If the file cannot be written or imported.
+     */
+    @Test
+    void jsonLinesWithJsonExtensionIsImported() throws Exception {
+        Path file = folder.resolve("lines.json");
+        Files.writeString(file, """
+
+                {"title": "Line One", "author": "Author", "isbn": "IMPORT-L1"}
+                not json
+                {"title": "Line Two", "author": "Author", "isbn": "IMPORT-L2"}
+                """);
+
+        CatalogImporter.Summary summary = new CatalogImporter(repository).importFile(file, fraction -> { });
+
+        assertEquals(2, summary.imported());
+        assertEquals(List.of(new CatalogImporter.Problem(3, "Not valid JSON")), summary.problems());
+    }
+}
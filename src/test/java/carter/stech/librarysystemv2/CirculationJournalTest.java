@@ -0,0 +1,134 @@
+package carter.stech.librarysystemv2;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests replaying the circulation journal over a snapshot, in particular for copies that share an ISBN.
+ */
+class CirculationJournalTest {
+    private static final LocalDate DUE = LocalDate.of(2030, 1, 15);
+
+    @TempDir
+    Path folder;
+
+    /**
+     * Two loans of one ISBN land on two copies, and a check-in ends the loan of the borrower it names.
+     * @throws IOException If the journal cannot be written.
+     */
+    @Test
+    void loansOfSharedIsbnLandOnSeparateCopies() throws IOException {
+        Book first = copy();
+        Book second = copy();
+        Path journal = write(CirculationJournal.Entry.checkout("111", "U1", DUE),
+                CirculationJournal.Entry.checkout("111", "U2", DUE),
+                CirculationJournal.Entry.checkIn("111", "U1"));
+
+        assertEquals(3, CirculationJournal.replay(journal, List.of(first, second)));
+
+        assertTrue(first.isAvailable());
+        assertNull(first.getBorrowedBy());
+        assertFalse(second.isAvailable());
+        assertEquals("U2", second.getBorrowedBy());
+        assertEquals(DUE, second.getDueDate());
+    }
+
+    /**
+     * A loan the snapshot already shows is not applied to a second copy.
+     * @throws IOException If the journal cannot be written.
+     */
+    @Test
+    void loanAlreadyInSnapshotIsNotRepeated() throws IOException {
+        Book first = copy();
+        Book second = copy();
+        Book third = copy();
+        lend(second, "U1");
+        Path journal = write(CirculationJournal.Entry.checkout("111", "U1", DUE),
+                CirculationJournal.Entry.checkout("111", "U2", DUE));
+
+        CirculationJournal.replay(journal, List.of(first, second, third));
+
+        assertEquals("U2", first.getBorrowedBy());
+        assertEquals("U1", second.getBorrowedBy());
+        assertTrue(third.isAvailable());
+    }
+
+    /**
+     * A check-in for a borrower with no copy out leaves the other borrowers' copies alone.
+     * @throws IOException If the journal cannot be written.
+     */
+    @Test
+    void checkInAlreadyInSnapshotLeavesOtherLoans() throws IOException {
+        Book first = copy();
+        Book second = copy();
+        lend(first, "U2");
+        Path journal = write(CirculationJournal.Entry.checkIn("111", "U1"));
+
+        CirculationJournal.replay(journal, List.of(first, second));
+
+        assertEquals("U2", first.getBorrowedBy());
+        assertTrue(second.isAvailable());
+    }
+
+    /**
+     * Replaying records the snapshot is already past still ends in the journal's final state.
+     * @throws IOException If the journal cannot be written.
+     */
+    @Test
+    void replayOverNewerSnapshotEndsInFinalState() throws IOException {
+        Book book = copy();
+        lend(book, "U2");
+        Path journal = write(CirculationJournal.Entry.checkout("111", "U1", DUE),
+                CirculationJournal.Entry.checkIn("111", "U1"),
+                CirculationJournal.Entry.checkout("111", "U2", DUE));
+
+        CirculationJournal.replay(journal, List.of(book));
+
+        assertFalse(book.isAvailable());
+        assertEquals("U2", book.getBorrowedBy());
+    }
+
+    /**
+     * Creates an available copy of the test book.
+     * @return The copy.
+     */
+    private static Book copy() {
+        return new Book("Mistborn", "Brandon Sanderson", "111", true, null, null);
+    }
+
+    /**
+     * Lends a copy as the snapshot would show it.
+     *
+     * @param book   The copy.
+     * @param userId The borrower.
+     */
+    private static void lend(Book book, String userId) {
+        book.setAvailable(false);
+        book.setBorrowedBy(userId);
+        book.setDueDate(DUE);
+    }
+
+    /**
+     * Writes a journal.
+     * @param entries The records, in order.
+     * @return The journal file.
+     * @throws IOException If it cannot be written.
+     */
+    private Path write(CirculationJournal.Entry... entries) throws IOException {
+        Path path = folder.resolve("circulation.journal");
+        try (CirculationJournal journal = new CirculationJournal(path)) {
+            journal.appendAll(List.of(entries));
+        }
+        return path;
+    }
+}
@@ -0,0 +1,67 @@
+package carter.stech.librarysystemv2;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that checkouts and check-ins act only on the book an item names exactly, and only suggest close titles.
+ */
+class CirculationServiceTest {
+    private static final String TITLE = "The Well of Ascension";
+
+    private static CirculationService circulation;
+    private static Book book;
+    private static User user;
+
+    /**
+     * Adds a book and a borrower to the shared test repository.
+     * @throws Exception If the repository cannot be set up.
+     */
+    @BeforeAll
+    static void addRecords() throws Exception {
+        LibraryRepository repository = TestLibrary.repository();
+        circulation = new CirculationService(repository);
+        book = new Book(TITLE, "Brandon Sanderson", "SERVICE-1", true, null, null);
+        user = new User("SERVICE-U1", "Vin", null);
+        TestLibrary.onApplicationThread(() -> {
+            repository.getBooks().add(book);
+            repository.getUsers().add(user);
+            return null;
+        });
+    }
+
+    /**
+     * A title with a typo lends nothing and suggests the title it is close to; the exact title lends the book.
+     * @throws IOException If the journal cannot be written.
+     */
+    @Test
+    void typoIsSuggestedButNotLent() throws IOException {
+        String typo = "The Wel of Ascension";
+        CirculationService.Result result = circulation.checkOut(user, typo);
+
+        assertFalse(result.success());
+        assertNull(result.book());
+        assertTrue(result.message().contains("\"" + TITLE + "\""), result.message());
+        assertTrue(book.isAvailable());
+        assertFalse(circulation.namesBook(typo));
+        assertEquals(TITLE, circulation.suggestTitles(typo).get(0));
+
+        CirculationService.Result lent = circulation.checkOut(user, TITLE.toLowerCase());
+        assertTrue(lent.success(), lent.message());
+        assertEquals("SERVICE-U1", book.getBorrowedBy());
+
+        CirculationService.Result returned = circulation.checkIn("Teh Well of Ascension");
+        assertFalse(returned.success());
+        assertEquals("SERVICE-U1", book.getBorrowedBy());
+
+        assertTrue(circulation.checkIn("SERVICE-1").success());
+        assertTrue(book.isAvailable());
+    }
+}
@@ -0,0 +1,186 @@
+package carter.stech.librarysystemv2;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A concurrency stress test for the circulation transactions. Many threads check books out
+ * and in against one shared collection, as many desks would through the circulation server,
+ * and the collection is then checked for consistency (see {@link LoanAudit}):
+ * <ul>
+ *     <li>a book is on loan exactly when it has a borrower and a due date;</li>
+ *     <li>every user's checked-out list matches the books lent to them;</li>
+ *     <li>no user is over the checkout limit;</li>
+ *     <li>the number of books on loan equals loans made minus loans ended.</li>
+ * </ul>
+ * A second test gives each thread its own books and users.
+ */
+class CirculationStressTest {
+    private static final int TITLES = 1000;
+    private static final int COPIES = 2;     // Copies of each title, sharing an ISBN
+    private static final int USERS = 200;
+    private static final int MAX_BATCH = 4;  // Items per checkout or check-in
+    private static final int THREADS = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+    private static final long RUN_MILLIS = 2000;
+
+    private static LibraryRepository repository;
+    private static CirculationService circulation;
+    private final LongAdder operations = new LongAdder();
+    private final LongAdder loansMade = new LongAdder();
+    private final LongAdder loansEnded = new LongAdder();
+    private final List<Throwable> failures = new ArrayList<>();
+
+    /**
+     * Adds the stress collection to the shared test repository.
+     * @throws Exception If the repository cannot be set up.
+     */
+    @BeforeAll
+    static void addCollection() throws Exception {
+        repository = TestLibrary.repository();
+        circulation = new CirculationService(repository);
+        TestLibrary.onApplicationThread(() -> {
+            for (int i = 0; i < TITLES; i++) {
+                for (int copy = 0; copy < COPIES; copy++) {
+                    repository.getBooks().add(new Book("Stress Title " + i, "Author " + (i % 97), isbnOf(i), true, null, null));
+                }
+            }
+            for (int i = 0; i < USERS; i++) repository.getUsers().add(new User(userIdOf(i), "Stress User " + i, null));
+            return null;
+        });
+    }
+
+    /**
+     * Desks working on the same books and users leave the collection consistent.
+     * @throws Exception If the desks cannot be run or audited.
+     */
+    @Test
+    void sharedCollectionStaysConsistent() throws Exception {
+        assertConsistentAfter(false);
+    }
+
+    /**
+     * Desks keeping to their own books and users leave the collection consistent.
+     * @throws Exception If the desks cannot be run or audited.
+     */
+    @Test
+    void independentItemsStayConsistent() throws Exception {
+        assertConsistentAfter(true);
+    }
+
+    /**
+     * Runs the desks, then audits every loan in the repository.
+     *
+     * @param disjoint Whether each desk keeps to its own books and users.
+     * @throws Exception If the desks cannot be run or audited.
+     */
+    private void assertConsistentAfter(boolean disjoint) throws Exception {
+        long onLoanBefore = TestLibrary.onApplicationThread(CirculationStressTest::countOnLoan);
+        run(disjoint);
+
+        assertEquals(List.of(), failures);
+        assertTrue(operations.sum() > 0, "no transactions ran");
+        assertTrue(loansMade.sum() > 0, "no books were lent");
+        long expected = onLoanBefore + loansMade.sum() - loansEnded.sum();
+        List<String> problems = TestLibrary.onApplicationThread(() -> LoanAudit.check(repository, expected));
+        assertEquals(List.of(), problems);
+    }
+
+    /**
+     * Runs desks against the collection for a while.
+     * @param disjoint Whether each desk keeps to its own books and users.
+     * @throws InterruptedException If interrupted while waiting for the desks.
+     */
+    private void run(boolean disjoint) throws InterruptedException {
+        long deadline = System.nanoTime() + RUN_MILLIS * 1_000_000L;
+        List<Thread> desks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int desk = t;
+            desks.add(Thread.ofPlatform().name("desk-" + t).start(() -> {
+                try {
+                    while (System.nanoTime() < deadline) transact(desk, disjoint);
+                } catch (IOException | RuntimeException e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread desk : desks) desk.join();
+    }
+
+    /**
+     * Checks a random batch out to a random user, or checks a random batch in.
+     *
+     * @param desk     This desk's number.
+     * @param disjoint Whether to keep to this desk's share of the books and users.
+     * @throws IOException If the journal cannot be written.
+     */
+    private void transact(int desk, boolean disjoint) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<String> items = new ArrayList<>();
+        int count = 1 + random.nextInt(MAX_BATCH);
+        for (int i = 0; i < count; i++) items.add(isbnOf(pick(random, TITLES, desk, disjoint)));
+
+        if (random.nextBoolean()) {
+            User user = repository.findUserById(userIdOf(pick(random, USERS, desk, disjoint))).orElseThrow();
+            for (CirculationService.Result result : circulation.checkOutAll(user, items)) {
+                if (result.success()) loansMade.increment();
+            }
+        } else {
+            for (CirculationService.Result result : circulation.checkInAll(items)) {
+                if (result.success() && result.lastBorrowedBy() != null) loansEnded.increment();
+            }
+        }
+        operations.increment();
+    }
+
+    /**
+     * Picks a random item number, from this desk's share if desks are kept apart.
+     *
+     * @param random   The random source.
+     * @param size     The number of items.
+     * @param desk     This desk's number.
+     * @param disjoint Whether to keep to this desk's share.
+     * @return The item number.
+     */
+    private static int pick(ThreadLocalRandom random, int size, int desk, boolean disjoint) {
+        if (!disjoint) return random.nextInt(size);
+        int share = size / THREADS;
+        return desk * share + random.nextInt(Math.max(1, share));
+    }
+
+    /**
+     * Counts the books on loan in the whole repository. Run on the application thread.
+     * @return The number of books with a borrower.
+     */
+    private static long countOnLoan() {
+        return repository.getBooks().stream().filter(book -> book.getBorrowedBy() != null).count();
+    }
+
+    /**
+     * Gets the ISBN of a generated title.
+     * @param title The title number.
+     * @return Its ISBN.
+     */
+    private static String isbnOf(int title) {
+        return "STRESS-" + title;
+    }
+
+    /**
+     * Gets the ID of a generated user.
+     * @param user The user number.
+     * @return The user's ID.
+     */
+    private static String userIdOf(int user) {
+        return "STRESS-U" + user;
+    }
+}
@@ -0,0 +1,238 @@
+package carter.stech.librarysystemv2;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the typo-tolerant index against measuring the distance to every key, as books are
+ * added, removed and retitled, before and after enough churn to pack the keys again.
+ */
+class FuzzyIndexTest {
+    // Few letters, so many keys are within an edit or two of each other; with an accent and punctuation to fold away
+    private static final String LETTERS = "abcABé -";
+
+    private final Random random = new Random(23);
+    private final ObservableList<Book> books = FXCollections.observableArrayList();
+    private final FuzzyIndex<Book> byTitle = new FuzzyIndex<>(books, Book::getTitle, false);
+    private final FuzzyIndex<Book> byWord = new FuzzyIndex<>(books, Book::getTitle, true);
+    private int nextIsbn;
+
+    /**
+     * Searches find the same keys, distances and books as a scan, through edits and repacking.
+     */
+    @Test
+    void searchMatchesScanThroughEdits() {
+        for (int i = 0; i < 1000; i++) books.add(book());
+        // Before the first search the keys are not packed at all
+        assertMatchesScan();
+
+        for (int round = 0; round < 30; round++) {
+            edit(40);
+            assertMatchesScan();
+        }
+
+        // Enough keys come and go to pack the arrays again
+        List<Book> added = new ArrayList<>();
+        for (int i = 0; i < 6000; i++) added.add(book());
+        books.addAll(added);
+        assertMatchesScan();
+        books.removeAll(added.subList(0, 5000));
+        assertMatchesScan();
+
+        for (int round = 0; round < 30; round++) {
+            edit(40);
+            assertMatchesScan();
+        }
+    }
+
+    /**
+     * The index's distance counts a swap of neighbouring characters as one edit, like the scan's.
+     */
+    @Test
+    void distanceMatchesReference() {
+        for (int i = 0; i < 2000; i++) {
+            String a = FuzzyIndex.normalize(text(random.nextInt(9)));
+            String b = FuzzyIndex.normalize(text(random.nextInt(9)));
+            assertEquals(distance(a, b), FuzzyIndex.distance(a, b), a + " / " + b);
+        }
+        assertEquals(1, FuzzyIndex.distance("mistbron", "mistborn"));
+    }
+
+    /**
+     * Makes random edits to the list, telling the indexes about retitled books.
+     * @param count The number of edits.
+     */
+    private void edit(int count) {
+        for (int i = 0; i < count; i++) {
+            switch (random.nextInt(3)) {
+                case 0 -> books.add(book());
+                case 1 -> books.remove(random.nextInt(books.size()));
+                default -> {
+                    Book book = books.get(random.nextInt(books.size()));
+                    String oldTitle = book.getTitle();
+                    book.setTitle(text(1 + random.nextInt(10)));
+                    byTitle.keyChanged(book, oldTitle, book.getTitle());
+                    byWord.keyChanged(book, oldTitle, book.getTitle());
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks random queries against a scan, with random edit limits and result limits, on both indexes.
+     */
+    private void assertMatchesScan() {
+        for (int q = 0; q < 20; q++) {
+            String query = query();
+            int limit = 1 + random.nextInt(40);
+            int maxDistance = random.nextInt(4) == 0 ? FuzzyIndex.maxDistanceFor(query) : random.nextInt(4);
+            assertMatches(byTitle, false, query, maxDistance, limit);
+            assertMatches(byWord, true, query, maxDistance, limit);
+        }
+    }
+
+    /**
+     * Checks one search: the closest keys in order, each with its distance and every book filed under it.
+     *
+     * @param index       The index.
+     * @param words       Whether it files books under each word of their titles.
+     * @param query       The raw query.
+     * @param maxDistance The most edits allowed.
+     * @param limit       The most matches to return.
+     */
+    private void assertMatches(FuzzyIndex<Book> index, boolean words, String query, int maxDistance, int limit) {
+        String target = FuzzyIndex.normalize(query);
+        Map<String, Set<Book>> filed = new HashMap<>();
+        for (Book book : books) {
+            for (String key : keysOf(book.getTitle(), words)) filed.computeIfAbsent(key, k -> identitySet()).add(book);
+        }
+        List<String> expected = new ArrayList<>();
+        if (!target.isEmpty()) {
+            for (String key : filed.keySet()) {
+                if (distance(key, target) <= maxDistance) expected.add(key);
+            }
+        }
+        expected.sort(Comparator.<String>comparingInt(key -> distance(key, target))
+                .thenComparingInt(key -> Math.abs(key.length() - target.length()))
+                .thenComparing(Comparator.naturalOrder()));
+        if (expected.size() > limit) expected = expected.subList(0, limit);
+
+        List<FuzzyIndex.Match<Book>> found = index.search(query, maxDistance, limit);
+        String context = "\"" + query + "\" within " + maxDistance;
+        assertEquals(expected, found.stream().map(FuzzyIndex.Match::key).toList(), context);
+        for (FuzzyIndex.Match<Book> match : found) {
+            assertEquals(distance(match.key(), target), match.distance(), context + ": " + match.key());
+            Set<Book> items = identitySet();
+            items.addAll(match.items());
+            assertEquals(match.items().size(), items.size(), context + ": " + match.key() + " lists a book twice");
+            assertEquals(filed.get(match.key()), items, context + ": " + match.key());
+        }
+    }
+
+    /**
+     * Picks a query: usually an indexed title or one of its words with a few random edits, sometimes random text.
+     * @return The query; may be blank.
+     */
+    private String query() {
+        if (random.nextInt(5) == 0) return text(random.nextInt(8));
+        String title = books.get(random.nextInt(books.size())).getTitle();
+        if (random.nextBoolean()) {
+            String[] words = title.split(" ");
+            if (words.length > 0) title = words[random.nextInt(words.length)];
+        }
+        StringBuilder query = new StringBuilder(title);
+        for (int edits = random.nextInt(4); edits > 0; edits--) {
+            int at = random.nextInt(query.length() + 1);
+            switch (random.nextInt(4)) {
+                case 0 -> query.insert(at, LETTERS.charAt(random.nextInt(LETTERS.length())));
+                case 1 -> { if (at < query.length()) query.deleteCharAt(at); }
+                case 2 -> { if (at < query.length()) query.setCharAt(at, LETTERS.charAt(random.nextInt(LETTERS.length()))); }
+                default -> {
+                    if (at + 1 < query.length()) {
+                        char c = query.charAt(at);
+                        query.setCharAt(at, query.charAt(at + 1));
+                        query.setCharAt(at + 1, c);
+                    }
+                }
+            }
+        }
+        return query.toString();
+    }
+
+    /**
+     * Gets the normalized keys a title is filed under.
+     *
+     * @param title The raw title.
+     * @param words Whether each word is filed on its own.
+     * @return The keys; empty if the title has no letters.
+     */
+    private static List<String> keysOf(String title, boolean words) {
+        String normalized = FuzzyIndex.normalize(title);
+        if (normalized.isEmpty()) return List.of();
+        return words ? Arrays.stream(normalized.split(" ")).distinct().toList() : List.of(normalized);
+    }
+
+    /**
+     * Counts the edits between two strings with the whole table, a swap of neighbouring characters counting as one.
+     *
+     * @param a One string.
+     * @param b The other.
+     * @return The number of edits.
+     */
+    private static int distance(String a, String b) {
+        int[][] table = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) table[i][0] = i;
+        for (int j = 0; j <= b.length(); j++) table[0][j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                table[i][j] = Math.min(table[i - 1][j - 1] + cost, Math.min(table[i - 1][j] + 1, table[i][j - 1] + 1));
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    table[i][j] = Math.min(table[i][j], table[i - 2][j - 2] + 1);
+                }
+            }
+        }
+        return table[a.length()][b.length()];
+    }
+
+    /**
+     * Creates a book with a random title and a unique ISBN.
+     * @return The book.
+     */
+    private Book book() {
+        return new Book(text(1 + random.nextInt(10)), "Author", "F-" + nextIsbn++, true, null, null);
+    }
+
+    /**
+     * Generates text from a few letters.
+     * @param length The length.
+     * @return The text.
+     */
+    private String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) text.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+        return text.toString();
+    }
+
+    /**
+     * Creates a set of books compared by identity.
+     * @return The empty set.
+     */
+    private static Set<Book> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+}
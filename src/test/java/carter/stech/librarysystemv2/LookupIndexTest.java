@@ -0,0 +1,146 @@
+package carter.stech.librarysystemv2;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the lookup index's key suggestions against checking every item, as items are added,
+ * removed and renamed, before and after enough churn to sort the keys again.
+ */
+class LookupIndexTest {
+    private static final String LETTERS = "abAB";  // Few letters, so prefixes are shared by many keys
+
+    private final Random random = new Random(24);
+    private final ObservableList<User> users = FXCollections.observableArrayList();
+    private final LookupIndex<User> byName = new LookupIndex<>(users, User::getName, true);
+    private final LookupIndex<User> byId = new LookupIndex<>(users, User::getUserId, false);
+    private int nextId;
+
+    /**
+     * Suggestions list the same keys as a scan through small edits, a churn past the resort threshold, and more edits.
+     */
+    @Test
+    void keysStartingWithMatchesScan() {
+        for (int i = 0; i < 2000; i++) users.add(user());
+        // Before the first lookup the keys are not sorted at all
+        assertMatchesScan();
+
+        for (int round = 0; round < 30; round++) {
+            edit(50);
+            assertMatchesScan();
+        }
+
+        // Enough keys come and go to sort the array again
+        List<User> added = new ArrayList<>();
+        for (int i = 0; i < 40_000; i++) added.add(user());
+        users.addAll(added);
+        assertMatchesScan();
+        users.removeAll(added.subList(0, 35_000));
+        assertMatchesScan();
+
+        for (int round = 0; round < 30; round++) {
+            edit(50);
+            assertMatchesScan();
+        }
+    }
+
+    /**
+     * Makes random edits to the list, telling the indexes about renamed keys.
+     * @param count The number of edits.
+     */
+    private void edit(int count) {
+        for (int i = 0; i < count; i++) {
+            switch (random.nextInt(4)) {
+                case 0 -> users.add(user());
+                case 1 -> users.remove(random.nextInt(users.size()));
+                case 2 -> {
+                    User user = users.get(random.nextInt(users.size()));
+                    String oldName = user.getName();
+                    user.setName(text(1 + random.nextInt(6)));
+                    byName.keyChanged(user, oldName, user.getName());
+                }
+                default -> {
+                    User user = users.get(random.nextInt(users.size()));
+                    String oldId = user.getUserId();
+                    user.setUserId(text(1 + random.nextInt(6)) + nextId++);
+                    byId.keyChanged(user, oldId, user.getUserId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks random prefixes against a scan, with random limits, on both indexes.
+     */
+    private void assertMatchesScan() {
+        for (int q = 0; q < 20; q++) {
+            String prefix = text(1 + random.nextInt(4));
+            int limit = 1 + random.nextInt(30);
+            assertKeys(byName, true, users.stream().map(User::getName).toList(), prefix, limit);
+            assertKeys(byId, false, users.stream().map(User::getUserId).toList(), prefix, limit);
+        }
+    }
+
+    /**
+     * Checks one index's suggestions for a prefix: the first keys in order that start with it,
+     * each listed once, each spelt as some item has it.
+     *
+     * @param index           The index.
+     * @param caseInsensitive Whether it ignores case.
+     * @param keys            The key of every item.
+     * @param prefix          The prefix.
+     * @param limit           The most keys to list.
+     */
+    private static void assertKeys(LookupIndex<User> index, boolean caseInsensitive, List<String> keys, String prefix, int limit) {
+        TreeSet<String> matching = new TreeSet<>();
+        String start = normalize(prefix, caseInsensitive);
+        for (String key : keys) {
+            if (normalize(key, caseInsensitive).startsWith(start)) matching.add(normalize(key, caseInsensitive));
+        }
+        List<String> expected = matching.stream().limit(limit).toList();
+
+        List<String> found = index.keysStartingWith(prefix, limit);
+        assertEquals(expected, found.stream().map(key -> normalize(key, caseInsensitive)).toList(), prefix);
+        for (String key : found) assertTrue(keys.contains(key), key + " is not any item's key");
+    }
+
+    /**
+     * Normalizes a key as the index compares it.
+     *
+     * @param key             The key.
+     * @param caseInsensitive Whether case is ignored.
+     * @return The normalized key.
+     */
+    private static String normalize(String key, boolean caseInsensitive) {
+        return caseInsensitive ? key.toLowerCase(Locale.ROOT) : key;
+    }
+
+    /**
+     * Creates a user with a random name and a unique ID.
+     * @return The user.
+     */
+    private User user() {
+        return new User(text(1 + random.nextInt(4)) + nextId++, text(1 + random.nextInt(6)), null);
+    }
+
+    /**
+     * Generates text from a few letters.
+     * @param length The length.
+     * @return The text.
+     */
+    private String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) text.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+        return text.toString();
+    }
+}
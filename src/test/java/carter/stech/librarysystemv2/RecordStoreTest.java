@@ -0,0 +1,122 @@
+package carter.stech.librarysystemv2;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that saves survive failed writes and edits made while a write is waiting.
+ */
+class RecordStoreTest {
+    @TempDir
+    Path folder;
+
+    /**
+     * After a delta write fails, the next save writes the whole list, and the files load back as the list.
+     * @throws IOException If a file cannot be written or read.
+     */
+    @Test
+    void failedWriteIsFollowedBySnapshot() throws IOException {
+        RecordStore<Book> store = bookStore();
+        store.load(100, chunk -> { });
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 5; i++) add(store, books, new Book("Title " + i, "Author", "isbn-" + i, true, null, null));
+        store.prepareSave(books).run();
+        assertFalse(Files.exists(folder.resolve("books.json")));
+
+        // The delta cannot be appended to while a directory stands in its place
+        Path delta = folder.resolve("books.delta");
+        Files.delete(delta);
+        Files.createDirectory(delta);
+        books.get(1).setTitle("Edited");
+        store.changed(books.get(1));
+        RecordStore.SaveTask failing = store.prepareSave(books);
+        books.get(2).setTitle("Edited later");
+        store.changed(books.get(2));
+        RecordStore.SaveTask behind = store.prepareSave(books);
+        assertThrows(IOException.class, failing::run);
+        assertThrows(IOException.class, behind::run);
+
+        Files.delete(delta);
+        add(store, books, new Book("Title 5", "Author", "isbn-5", true, null, null));
+        store.prepareSave(books).run();
+
+        assertTrue(Files.exists(folder.resolve("books.json")));
+        assertEquals(titles(books), titles(reload()));
+    }
+
+    /**
+     * A snapshot holds the records as they were when it was prepared, even if they change before it is written.
+     * @throws IOException If a file cannot be written or read.
+     */
+    @Test
+    void snapshotIsCapturedWhenPrepared() throws IOException {
+        RecordStore<Book> store = bookStore();
+        store.load(100, chunk -> { });
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) add(store, books, new Book("Title " + i, "Author", "isbn-" + i, true, null, null));
+        RecordStore.SaveTask snapshot = store.prepareSave(books);
+        List<String> prepared = titles(books);
+
+        books.get(0).setTitle("Edited after");
+        store.changed(books.get(0));
+        snapshot.run();
+
+        assertTrue(Files.exists(folder.resolve("books.json")));
+        assertEquals(prepared, titles(reload()));
+
+        store.prepareSave(books).run();
+        assertEquals(titles(books), titles(reload()));
+    }
+
+    /**
+     * Creates a store over the test folder.
+     * @return The store.
+     */
+    private RecordStore<Book> bookStore() {
+        return new RecordStore<>(Book.class, folder.resolve("books.json"), folder.resolve("books.bin"),
+                folder.resolve("books.delta"), Book::getSlot, Book::setSlot);
+    }
+
+    /**
+     * Adds a book to the list and tells the store, as the repository does.
+     *
+     * @param store The store.
+     * @param books The list.
+     * @param book  The new book.
+     */
+    private static void add(RecordStore<Book> store, List<Book> books, Book book) {
+        books.add(book);
+        store.added(book);
+    }
+
+    /**
+     * Loads the saved books with a fresh store.
+     * @return The books, in slot order.
+     * @throws IOException If the files cannot be read.
+     */
+    private List<Book> reload() throws IOException {
+        List<Book> loaded = new ArrayList<>();
+        bookStore().load(100, loaded::addAll);
+        return loaded;
+    }
+
+    /**
+     * Lists the titles of some books.
+     * @param books The books.
+     * @return Their titles, in order.
+     */
+    private static List<String> titles(List<Book> books) {
+        return books.stream().map(Book::getTitle).toList();
+    }
+}
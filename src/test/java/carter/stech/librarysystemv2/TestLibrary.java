@@ -0,0 +1,58 @@
+package carter.stech.librarysystemv2;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The repository the tests share, over a fresh temporary data folder, so no real data is touched.
+ * The repository is one per process and reads library.dataDir once, so every test that needs it
+ * gets it from here rather than from {@link LibraryRepository#getInstance()}.
+ */
+final class TestLibrary {
+    private static ExecutorService applicationThread;
+    private static LibraryRepository repository;
+
+    /**
+     * Not instantiable.
+     */
+    private TestLibrary() {
+    }
+
+    /**
+     * Gets the shared repository, creating it over a temporary folder on first use.
+     * @return The loaded repository.
+     * @throws Exception If it cannot be created or loaded.
+     */
+    static synchronized LibraryRepository repository() throws Exception {
+        if (repository == null) {
+            Path directory = Files.createTempDirectory("library-test-");
+            System.setProperty("library.dataDir", directory.toString());
+            System.setProperty("library.metricsInterval", "0");
+            applicationThread = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "library-application");
+                thread.setDaemon(true);
+                return thread;
+            });
+            LibraryRepository.useApplicationThread(applicationThread);
+            repository = applicationThread.submit(LibraryRepository::getInstance).get();
+            repository.whenLoaded().join();
+        }
+        return repository;
+    }
+
+    /**
+     * Runs a task on the thread that owns the lists, and waits for it.
+     *
+     * @param task The task.
+     * @param <T>  Its result type.
+     * @return Its result.
+     * @throws Exception If the repository cannot be created or the task fails.
+     */
+    static <T> T onApplicationThread(Callable<T> task) throws Exception {
+        repository();
+        return applicationThread.submit(task).get();
+    }
+}
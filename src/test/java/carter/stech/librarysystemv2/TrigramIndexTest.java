@@ -0,0 +1,178 @@
+package carter.stech.librarysystemv2;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the trigram index against checking every book, as books are added, removed and retitled.
+ */
+class TrigramIndexTest {
+    // Few letters, so queries share trigrams with many books, including the dotless and dotted I
+    // and the long s, whose upper and lower cases do not map back and forth
+    private static final String LETTERS = "aAbBcCdeE\u0131Ii\u0130\u017FsSKk ";
+
+    /**
+     * Searches find exactly the books whose title or author contains the query, through random
+     * edits, and through enough removals to compact the index.
+     */
+    @Test
+    void searchMatchesScanThroughEdits() {
+        Random random = new Random(4);
+        ObservableList<Book> books = FXCollections.observableArrayList();
+        for (int i = 0; i < 500; i++) books.add(book(random, i));
+        TrigramIndex index = new TrigramIndex(books);
+        editAndCheck(random, books, index);
+
+        // More books come and go than are left, so their empty slots are reclaimed
+        List<Book> added = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) added.add(book(random, -3 - i));
+        books.addAll(added);
+        assertMatchesScan(random, books, index);
+        books.removeAll(added);
+        assertMatchesScan(random, books, index);
+        editAndCheck(random, books, index);
+    }
+
+    /**
+     * Makes rounds of random edits, checking searches after each.
+     *
+     * @param random The random source.
+     * @param books  The books.
+     * @param index  Their index.
+     */
+    private static void editAndCheck(Random random, ObservableList<Book> books, TrigramIndex index) {
+        for (int round = 0; round < 40; round++) {
+            for (int i = 0; i < 20; i++) {
+                switch (random.nextInt(4)) {
+                    case 0 -> books.add(book(random, books.size()));
+                    case 1 -> books.remove(random.nextInt(books.size()));
+                    case 2 -> books.addAll(List.of(book(random, -1), book(random, -2)));
+                    default -> {
+                        Book book = books.get(random.nextInt(books.size()));
+                        String oldTitle = book.getTitle();
+                        String oldAuthor = book.getAuthor();
+                        book.setTitle(text(random, 3 + random.nextInt(12)));
+                        if (random.nextBoolean()) book.setAuthor(text(random, 3 + random.nextInt(8)));
+                        index.textChanged(book, oldTitle, oldAuthor);
+                    }
+                }
+            }
+            if (round % 10 == 9) books.removeAll(new ArrayList<>(books.subList(0, 30)));
+            assertMatchesScan(random, books, index);
+        }
+    }
+
+    /**
+     * Checks random queries against a scan: each book found once, the same books, and an
+     * estimate no lower than the count; and every book in the order it was indexed.
+     *
+     * @param random The random source.
+     * @param books  The books.
+     * @param index  Their index.
+     */
+    private static void assertMatchesScan(Random random, List<Book> books, TrigramIndex index) {
+        for (int q = 0; q < 30; q++) {
+            String query = query(random, books);
+            Set<Book> expected = scan(books, query);
+            List<Book> found = index.search(query);
+            Set<Book> foundSet = identitySet();
+            foundSet.addAll(found);
+            assertEquals(found.size(), foundSet.size(), "\"" + query + "\" found a book twice");
+            assertEquals(expected, foundSet, "\"" + query + "\"");
+            assertTrue(index.estimate(query) >= expected.size(), "\"" + query + "\" was underestimated");
+            assertEquals(books, index.scan(book -> true), "books are not in the order they were indexed");
+        }
+    }
+
+    /**
+     * Picks a query: usually part of a title or author as stored or with its case changed, sometimes random text.
+     *
+     * @param random The random source.
+     * @param books  The books.
+     * @return The query; never empty.
+     */
+    private static String query(Random random, List<Book> books) {
+        if (random.nextInt(5) == 0) return text(random, 1 + random.nextInt(5));
+        Book book = books.get(random.nextInt(books.size()));
+        String source = random.nextBoolean() ? book.getTitle() : book.getAuthor();
+        int start = random.nextInt(source.length());
+        String part = source.substring(start, Math.min(source.length(), start + 1 + random.nextInt(6)));
+        return switch (random.nextInt(3)) {
+            case 0 -> part.toUpperCase();
+            case 1 -> part.toLowerCase();
+            default -> part;
+        };
+    }
+
+    /**
+     * Finds the books whose title or author contains the query, ignoring the case of each character.
+     *
+     * @param books The books.
+     * @param query The query.
+     * @return The matching books.
+     */
+    private static Set<Book> scan(List<Book> books, String query) {
+        Set<Book> matches = identitySet();
+        for (Book book : books) {
+            if (contains(book.getTitle(), query) || contains(book.getAuthor(), query)) matches.add(book);
+        }
+        return matches;
+    }
+
+    /**
+     * Checks every position of a text for the query, ignoring case.
+     *
+     * @param text  The text.
+     * @param query The query.
+     * @return True if the text contains the query.
+     */
+    private static boolean contains(String text, String query) {
+        for (int i = 0; i <= text.length() - query.length(); i++) {
+            if (text.regionMatches(true, i, query, 0, query.length())) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Generates a book.
+     *
+     * @param random The random source.
+     * @param number A number for its ISBN.
+     * @return The book.
+     */
+    private static Book book(Random random, int number) {
+        return new Book(text(random, 3 + random.nextInt(12)), text(random, 3 + random.nextInt(8)), "T-" + number, true, null, null);
+    }
+
+    /**
+     * Generates text from a few letters.
+     *
+     * @param random The random source.
+     * @param length The length.
+     * @return The text.
+     */
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) text.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+        return text.toString();
+    }
+
+    /**
+     * Creates a set of books compared by identity.
+     * @return The empty set.
+     */
+    private static Set<Book> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+}